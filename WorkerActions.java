@@ -370,6 +370,8 @@ public class WorkerActions extends Thread {
                 out.flush();
 
             }else if (role.equals("purchase")) {
+                // Legacy path, serialized by the worker-wide lock. The com.fooddelivery server handles
+                // PURCHASE_REQUEST in Worker.purchaseItems without it (per-product stock reservation).
                 // Receive from master
                 String responseId = (String) in.readObject();
                 Purchase purchase = (Purchase) in.readObject();
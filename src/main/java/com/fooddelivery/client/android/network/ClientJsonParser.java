@@ -1,14 +1,16 @@
 package com.fooddelivery.client.android.network; // Or a common util package if shared with Master
 
+import com.fooddelivery.communication.payloads.MapTaskRequestPayload;
+import com.fooddelivery.communication.payloads.MapTaskResponsePayload;
+import com.fooddelivery.communication.payloads.SalesDataEntry;
 import com.fooddelivery.communication.payloads.StoreInfoForClient;
 import com.fooddelivery.communication.payloads.SearchStoresResponsePayload;
 import com.fooddelivery.communication.payloads.SearchStoresRequestPayload; // Added import
-import com.fooddelivery.util.StoreJsonParser; // For reusing basic value extractors
+import com.fooddelivery.util.JsonReader; // Shared single-pass tokenizer
+import com.fooddelivery.util.StoreJsonParser; // For JsonParseException
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class ClientJsonParser {
 
@@ -19,71 +21,61 @@ public class ClientJsonParser {
         }
 
         List<StoreInfoForClient> results = new ArrayList<>();
-        // Regex to find the "results" array: "results"\s*:\s*\[(.*?)\]
-        // The (.*?) part should capture everything inside the brackets.
-        // Need to be careful with nested structures if any, but StoreInfoForClient is flat.
-        Pattern resultsArrayPattern = Pattern.compile("\"results\"\\s*:\\s*\\[([\\s\\S]*?)\\]");
-        Matcher resultsArrayMatcher = resultsArrayPattern.matcher(jsonResponse);
-
-        if (resultsArrayMatcher.find()) {
-            String resultsJson = resultsArrayMatcher.group(1).trim();
-            if (!resultsJson.isEmpty()) {
-                // Split individual StoreInfoForClient objects.
-                // This assumes objects are enclosed in {} and separated by commas.
-                // A simple split by "}," might work if we then add back "}" and handle the last element.
-                String[] storeJsonObjects = resultsJson.split("\\}\\s*,\\s*\\{"); 
-                for (int i = 0; i < storeJsonObjects.length; i++) {
-                    String storeJson = storeJsonObjects[i];
-                    if (storeJsonObjects.length > 1) { // If multiple objects
-                        if (i == 0 && !storeJson.startsWith("{")) storeJson = "{" + storeJson; 
-                        if (i == storeJsonObjects.length - 1 && !storeJson.endsWith("}")) storeJson = storeJson + "}";
-                        else if (i > 0 && i < storeJsonObjects.length -1 ) storeJson = "{" + storeJson + "}";
-                        // if it's a middle element, it needs both { and }
-                        else if (i > 0 && !storeJson.startsWith("{")) storeJson = "{" + storeJson;
-                        else if (i < storeJsonObjects.length -1 && !storeJson.endsWith("}")) storeJson = storeJson + "}";
-
-
-                    } else if (!storeJson.startsWith("{") && !storeJson.endsWith("}")) { // Single object, ensure it's wrapped
-                         storeJson = "{" + storeJson + "}";
-                    }
-                     
-                    // Ensure braces if they were stripped by split
-                    if (!storeJson.startsWith("{") && storeJson.contains(":")) storeJson = "{" + storeJson;
-                    if (!storeJson.endsWith("}") && storeJson.contains(":")) storeJson = storeJson + "}";
-
-
-                    if (storeJson.trim().equals("{}") || storeJson.trim().isEmpty() || !storeJson.contains(":")) continue;
-                    
-                    results.add(parseStoreInfoForClient(storeJson));
+        String nextCursor = null;
+        JsonReader reader = new JsonReader(jsonResponse);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("results") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    results.add(parseStoreInfoForClient(reader));
                 }
-            }
-        } else {
-            // This could mean an empty results array "[]" or malformed JSON.
-            if (!jsonResponse.contains("\"results\"\\s*:\\s*\\[")) {
-                 // System.err.println("ClientJsonParser: 'results' array structure not found in SearchStoresResponse.");
+                reader.endArray();
+            } else if (name.equals("nextCursor") && reader.peek() == JsonReader.Token.STRING) {
+                nextCursor = reader.nextString();
+            } else {
+                reader.skipValue();
             }
         }
-        return new SearchStoresResponsePayload(results);
+        reader.endObject();
+        SearchStoresResponsePayload response = new SearchStoresResponsePayload(results);
+        response.setNextCursor(nextCursor);
+        return response;
     }
 
-    // Parses a JSON string representing a single StoreInfoForClient object
-    private static StoreInfoForClient parseStoreInfoForClient(String storeJson) throws StoreJsonParser.JsonParseException {
-        // Reusing extractors from StoreJsonParser (they are static)
+    // Reads one StoreInfoForClient object at the reader's current position
+    private static StoreInfoForClient parseStoreInfoForClient(JsonReader reader) throws StoreJsonParser.JsonParseException {
         // Ensure these keys match exactly what the Worker sends.
-        String storeName = StoreJsonParser.extractStringValue(storeJson, "storeName");
-        String foodCategory = StoreJsonParser.extractStringValue(storeJson, "foodCategory");
-        int stars = StoreJsonParser.extractIntValue(storeJson, "stars");
-        String priceCategory = StoreJsonParser.extractStringValue(storeJson, "priceCategory");
-        double distanceKm = StoreJsonParser.extractDoubleValue(storeJson, "distanceKm");
-        String storeLogoPath = StoreJsonParser.extractStringValue(storeJson, "storeLogoPath");
-        double latitude = StoreJsonParser.extractDoubleValue(storeJson, "latitude");
-        double longitude = StoreJsonParser.extractDoubleValue(storeJson, "longitude");
+        String storeName = null;
+        String foodCategory = null;
+        int stars = 0;
+        String priceCategory = null;
+        double distanceKm = 0.0;
+        String storeLogoPath = null;
+        double latitude = 0.0;
+        double longitude = 0.0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "storeName": storeName = reader.nextString(); break;
+                case "foodCategory": foodCategory = reader.nextString(); break;
+                case "stars": stars = reader.nextInt(); break;
+                case "priceCategory": priceCategory = reader.nextString(); break;
+                case "distanceKm": distanceKm = reader.nextDouble(); break;
+                case "storeLogoPath": storeLogoPath = reader.nextString(); break;
+                case "latitude": latitude = reader.nextDouble(); break;
+                case "longitude": longitude = reader.nextDouble(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
 
         if (storeName == null) {
-            // System.err.println("ClientJsonParser: storeName is null in storeJson: " + storeJson);
-            throw new StoreJsonParser.JsonParseException("parseStoreInfoForClient: storeName is missing. JSON: " + storeJson);
+            throw new StoreJsonParser.JsonParseException("parseStoreInfoForClient: storeName is missing.");
         }
-        
+
         return new StoreInfoForClient(storeName, foodCategory, stars, priceCategory, distanceKm, storeLogoPath, latitude, longitude);
     }
 
@@ -92,13 +84,39 @@ public class ClientJsonParser {
         if (jsonRequest == null || jsonRequest.trim().isEmpty()) {
             throw new StoreJsonParser.JsonParseException("SearchStoresRequest JSON is null or empty.");
         }
-        double lat = StoreJsonParser.extractDoubleValue(jsonRequest, "clientLatitude");
-        double lon = StoreJsonParser.extractDoubleValue(jsonRequest, "clientLongitude");
-        String foodCat = StoreJsonParser.extractStringValue(jsonRequest, "foodCategoryFilter");
-        int minStars = StoreJsonParser.extractIntValue(jsonRequest, "minStarsFilter");
-        String priceRange = StoreJsonParser.extractStringValue(jsonRequest, "priceRangeFilter");
+        double lat = 0.0;
+        double lon = 0.0;
+        String foodCat = null;
+        int minStars = 0;
+        String priceRange = null;
+        double radiusKm = 0;
+        String sortBy = null;
+        int limit = 0;
+        String cursor = null;
+
+        JsonReader reader = new JsonReader(jsonRequest);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "clientLatitude": lat = reader.nextDouble(); break;
+                case "clientLongitude": lon = reader.nextDouble(); break;
+                case "foodCategoryFilter": foodCat = reader.nextString(); break;
+                case "minStarsFilter": minStars = reader.nextInt(); break;
+                case "priceRangeFilter": priceRange = reader.nextString(); break;
+                case "radiusKm": radiusKm = reader.nextDouble(); break;
+                case "sortBy": sortBy = reader.nextString(); break;
+                case "limit": limit = reader.nextInt(); break;
+                case "cursor": cursor = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        return new SearchStoresRequestPayload(lat, lon, foodCat, minStars, priceRange);
+        SearchStoresRequestPayload request = new SearchStoresRequestPayload(lat, lon, foodCat, minStars, priceRange, radiusKm);
+        request.setSortBy(sortBy);
+        request.setLimit(limit);
+        request.setCursor(cursor);
+        return request;
     }
 
     public static com.fooddelivery.communication.payloads.RateStoreRequestPayload parseRateStoreRequestPayload(String jsonRequest) throws StoreJsonParser.JsonParseException {
@@ -106,8 +124,18 @@ public class ClientJsonParser {
             throw new StoreJsonParser.JsonParseException("RateStoreRequest JSON is null or empty.");
         }
         // storeName might be parsed here if not relying solely on routing key, but for worker, routing key is primary.
-        String storeName = StoreJsonParser.extractStringValue(jsonRequest, "storeName"); // Optional here if routing key is used
-        int stars = StoreJsonParser.extractIntValue(jsonRequest, "stars");
+        String storeName = null; // Optional here if routing key is used
+        int stars = 0;
+        JsonReader reader = new JsonReader(jsonRequest);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "storeName": storeName = reader.nextString(); break;
+                case "stars": stars = reader.nextInt(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
         if (stars < 1 || stars > 5) {
             throw new StoreJsonParser.JsonParseException("Stars must be between 1 and 5. Received: " + stars);
         }
@@ -116,8 +144,18 @@ public class ClientJsonParser {
 
     public static MapTaskRequestPayload parseMapTaskRequestPayload(String json) throws StoreJsonParser.JsonParseException {
         if (json == null || json.trim().isEmpty()) throw new StoreJsonParser.JsonParseException("MapTaskRequestPayload JSON is null or empty.");
-        String taskType = StoreJsonParser.extractStringValue(json, "taskTypeIdentifier");
-        String criteria = StoreJsonParser.extractStringValue(json, "targetCriteria");
+        String taskType = null;
+        String criteria = null;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "taskTypeIdentifier": taskType = reader.nextString(); break;
+                case "targetCriteria": criteria = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
         if (taskType == null || criteria == null) throw new StoreJsonParser.JsonParseException("taskTypeIdentifier or targetCriteria missing in MapTaskRequestPayload.");
         return new MapTaskRequestPayload(taskType, criteria);
     }
@@ -125,38 +163,63 @@ public class ClientJsonParser {
     public static MapTaskResponsePayload parseMapTaskResponsePayload(String json) throws StoreJsonParser.JsonParseException {
         if (json == null || json.trim().isEmpty()) throw new StoreJsonParser.JsonParseException("MapTaskResponsePayload JSON is null or empty.");
         List<SalesDataEntry> results = new ArrayList<>();
-        Pattern resultsArrayPattern = Pattern.compile("\"mappedResults\"\\s*:\\s*\\[([\\s\\S]*?)\\]");
-        Matcher resultsArrayMatcher = resultsArrayPattern.matcher(json);
-
-        if (resultsArrayMatcher.find()) {
-            String resultsJson = resultsArrayMatcher.group(1).trim();
-            if (!resultsJson.isEmpty()) {
-                // This splitting logic is very basic and fragile for complex JSON arrays.
-                String[] entryJsonObjects = resultsJson.split("\\}\\s*,\\s*\\{"); 
-                for (int i = 0; i < entryJsonObjects.length; i++) {
-                    String entryJson = entryJsonObjects[i];
-                    if (entryJsonObjects.length > 1) {
-                        if (i == 0 && !entryJson.startsWith("{")) entryJson = "{" + entryJson + "}";
-                        else if (i == entryJsonObjects.length - 1 && !entryJson.endsWith("}")) entryJson = entryJson + "}";
-                        else if (i > 0 && i < entryJsonObjects.length -1) entryJson = "{" + entryJson + "}";
-                         else if (entryJsonObjects.length == 1 && !entryJson.startsWith("{")) entryJson = "{" + entryJson + "}";
-
-                    } else if (!entryJson.startsWith("{") && !entryJson.endsWith("}")) {
-                         entryJson = "{" + entryJson + "}";
-                    }
-                    if (!entryJson.startsWith("{") && entryJson.contains(":")) entryJson = "{" + entryJson;
-                    if (!entryJson.endsWith("}") && entryJson.contains(":")) entryJson = "{" + entryJson + "}";
-                    
-                    if (entryJson.trim().equals("{}") || entryJson.trim().isEmpty() || !entryJson.contains(":")) continue;
-                    
-                    // Assuming SalesDataEntry has fields: itemName, totalQuantity, totalRevenue
-                    String itemName = StoreJsonParser.extractStringValue(entryJson, "itemName");
-                    int quantity = StoreJsonParser.extractIntValue(entryJson, "totalQuantity"); // May not be relevant here
-                    double revenue = StoreJsonParser.extractDoubleValue(entryJson, "totalRevenue");
-                    if(itemName != null) results.add(new SalesDataEntry(itemName, quantity, revenue));
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("mappedResults") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    SalesDataEntry entry = parseSalesDataEntry(reader);
+                    if (entry != null) results.add(entry);
                 }
+                reader.endArray();
+            } else {
+                reader.skipValue();
             }
         }
+        reader.endObject();
         return new MapTaskResponsePayload(results);
     }
+
+    // Parses a worker's LIST_STORES_REQUEST answer: {"storeNames":[...]}
+    public static List<String> parseStoreNamesResponse(String json) throws StoreJsonParser.JsonParseException {
+        if (json == null || json.trim().isEmpty()) throw new StoreJsonParser.JsonParseException("Store names JSON is null or empty.");
+        List<String> storeNames = new ArrayList<>();
+        boolean found = false;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("storeNames") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                found = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    storeNames.add(reader.nextString());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!found) throw new StoreJsonParser.JsonParseException("storeNames missing in store names response.");
+        return storeNames;
+    }
+
+    // Reads one SalesDataEntry object; entries without an itemName are dropped (null).
+    private static SalesDataEntry parseSalesDataEntry(JsonReader reader) throws StoreJsonParser.JsonParseException {
+        String itemName = null;
+        int quantity = 0; // May not be relevant for map results
+        double revenue = 0.0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "itemName": itemName = reader.nextString(); break;
+                case "totalQuantity": quantity = reader.nextInt(); break;
+                case "totalRevenue": revenue = reader.nextDouble(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return itemName != null ? new SalesDataEntry(itemName, quantity, revenue) : null;
+    }
 }
@@ -3,10 +3,10 @@ package com.fooddelivery.client.android.network;
 import com.fooddelivery.communication.payloads.*; // Using the shared payload classes
 import com.fooddelivery.client.android.model.CartItem; // Though CartItem is client model, PurchaseRequest uses OrderItemPayload
 
+import com.fooddelivery.util.JsonReader;
+import com.fooddelivery.util.StoreJsonParser;
+
 import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class ClientJsonUtil {
 
@@ -17,35 +17,6 @@ public class ClientJsonUtil {
         return value.replace("\\", "\\\\").replace("\"", "\\\""); // Basic escaping
     }
 
-    // Basic value extractors - these are very simplified and assume keys are unique at their expected level
-    private static String extractStringValue(String json, String key) {
-        Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*\"([^\"]*)\"");
-        Matcher matcher = pattern.matcher(json);
-        return matcher.find() ? matcher.group(1) : null;
-    }
-
-    private static int extractIntValue(String json, String key) {
-        Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*([0-9]+)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            try {
-                return Integer.parseInt(matcher.group(1));
-            } catch (NumberFormatException e) { /* Log or handle */ }
-        }
-        return 0; // Default or throw
-    }
-    
-    private static double extractDoubleValue(String json, String key) {
-        Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*([0-9]*\\.?[0-9]+)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            try {
-                return Double.parseDouble(matcher.group(1));
-            } catch (NumberFormatException e) { /* Log or handle */ }
-        }
-        return 0.0; // Default or throw
-    }
-
     // --- Serialization Methods (POJO to JSON String) ---
 
     public static String toJson(SearchStoresRequestPayload payload) {
@@ -106,57 +77,35 @@ public class ClientJsonUtil {
 
     public static SearchStoresResponsePayload fromSearchStoresResponseJson(String json) {
         if (json == null || json.trim().isEmpty()) return new SearchStoresResponsePayload(new ArrayList<>());
-        
-        List<StoreInfoForClient> results = new ArrayList<>();
-        // This parsing logic is extremely basic and fragile. Reuses simplified logic from ClientJsonParser.
-        Pattern resultsArrayPattern = Pattern.compile("\"results\"\\s*:\\s*\\[([\\s\\S]*?)\\]");
-        Matcher resultsArrayMatcher = resultsArrayPattern.matcher(json);
-
-        if (resultsArrayMatcher.find()) {
-            String resultsJson = resultsArrayMatcher.group(1).trim();
-            if (!resultsJson.isEmpty()) {
-                String[] storeJsonObjects = resultsJson.split("\\}\\s*,\\s*\\{"); 
-                for (int i = 0; i < storeJsonObjects.length; i++) {
-                    String storeJson = storeJsonObjects[i];
-                    if (storeJsonObjects.length > 1) {
-                         if (i == 0 && !storeJson.startsWith("{")) storeJson = "{" + storeJson + "}";
-                         else if (i == storeJsonObjects.length - 1 && !storeJson.endsWith("}")) storeJson = storeJson + "}";
-                         else if (i > 0 && i < storeJsonObjects.length -1 ) storeJson = "{" + storeJson + "}";
-                         else if (storeJsonObjects.length == 1 && !storeJson.startsWith("{") && !storeJson.endsWith("}")) storeJson = "{" + storeJson + "}";
-
-                    }  else if (!storeJson.startsWith("{") && !storeJson.endsWith("}")) {
-                         storeJson = "{" + storeJson + "}";
-                    }
-                    if (!storeJson.startsWith("{") && storeJson.contains(":")) storeJson = "{" + storeJson;
-                    if (!storeJson.endsWith("}") && storeJson.contains(":")) storeJson = "{" + storeJson + "}";
-
-                    if (storeJson.trim().equals("{}") || storeJson.trim().isEmpty() || !storeJson.contains(":")) continue;
-
-                    String name = extractStringValue(storeJson, "storeName");
-                    if (name != null) { // Basic check
-                         results.add(new StoreInfoForClient(
-                            name,
-                            extractStringValue(storeJson, "foodCategory"),
-                            extractIntValue(storeJson, "stars"),
-                            extractStringValue(storeJson, "priceCategory"),
-                            extractDoubleValue(storeJson, "distanceKm"),
-                            extractStringValue(storeJson, "storeLogoPath"),
-                            extractDoubleValue(storeJson, "latitude"),
-                            extractDoubleValue(storeJson, "longitude")
-                        ));
-                    }
-                }
-            }
+        try {
+            return ClientJsonParser.parseSearchStoresResponse(json); // Same single-pass parser the Master uses
+        } catch (StoreJsonParser.JsonParseException e) {
+            System.err.println("ClientJsonUtil: Could not parse search response: " + e.getMessage());
+            return new SearchStoresResponsePayload(new ArrayList<>());
         }
-        return new SearchStoresResponsePayload(results);
     }
 
     public static StatusResponsePayload fromStatusResponseJson(String json) {
         if (json == null || json.trim().isEmpty()) return new StatusResponsePayload("FAILURE", "Empty or null server response");
         
-        String storeName = extractStringValue(json, "storeName"); // Optional
-        String status = extractStringValue(json, "status");
-        String message = extractStringValue(json, "message");
+        String storeName = null; // Optional
+        String status = null;
+        String message = null;
+        try {
+            JsonReader reader = new JsonReader(json);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "storeName": storeName = reader.nextString(); break;
+                    case "status": status = reader.nextString(); break;
+                    case "message": message = reader.nextString(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (StoreJsonParser.JsonParseException e) {
+            // Keep whatever was read before the error; defaults below cover the rest
+        }
 
         if (status == null) status = "FAILURE"; // Default if parsing fails
         if (message == null) message = "Could not parse server status response.";
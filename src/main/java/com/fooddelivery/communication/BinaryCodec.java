@@ -0,0 +1,220 @@
+package com.fooddelivery.communication;
+
+import com.fooddelivery.communication.payloads.MapTaskRequestPayload;
+import com.fooddelivery.communication.payloads.MapTaskResponsePayload;
+import com.fooddelivery.communication.payloads.SalesDataEntry;
+import com.fooddelivery.communication.payloads.SearchStoresRequestPayload;
+import com.fooddelivery.communication.payloads.SearchStoresResponsePayload;
+import com.fooddelivery.communication.payloads.StoreInfoForClient;
+import com.fooddelivery.model.Product;
+import com.fooddelivery.model.Store;
+import com.fooddelivery.util.StoreJsonParser.JsonParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+// Compact binary encoding of the payloads exchanged between Master and Workers. JSON stays at the client
+// edge; on internal hops the Master no longer parses every worker's search/map JSON just to re-serialize it.
+//
+// A binary payload is still one protocol line: "~b<version>:" followed by the Base64 of
+// [type tag byte][fields in declaration order]. Strings are a presence flag plus modified UTF-8, numbers are
+// fixed width. The Master only sends binary payloads to a worker after that connection negotiated the codec
+// (NEGOTIATE_CODEC_REQUEST), and a worker answers a binary request with a binary result, so JSON-only peers
+// keep working. Changing a layout means bumping VERSION.
+public final class BinaryCodec {
+
+    public static final int VERSION = 3; // 2: search requests carry a radius; 3: and a sort key, limit and cursor
+    private static final String PREFIX = "~b";
+    private static final String LINE_PREFIX = PREFIX + VERSION + ":";
+
+    private static final byte STORE = 1;
+    private static final byte SEARCH_STORES_REQUEST = 2;
+    private static final byte SEARCH_STORES_RESPONSE = 3;
+    private static final byte MAP_TASK_REQUEST = 4;
+    private static final byte MAP_TASK_RESPONSE = 5;
+
+    private BinaryCodec() {}
+
+    // True if the payload line is binary-encoded (of any version).
+    public static boolean isBinary(String payloadLine) {
+        return payloadLine != null && payloadLine.startsWith(PREFIX);
+    }
+
+    // Store definition as sent with ADD_STORE_REQUEST (sales state is not part of it).
+    public static String encodeStore(Store store) {
+        return encode(STORE, data -> {
+            writeString(data, store.getStoreName());
+            data.writeDouble(store.getLatitude());
+            data.writeDouble(store.getLongitude());
+            writeString(data, store.getFoodCategory());
+            data.writeInt(store.getStars());
+            data.writeInt(store.getNoOfVotes());
+            writeString(data, store.getStoreLogoPath());
+            List<Product> products = store.getProducts();
+            data.writeInt(products.size());
+            for (Product product : products) {
+                writeString(data, product.getProductName());
+                writeString(data, product.getProductType());
+                data.writeInt(product.getAvailableAmount());
+                data.writeDouble(product.getPrice());
+            }
+        });
+    }
+
+    public static Store decodeStore(String payloadLine) throws JsonParseException {
+        return decode(payloadLine, STORE, data -> {
+            String storeName = readString(data);
+            double latitude = data.readDouble();
+            double longitude = data.readDouble();
+            String foodCategory = readString(data);
+            int stars = data.readInt();
+            int noOfVotes = data.readInt();
+            String storeLogo = readString(data);
+            int productCount = data.readInt();
+            List<Product> products = new ArrayList<>(productCount);
+            for (int i = 0; i < productCount; i++) {
+                products.add(new Product(readString(data), readString(data), data.readInt(), data.readDouble()));
+            }
+            return new Store(storeName, latitude, longitude, foodCategory, stars, noOfVotes, storeLogo, products);
+        });
+    }
+
+    public static String encodeSearchStoresRequest(SearchStoresRequestPayload request) {
+        return encode(SEARCH_STORES_REQUEST, data -> {
+            data.writeDouble(request.getClientLatitude());
+            data.writeDouble(request.getClientLongitude());
+            writeString(data, request.getFoodCategoryFilter());
+            data.writeInt(request.getMinStarsFilter());
+            writeString(data, request.getPriceRangeFilter());
+            data.writeDouble(request.getRadiusKm());
+            writeString(data, request.getSortBy());
+            data.writeInt(request.getLimit());
+            writeString(data, request.getCursor());
+        });
+    }
+
+    public static SearchStoresRequestPayload decodeSearchStoresRequest(String payloadLine) throws JsonParseException {
+        return decode(payloadLine, SEARCH_STORES_REQUEST, data -> {
+            SearchStoresRequestPayload request = new SearchStoresRequestPayload(data.readDouble(), data.readDouble(), readString(data),
+                data.readInt(), readString(data), data.readDouble());
+            request.setSortBy(readString(data));
+            request.setLimit(data.readInt());
+            request.setCursor(readString(data));
+            return request;
+        });
+    }
+
+    public static String encodeSearchStoresResponse(List<StoreInfoForClient> results) {
+        return encode(SEARCH_STORES_RESPONSE, data -> {
+            data.writeInt(results.size());
+            for (StoreInfoForClient store : results) {
+                writeString(data, store.getStoreName());
+                writeString(data, store.getFoodCategory());
+                data.writeInt(store.getStars());
+                writeString(data, store.getPriceCategory());
+                data.writeDouble(store.getDistanceKm());
+                writeString(data, store.getStoreLogoPath());
+                data.writeDouble(store.getLatitude());
+                data.writeDouble(store.getLongitude());
+            }
+        });
+    }
+
+    public static SearchStoresResponsePayload decodeSearchStoresResponse(String payloadLine) throws JsonParseException {
+        return decode(payloadLine, SEARCH_STORES_RESPONSE, data -> {
+            int count = data.readInt();
+            List<StoreInfoForClient> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(new StoreInfoForClient(readString(data), readString(data), data.readInt(), readString(data),
+                    data.readDouble(), readString(data), data.readDouble(), data.readDouble()));
+            }
+            return new SearchStoresResponsePayload(results);
+        });
+    }
+
+    public static String encodeMapTaskRequest(MapTaskRequestPayload request) {
+        return encode(MAP_TASK_REQUEST, data -> {
+            writeString(data, request.getTaskTypeIdentifier());
+            writeString(data, request.getTargetCriteria());
+        });
+    }
+
+    public static MapTaskRequestPayload decodeMapTaskRequest(String payloadLine) throws JsonParseException {
+        return decode(payloadLine, MAP_TASK_REQUEST, data -> new MapTaskRequestPayload(readString(data), readString(data)));
+    }
+
+    public static String encodeMapTaskResponse(List<SalesDataEntry> results) {
+        return encode(MAP_TASK_RESPONSE, data -> {
+            data.writeInt(results.size());
+            for (SalesDataEntry entry : results) {
+                writeString(data, entry.getItemName());
+                data.writeInt(entry.getTotalQuantity());
+                data.writeDouble(entry.getTotalRevenue());
+            }
+        });
+    }
+
+    public static MapTaskResponsePayload decodeMapTaskResponse(String payloadLine) throws JsonParseException {
+        return decode(payloadLine, MAP_TASK_RESPONSE, data -> {
+            int count = data.readInt();
+            List<SalesDataEntry> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(new SalesDataEntry(readString(data), data.readInt(), data.readDouble()));
+            }
+            return new MapTaskResponsePayload(results);
+        });
+    }
+
+    private interface FieldWriter {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    private interface FieldReader<T> {
+        T read(DataInputStream data) throws IOException;
+    }
+
+    private static String encode(byte type, FieldWriter fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.writeByte(type);
+            fields.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory encoding failed", e); // ByteArrayOutputStream does not throw
+        }
+        return LINE_PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static <T> T decode(String payloadLine, byte expectedType, FieldReader<T> fields) throws JsonParseException {
+        if (payloadLine == null || !payloadLine.startsWith(LINE_PREFIX)) {
+            throw new JsonParseException("Not a binary payload of codec version " + VERSION + ".");
+        }
+        try {
+            byte[] bytes = Base64.getDecoder().decode(payloadLine.substring(LINE_PREFIX.length()));
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte type = data.readByte();
+            if (type != expectedType) {
+                throw new JsonParseException("Binary payload has type " + type + ", expected " + expectedType + ".");
+            }
+            return fields.read(data);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new JsonParseException("Malformed binary payload: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+}
@@ -43,5 +43,42 @@ public enum MessageType {
     WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST, // Master to Worker
     WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_RESPONSE, // Worker to Master (though a generic MapTaskResponse might be better)
     WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST,     // For later use
-    WORKER_MAP_SALES_STORE_TYPE_TASK_RESPONSE      // For later use
+    WORKER_MAP_SALES_STORE_TYPE_TASK_RESPONSE,     // For later use
+
+    // Master to Worker connection management (pooled connections)
+    HEALTH_CHECK_REQUEST,  // Sent on idle pooled connections to keep them alive and detect dead workers
+    HEALTH_CHECK_RESPONSE,
+    NEGOTIATE_CODEC_REQUEST,  // First request on a new pooled connection: agrees on binary payloads (see BinaryCodec)
+    NEGOTIATE_CODEC_RESPONSE,
+
+    // Store migration between workers when the Master's hash ring changes (Master to Worker). The exported store
+    // is imported on its new worker with a plain ADD_STORE_REQUEST.
+    LIST_STORES_REQUEST,
+    LIST_STORES_RESPONSE,
+    EXPORT_STORE_REQUEST,  // EXPORT_STORE_REQUEST:storeName -> full store state JSON
+    EXPORT_STORE_RESPONSE,
+    DROP_STORE_REQUEST,    // DROP_STORE_REQUEST:storeName, after the store was imported elsewhere
+    DROP_STORE_RESPONSE,
+
+    // Replication (see ReplicationManager). CLUSTER_VIEW and PROMOTE_STORE come from the Master,
+    // REPLICATE_STORE (routing key: the primary's id, payload: full store state) from a store's primary worker.
+    CLUSTER_VIEW_REQUEST,
+    CLUSTER_VIEW_RESPONSE,
+    REPLICATE_STORE_REQUEST,
+    REPLICATE_STORE_RESPONSE,
+    PROMOTE_STORE_REQUEST,  // PROMOTE_STORE_REQUEST:storeName, the replica becomes the primary after a failover
+    PROMOTE_STORE_RESPONSE,
+
+    // Cluster membership (Manager to Master), routing key host:port
+    ADD_WORKER_REQUEST,
+    ADD_WORKER_RESPONSE,
+    REMOVE_WORKER_REQUEST,
+    REMOVE_WORKER_RESPONSE,
+
+    // Worker to Master (on the client port), routing key host:port, payload the worker's load report
+    WORKER_REGISTER_REQUEST,   // Joins the cluster; the Master moves stores to the new worker before answering
+    WORKER_HEARTBEAT_REQUEST,  // Every few seconds; a worker that stops sending them is evicted
+    WORKER_HEARTBEAT_RESPONSE,
+    SEARCH_CACHE_INVALIDATE_REQUEST,  // Payload: locations of stores whose search attributes changed (see SearchResultCache)
+    SEARCH_CACHE_INVALIDATE_RESPONSE
 }
@@ -0,0 +1,36 @@
+package com.fooddelivery.communication;
+
+// Line protocol helpers for Master <-> Worker traffic.
+//
+// A request is two lines: "TYPE[:routingKey]" followed by the payload; the response is one line.
+// On persistent (pooled) connections the Master prefixes the first request line and the Worker
+// prefixes the response line with a correlation ID, e.g. "#42 ADD_PRODUCT_REQUEST:MyStore" and
+// "#42 {...}". A connection without the prefix is the legacy one-request-per-connection mode.
+public final class WorkerProtocol {
+
+    public static final String REQUEST_ID_PREFIX = "#";
+
+    private WorkerProtocol() {}
+
+    public static String withRequestId(long requestId, String line) {
+        return REQUEST_ID_PREFIX + requestId + " " + line;
+    }
+
+    // Returns the correlation ID of a framed line, or -1 if the line carries none.
+    public static long parseRequestId(String line) {
+        if (line == null || !line.startsWith(REQUEST_ID_PREFIX)) return -1;
+        int space = line.indexOf(' ');
+        if (space < 0) return -1;
+        try {
+            return Long.parseLong(line.substring(REQUEST_ID_PREFIX.length(), space));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Strips the correlation ID prefix (if any) and returns the rest of the line.
+    public static String stripRequestId(String line) {
+        if (parseRequestId(line) < 0) return line;
+        return line.substring(line.indexOf(' ') + 1);
+    }
+}
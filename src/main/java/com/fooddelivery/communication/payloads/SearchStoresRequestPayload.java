@@ -9,6 +9,10 @@ public class SearchStoresRequestPayload implements Serializable {
     private String foodCategoryFilter; // Optional
     private int minStarsFilter;        // Optional (0 or -1 if not set)
     private String priceRangeFilter;   // Optional (e.g., "$", "$$", "$$$")
+    private double radiusKm;           // Optional (0: the workers' default radius)
+    private String sortBy;             // Optional ("distance", "stars" or "price"); null: unsorted unless limit or cursor is set
+    private int limit;                 // Optional page size (0: every match)
+    private String cursor;             // Optional, the nextCursor of the previous page
 
     public SearchStoresRequestPayload(double clientLatitude, double clientLongitude, String foodCategoryFilter, int minStarsFilter, String priceRangeFilter) {
         this.clientLatitude = clientLatitude;
@@ -17,6 +21,11 @@ public class SearchStoresRequestPayload implements Serializable {
         this.minStarsFilter = minStarsFilter;
         this.priceRangeFilter = priceRangeFilter;
     }
+
+    public SearchStoresRequestPayload(double clientLatitude, double clientLongitude, String foodCategoryFilter, int minStarsFilter, String priceRangeFilter, double radiusKm) {
+        this(clientLatitude, clientLongitude, foodCategoryFilter, minStarsFilter, priceRangeFilter);
+        this.radiusKm = radiusKm;
+    }
     
     // Getters
     public double getClientLatitude() { return clientLatitude; }
@@ -24,6 +33,10 @@ public class SearchStoresRequestPayload implements Serializable {
     public String getFoodCategoryFilter() { return foodCategoryFilter; }
     public int getMinStarsFilter() { return minStarsFilter; }
     public String getPriceRangeFilter() { return priceRangeFilter; }
+    public double getRadiusKm() { return radiusKm; }
+    public String getSortBy() { return sortBy; }
+    public int getLimit() { return limit; }
+    public String getCursor() { return cursor; }
 
     // Setters (optional, but good for builder patterns or if used by frameworks)
     public void setClientLatitude(double clientLatitude) { this.clientLatitude = clientLatitude; }
@@ -31,4 +44,8 @@ public class SearchStoresRequestPayload implements Serializable {
     public void setFoodCategoryFilter(String foodCategoryFilter) { this.foodCategoryFilter = foodCategoryFilter; }
     public void setMinStarsFilter(int minStarsFilter) { this.minStarsFilter = minStarsFilter; }
     public void setPriceRangeFilter(String priceRangeFilter) { this.priceRangeFilter = priceRangeFilter; }
+    public void setRadiusKm(double radiusKm) { this.radiusKm = radiusKm; }
+    public void setSortBy(String sortBy) { this.sortBy = sortBy; }
+    public void setLimit(int limit) { this.limit = limit; }
+    public void setCursor(String cursor) { this.cursor = cursor; }
 }
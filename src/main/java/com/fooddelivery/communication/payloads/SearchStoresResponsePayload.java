@@ -6,13 +6,16 @@ import java.util.List;
 public class SearchStoresResponsePayload implements Serializable {
     private static final long serialVersionUID = 1L;
     private List<StoreInfoForClient> results;
+    private String nextCursor; // Set on a ranked search's page when more results follow
 
     public SearchStoresResponsePayload(List<StoreInfoForClient> results) {
         this.results = results;
     }
 
-    // Getter
+    // Getters
     public List<StoreInfoForClient> getResults() { return results; }
-    // Setter
+    public String getNextCursor() { return nextCursor; }
+    // Setters
     public void setResults(List<StoreInfoForClient> results) { this.results = results; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
 }
@@ -29,6 +29,8 @@ public class ManagerConsole {
         System.out.println("  salesbyproduct <storeName>");
         System.out.println("  salesbystoretype <foodCategory>  (Placeholder - basic data only)");
         System.out.println("  salesbyproductcategory <productType> (Placeholder - basic data only)");
+        System.out.println("  addworker <host:port>");
+        System.out.println("  removeworker <host:port>");
         System.out.println("  exit");
 
         try (BufferedReader consoleReader = new BufferedReader(new InputStreamReader(System.in))) {
@@ -74,6 +76,12 @@ public class ManagerConsole {
             case "salesbyproductcategory":
                 handleSalesByProductCategoryCommand(args);
                 break;
+            case "addworker":
+                handleWorkerMembershipCommand("ADD_WORKER_REQUEST", "addworker", args);
+                break;
+            case "removeworker":
+                handleWorkerMembershipCommand("REMOVE_WORKER_REQUEST", "removeworker", args);
+                break;
             case "":
                 break; 
             default:
@@ -120,6 +128,16 @@ public class ManagerConsole {
     }
 
 
+    // Stores move between workers while the Master rebalances; the command returns once they have moved.
+    private void handleWorkerMembershipCommand(String requestType, String command, String workerAddress) {
+        if (workerAddress.isEmpty() || !workerAddress.contains(":")) {
+            System.out.println("Usage: " + command + " <host:port>");
+            return;
+        }
+        // The Master only takes these from allowed peers; see -Dfooddelivery.cluster.secret
+        sendRequestToMaster(requestType + ":" + workerAddress.trim(), JsonUtil.createClusterRequestJson(System.getProperty("fooddelivery.cluster.secret")));
+    }
+
     private void handleSalesByProductCommand(String storeName) {
         if (storeName.isEmpty()) {
             System.out.println("Usage: salesbyproduct <storeName>");
@@ -32,16 +32,35 @@ public class Coordinates {
      * @return Distance in kilometers.
      */
     public double distanceTo(Coordinates other) {
+        return distanceKm(this.latitude, this.longitude, other.latitude, other.longitude);
+    }
+
+    /**
+     * Haversine distance in kilometers between two points, without allocating Coordinates objects.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        return distanceKm(lat1, lon1, cosLatitude(lat1), lat2, lon2, cosLatitude(lat2));
+    }
+
+    /**
+     * Haversine distance with the cosines of both latitudes (see cosLatitude) already known, for callers that
+     * compute them once per point instead of once per pair. Bit-for-bit the same result as without them.
+     */
+    public static double distanceKm(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
         final int R = 6371; // Radius of the earth in km
 
-        double latDistance = Math.toRadians(other.latitude - this.latitude);
-        double lonDistance = Math.toRadians(other.longitude - this.longitude);
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
 
         double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(other.latitude))
+                + cosLat1 * cosLat2
                 * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         
         return R * c; // convert to kilometers
     }
+
+    public static double cosLatitude(double latitude) {
+        return Math.cos(Math.toRadians(latitude));
+    }
 }
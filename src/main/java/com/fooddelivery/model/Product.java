@@ -1,17 +1,21 @@
 package com.fooddelivery.model;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Product {
     private String productName;
     private String productType;
-    private int availableAmount;
-    private double price;
-    private boolean isAvailableForCustomer; // New field for soft delete
+    // Changed only with compare-and-set, so concurrent purchases and restocks of a store need no lock and the
+    // stock can never be sold below zero.
+    private final AtomicInteger availableAmount;
+    private volatile double price;
+    private volatile boolean isAvailableForCustomer; // New field for soft delete
 
     // Constructor
     public Product(String productName, String productType, int availableAmount, double price) {
         this.productName = productName;
         this.productType = productType;
-        this.availableAmount = availableAmount;
+        this.availableAmount = new AtomicInteger(availableAmount);
         this.price = price;
         this.isAvailableForCustomer = true; // Default to true
     }
@@ -19,23 +23,53 @@ public class Product {
     // Getters
     public String getProductName() { return productName; }
     public String getProductType() { return productType; }
-    public int getAvailableAmount() { return availableAmount; }
+    public int getAvailableAmount() { return availableAmount.get(); }
     public double getPrice() { return price; }
     public boolean isAvailableForCustomer() { return isAvailableForCustomer; }
 
     // Setters
     public void setProductName(String productName) { this.productName = productName; }
     public void setProductType(String productType) { this.productType = productType; }
-    public void setAvailableAmount(int availableAmount) { this.availableAmount = availableAmount; }
+    public void setAvailableAmount(int availableAmount) { this.availableAmount.set(availableAmount); }
     public void setPrice(double price) { this.price = price; }
     public void setAvailableForCustomer(boolean availableForCustomer) { this.isAvailableForCustomer = availableForCustomer; }
 
+    // Stock operations. A purchase reserves each item with tryReserve, which takes the units only if that many
+    // are left, and either commits (records the sale) or hands them back with release.
+    public boolean tryReserve(int quantity) {
+        while (true) {
+            int current = availableAmount.get();
+            if (current < quantity) {
+                return false;
+            }
+            if (availableAmount.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(int quantity) {
+        availableAmount.addAndGet(quantity);
+    }
+
+    // Adds quantityChange (negative to remove stock), stopping at 0 instead of going negative. Returns the stock
+    // before the change, so callers can tell whether it was cut short.
+    public int adjustStock(int quantityChange) {
+        while (true) {
+            int current = availableAmount.get();
+            int updated = Math.max(0, current + quantityChange);
+            if (availableAmount.compareAndSet(current, updated)) {
+                return current;
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "Product{" +
                "productName='" + productName + '\'' +
                ", productType='" + productType + '\'' +
-               ", availableAmount=" + availableAmount +
+               ", availableAmount=" + availableAmount.get() +
                ", price=" + price +
                ", isAvailableForCustomer=" + isAvailableForCustomer +
                '}';
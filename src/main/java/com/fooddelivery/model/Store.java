@@ -2,36 +2,68 @@ package com.fooddelivery.model;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Read without locks by the Worker's search and analytics paths: mutable fields are volatile and the
+// collections are concurrent, so readers always see a consistent value of each field.
 public class Store {
     private String storeName;
     private double latitude;
     private double longitude;
+    private double cosLatitude; // Follows latitude; saves search a cosine per store and query
     private String foodCategory; // e.g., "pizzeria"
-    private int stars; // 1-5
-    private int noOfVotes;
+    private volatile int stars; // 1-5
+    private volatile int noOfVotes;
     private String storeLogoPath;
-    private List<Product> products;
-    private String priceCategory; // $, $$, $$$ (calculated)
+    private volatile Menu menu; // Replaced, never changed in place
+    private volatile String priceCategory; // $, $$, $$$ (calculated)
     
     // For sales tracking
-    private Map<String, Integer> salesByProduct; // ProductName -> quantity sold
-    private double totalRevenue;
+    private volatile Map<String, Integer> salesByProduct; // ProductName -> quantity sold; immutable, replaced on every sale
+    private volatile double totalRevenue;
+    private final ReentrantLock stateLock = new ReentrantLock(); // Not synchronized, to avoid pinning virtual threads
+    private volatile SaleListener saleListener; // Lets the owning Worker keep its sales aggregates current
+    private final AtomicLong version = new AtomicLong(); // Bumped by the primary worker on every change; replicas keep the highest they saw
+
+    // The products in insertion order plus a name -> product index, both immutable. Adding or removing a product
+    // (rare next to lookups) publishes a new Menu, so getProducts() hands out the list without copying it and
+    // findProduct is a hash lookup instead of a scan of the whole menu.
+    private static final class Menu {
+        final List<Product> products;
+        final Map<String, Product> byName;
+
+        Menu(List<Product> products) {
+            Map<String, Product> byName = new HashMap<>();
+            for (Product product : products) {
+                byName.putIfAbsent(product.getProductName(), product); // Like the old scan: the first one wins
+            }
+            this.products = Collections.unmodifiableList(products);
+            this.byName = byName;
+        }
+    }
+
+    // Notified after every recorded sale, with the revenue it added.
+    public interface SaleListener {
+        void onSale(Store store, String productName, int quantity, double revenue);
+    }
 
     // Constructors
     public Store(String storeName, double latitude, double longitude, String foodCategory, 
                  int stars, int noOfVotes, String storeLogoPath, List<Product> products) {
         this.storeName = storeName;
         this.latitude = latitude;
+        this.cosLatitude = Coordinates.cosLatitude(latitude);
         this.longitude = longitude;
         this.foodCategory = foodCategory;
         this.stars = stars;
         this.noOfVotes = noOfVotes;
         this.storeLogoPath = storeLogoPath;
-        this.products = products != null ? new ArrayList<>(products) : new ArrayList<>();
-        this.salesByProduct = new HashMap<>();
+        this.menu = new Menu(products != null ? new ArrayList<>(products) : new ArrayList<>());
+        this.salesByProduct = Collections.emptyMap();
         this.totalRevenue = 0.0;
         // Price category will be calculated and set separately
     }
@@ -40,66 +72,108 @@ public class Store {
     public String getStoreName() { return storeName; }
     public double getLatitude() { return latitude; }
     public double getLongitude() { return longitude; }
+    public double getCosLatitude() { return cosLatitude; }
     public String getFoodCategory() { return foodCategory; }
     public int getStars() { return stars; }
     public int getNoOfVotes() { return noOfVotes; }
     public String getStoreLogoPath() { return storeLogoPath; }
-    public List<Product> getProducts() { return new ArrayList<>(products); } // Return a copy
+    public List<Product> getProducts() { return menu.products; } // Read-only snapshot; later changes publish a new list
     public String getPriceCategory() { return priceCategory; }
-    public Map<String, Integer> getSalesByProduct() { return new HashMap<>(salesByProduct); } // Return a copy
+    public Map<String, Integer> getSalesByProduct() { return salesByProduct; } // Read-only snapshot; later sales publish a new map
     public double getTotalRevenue() { return totalRevenue; }
+    public long getVersion() { return version.get(); }
 
     // Setters
     public void setStoreName(String storeName) { this.storeName = storeName; }
-    public void setLatitude(double latitude) { this.latitude = latitude; }
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+        this.cosLatitude = Coordinates.cosLatitude(latitude);
+    }
     public void setLongitude(double longitude) { this.longitude = longitude; }
     public void setFoodCategory(String foodCategory) { this.foodCategory = foodCategory; }
     public void setStars(int stars) { this.stars = stars; }
     public void setNoOfVotes(int noOfVotes) { this.noOfVotes = noOfVotes; }
     public void setStoreLogoPath(String storeLogoPath) { this.storeLogoPath = storeLogoPath; }
     public void setPriceCategory(String priceCategory) { this.priceCategory = priceCategory; }
+    public void setSaleListener(SaleListener saleListener) { this.saleListener = saleListener; }
+    public void setVersion(long version) { this.version.set(version); }
+
+    // Atomic, because stock changes bump the version without holding the worker's store lock.
+    public long nextVersion() { return version.incrementAndGet(); }
+
+    // Restores sales carried over from another worker (store migration); not reported to the SaleListener.
+    public void restoreSales(Map<String, Integer> salesByProduct, double totalRevenue) {
+        stateLock.lock();
+        try {
+            this.salesByProduct = Collections.unmodifiableMap(new HashMap<>(salesByProduct));
+            this.totalRevenue = totalRevenue;
+        } finally {
+            stateLock.unlock();
+        }
+    }
     
     // Methods to manage products
     public void addProduct(Product product) {
-        if (this.products == null) {
-            this.products = new ArrayList<>();
+        stateLock.lock();
+        try {
+            List<Product> products = new ArrayList<>(menu.products);
+            products.add(product);
+            menu = new Menu(products);
+        } finally {
+            stateLock.unlock();
         }
-        this.products.add(product);
         // Potentially recalculate price category
     }
 
     public boolean removeProduct(String productName) {
-        if (this.products == null) return false;
-        return this.products.removeIf(p -> p.getProductName().equals(productName));
+        stateLock.lock();
+        try {
+            List<Product> products = new ArrayList<>(menu.products);
+            if (!products.removeIf(p -> p.getProductName().equals(productName))) {
+                return false;
+            }
+            menu = new Menu(products);
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
         // Potentially recalculate price category
     }
     
     public Product findProduct(String productName) {
-        if (this.products == null) return null;
-        for (Product p : this.products) {
-            if (p.getProductName().equals(productName)) {
-                return p;
-            }
-        }
-        return null;
+        return menu.byName.get(productName);
     }
 
     // Methods for sales and revenue (ensure thread safety if called concurrently later)
-    public synchronized void recordSale(String productName, int quantity, double pricePerItem) {
-        this.salesByProduct.put(productName, this.salesByProduct.getOrDefault(productName, 0) + quantity);
-        this.totalRevenue += quantity * pricePerItem;
+    public void recordSale(String productName, int quantity, double pricePerItem) {
+        stateLock.lock();
+        try {
+            // Copy-on-write: readers (analytics, state snapshots) outnumber sales and take the map without copying it
+            Map<String, Integer> sales = new HashMap<>(this.salesByProduct);
+            sales.merge(productName, quantity, Integer::sum);
+            this.salesByProduct = Collections.unmodifiableMap(sales);
+            this.totalRevenue += quantity * pricePerItem; // Written under the lock only, so the read-modify-write is safe
+        } finally {
+            stateLock.unlock();
+        }
+        SaleListener listener = saleListener;
+        if (listener != null) {
+            listener.onSale(this, productName, quantity, quantity * pricePerItem);
+        }
     }
     
-    public synchronized void updateStock(String productName, int quantityChange) {
+    // Lock-free: the product's counter is updated with compare-and-set and stops at 0.
+    public void updateStock(String productName, int quantityChange) {
         Product product = findProduct(productName);
         if (product != null) {
-            product.setAvailableAmount(product.getAvailableAmount() + quantityChange);
+            product.adjustStock(quantityChange);
         }
     }
     
     // Method to calculate and set price category
     public void calculateAndSetPriceCategory() {
-        if (products == null || products.isEmpty()) {
+        List<Product> products = menu.products;
+        if (products.isEmpty()) {
             this.priceCategory = "-"; // Or some default/unknown
             return;
         }
@@ -127,7 +201,7 @@ public class Store {
                ", stars=" + stars +
                ", noOfVotes=" + noOfVotes +
                ", priceCategory='" + priceCategory + '\'' +
-               ", products=" + products.size() + " products" +
+               ", products=" + menu.products.size() + " products" +
                ", totalRevenue=" + totalRevenue +
                '}';
     }
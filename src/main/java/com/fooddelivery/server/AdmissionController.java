@@ -0,0 +1,124 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Admission control at the Master's edge. Every client request belongs to a request class, and each class has
+// its own budget: at most `limit` requests of the class are handled at once, at most `queue` more wait (up to
+// QUEUE_TIMEOUT_MS) for one of them to finish, and anything beyond that is rejected straight away. A worker
+// brownout then costs a bounded number of blocked handler threads per class instead of piling up every request.
+//
+// Purchases come first: they have the largest budget, and the other classes' limits and queues together stay
+// below the handler pool size, so searches or analytics can never take every thread a purchase would need.
+// In NIO mode a purchase also skips ahead of them in the handler pool's queue (see ClientRequestQueue).
+// Worker registrations and heartbeats are never shed; missing them would evict healthy workers.
+//
+// Budgets are set with -Dfooddelivery.master.admission.<class>.limit and .queue (class in lower case).
+final class AdmissionController {
+    enum RequestClass {
+        PURCHASE(32, 64),
+        SEARCH(16, 16),
+        MANAGEMENT(4, 4), // Store, product, stock and rating updates, adding and removing workers
+        ANALYTICS(4, 4);
+
+        private final int defaultLimit;
+        private final int defaultQueue;
+
+        RequestClass(int defaultLimit, int defaultQueue) {
+            this.defaultLimit = defaultLimit;
+            this.defaultQueue = defaultQueue;
+        }
+    }
+
+    private static final long QUEUE_TIMEOUT_MS = Long.getLong("fooddelivery.master.admission.queueTimeoutMs", 1000);
+    private static final long REJECTION_LOG_INTERVAL = 1000; // Log the first rejection of a class, then every this many
+
+    private static final class Budget {
+        final int limit;
+        final int maxQueued;
+        final Semaphore permits;
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+
+        Budget(int limit, int maxQueued) {
+            this.limit = limit;
+            this.maxQueued = maxQueued;
+            this.permits = new Semaphore(limit, true); // Fair, so queued requests are admitted in arrival order
+        }
+    }
+
+    private final Map<RequestClass, Budget> budgets = new EnumMap<>(RequestClass.class);
+
+    AdmissionController() {
+        for (RequestClass requestClass : RequestClass.values()) {
+            String prefix = "fooddelivery.master.admission." + requestClass.name().toLowerCase() + ".";
+            int limit = Math.max(1, Integer.getInteger(prefix + "limit", requestClass.defaultLimit));
+            int queue = Math.max(0, Integer.getInteger(prefix + "queue", requestClass.defaultQueue));
+            budgets.put(requestClass, new Budget(limit, queue));
+        }
+    }
+
+    // The class a client request is admitted under, or null for requests that are never shed.
+    static RequestClass classify(MessageType type) {
+        switch (type) {
+            case PURCHASE_REQUEST:
+                return RequestClass.PURCHASE;
+            case SEARCH_STORES_REQUEST:
+                return RequestClass.SEARCH;
+            case ADD_STORE_REQUEST:
+            case ADD_PRODUCT_REQUEST:
+            case REMOVE_PRODUCT_REQUEST:
+            case UPDATE_STOCK_REQUEST:
+            case RATE_STORE_REQUEST:
+            case ADD_WORKER_REQUEST:
+            case REMOVE_WORKER_REQUEST:
+                return RequestClass.MANAGEMENT;
+            case GET_SALES_BY_PRODUCT_REQUEST:
+            case GET_SALES_BY_STORE_TYPE_REQUEST:
+                return RequestClass.ANALYTICS;
+            default:
+                return null;
+        }
+    }
+
+    // Takes one of the class's slots, waiting in its queue if there is room there. Returns false if the request
+    // has to be rejected; after true the caller must call release() once the request is done.
+    boolean tryAdmit(RequestClass requestClass) throws InterruptedException {
+        Budget budget = budgets.get(requestClass);
+        if (budget.permits.tryAcquire(0, TimeUnit.MILLISECONDS)) { // Timed form, so it does not overtake queued requests
+            return true;
+        }
+        if (budget.queued.incrementAndGet() > budget.maxQueued) {
+            budget.queued.decrementAndGet();
+            rejected(requestClass, budget, "queue full");
+            return false;
+        }
+        try {
+            if (budget.permits.tryAcquire(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            rejected(requestClass, budget, "no slot within " + QUEUE_TIMEOUT_MS + "ms");
+            return false;
+        } finally {
+            budget.queued.decrementAndGet();
+        }
+    }
+
+    void release(RequestClass requestClass) {
+        budgets.get(requestClass).permits.release();
+    }
+
+    private void rejected(RequestClass requestClass, Budget budget, String reason) {
+        long count = budget.rejected.incrementAndGet();
+        if (count % REJECTION_LOG_INTERVAL == 1) {
+            System.err.println("Master: Shedding " + requestClass + " requests (" + reason + ", limit " + budget.limit
+                + ", queue " + budget.maxQueued + "); " + count + " rejected so far.");
+        }
+    }
+}
@@ -7,15 +7,24 @@ import com.fooddelivery.util.JsonUtil;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 
 public class ClientHandler implements Runnable {
     private Socket clientSocket;
     private Master master;
     private PrintWriter out;
     private BufferedReader in;
+    // Set when the request was already read by the non-blocking acceptor (NioClientAcceptor)
+    private String preReadFirstLine;
+    private String preReadPayload;
+    // Order in the handler pool's queue (see ClientRequestQueue)
+    private static final java.util.concurrent.atomic.AtomicLong arrivals = new java.util.concurrent.atomic.AtomicLong();
+    private int queueRank;
+    private final long arrival = arrivals.incrementAndGet();
 
     public ClientHandler(Socket socket, Master master) {
         this.clientSocket = socket;
@@ -29,12 +38,35 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    // For connections whose two request lines were already read without blocking a thread.
+    // The socket must be in blocking mode; only its output is used.
+    public ClientHandler(Socket socket, Master master, String firstLine, String payload) {
+        this.clientSocket = socket;
+        this.master = master;
+        this.preReadFirstLine = firstLine;
+        this.preReadPayload = payload;
+        this.queueRank = ClientRequestQueue.rankOf(firstLine);
+        try {
+            this.out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+        } catch (IOException e) {
+            System.err.println("ClientHandler: Error getting output stream: " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    int getQueueRank() { return queueRank; }
+    long getArrival() { return arrival; }
+
     @Override
     public void run() {
         try {
-            clientSocket.setSoTimeout(30000); // 30 seconds timeout for reads
-
-            String firstLine = in.readLine();
+            String firstLine;
+            if (preReadFirstLine != null) {
+                firstLine = preReadFirstLine;
+            } else {
+                clientSocket.setSoTimeout(30000); // 30 seconds timeout for reads
+                firstLine = in.readLine();
+            }
             if (firstLine == null) {
                 System.out.println("Client disconnected before sending any data: " + clientSocket.getRemoteSocketAddress());
                 return;
@@ -55,63 +87,40 @@ public class ClientHandler implements Runnable {
                 return;
             }
             
-            String payload = in.readLine();
+            String payload = preReadFirstLine != null ? preReadPayload : in.readLine();
             if (payload == null) {
                  System.out.println("Client disconnected before sending payload: " + clientSocket.getRemoteSocketAddress());
                  return;
             }
 
             System.out.println("ClientHandler: Received Type: " + type + (routingKey != null ? ", RoutingKey: " + routingKey : ""));
-            
-            // Pass routingKey to master handlers if needed
-            switch (type) {
-                case ADD_STORE_REQUEST:
-                    // ADD_STORE_REQUEST's payload (store JSON) contains StoreName, so routingKey from first line is not strictly needed here
-                    // but JsonUtil.extractStoreName will be used by master.handleAddStoreRequest
-                    master.handleAddStoreRequest(new Message(type, payload), out);
-                    break;
-                case ADD_PRODUCT_REQUEST:
-                case REMOVE_PRODUCT_REQUEST:
-                case UPDATE_STOCK_REQUEST:
-                    if (routingKey == null || routingKey.trim().isEmpty()) {
-                        out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key in the format TYPE:storeName."));
-                        return;
-                    }
-                    master.handleProductManagementRequest(type, routingKey, payload, out);
-                    break;
-                case GET_SALES_BY_PRODUCT_REQUEST:
-                    // Expects routingKey (storeName) to be provided in the first line TYPE:ROUTING_KEY
-                    if (routingKey == null || routingKey.trim().isEmpty()) {
-                        out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key."));
-                        return;
-                    }
-                    // Payload for this specific request might be empty or contain other filters not yet used.
-                    // For now, Master just needs storeName for routing.
-                    master.handleGetSalesByProductRequest(type, routingKey, payload, out);
-                    break;
-                case SEARCH_STORES_REQUEST:
-                    // RoutingKey (e.g. client location string) might be null or not used by Master yet.
-                    // Payload contains client's lat/lon and filters.
-                    master.handleSearchStoresRequest(type, routingKey, payload, out);
-                    break;
-                case RATE_STORE_REQUEST:
-                    if (routingKey == null || routingKey.trim().isEmpty()) {
-                        out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key."));
-                        return;
-                    }
-                    master.handleRateStoreRequest(type, routingKey, payload, out);
-                    break;
-                case GET_SALES_BY_STORE_TYPE_REQUEST:
-                    if (routingKey == null || routingKey.trim().isEmpty()) {
-                        out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a foodCategory as routing key."));
-                        return;
-                    }
-                    // payload might be empty or contain additional filters in future
-                    master.handleGetSalesByStoreTypeRequest(type, routingKey, payload, out); // routingKey is the foodCategory
-                    break;
-                default:
-                    System.err.println("Unsupported message type: " + type);
-                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Unsupported message type by Master."));
+
+            if (ClusterAuth.isClusterRequest(type) && !master.getClusterAuth().permits(clientSocket.getInetAddress(), payload)) {
+                System.err.println("Master: Refused " + type + " from " + clientSocket.getRemoteSocketAddress() + " (not an allowed cluster peer)");
+                out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Not authorized for " + type + "."));
+                return;
+            }
+
+            AdmissionController.RequestClass requestClass = AdmissionController.classify(type);
+            if (requestClass != null) {
+                boolean admitted;
+                try {
+                    admitted = master.getAdmission().tryAdmit(requestClass);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Master is shutting down
+                    admitted = false;
+                }
+                if (!admitted) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Master is overloaded (" + requestClass + " requests), please retry later."));
+                    return;
+                }
+            }
+            try {
+                dispatch(type, routingKey, payload);
+            } finally {
+                if (requestClass != null) {
+                    master.getAdmission().release(requestClass);
+                }
             }
 
         } catch (SocketTimeoutException e) {
@@ -135,6 +144,81 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    // Hands an admitted request to the matching Master handler.
+    private void dispatch(MessageType type, String routingKey, String payload) {
+        switch (type) {
+            case ADD_STORE_REQUEST:
+                // ADD_STORE_REQUEST's payload (store JSON) contains StoreName, so routingKey from first line is not strictly needed here
+                // but JsonUtil.extractStoreName will be used by master.handleAddStoreRequest
+                master.handleAddStoreRequest(new Message(type, payload), out);
+                break;
+            case ADD_PRODUCT_REQUEST:
+            case REMOVE_PRODUCT_REQUEST:
+            case UPDATE_STOCK_REQUEST:
+                if (routingKey == null || routingKey.trim().isEmpty()) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key in the format TYPE:storeName."));
+                    return;
+                }
+                master.handleProductManagementRequest(type, routingKey, payload, out);
+                break;
+            case GET_SALES_BY_PRODUCT_REQUEST:
+                // Expects routingKey (storeName) to be provided in the first line TYPE:ROUTING_KEY
+                if (routingKey == null || routingKey.trim().isEmpty()) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key."));
+                    return;
+                }
+                // Payload for this specific request might be empty or contain other filters not yet used.
+                // For now, Master just needs storeName for routing.
+                master.handleGetSalesByProductRequest(type, routingKey, payload, out);
+                break;
+            case SEARCH_STORES_REQUEST:
+                // RoutingKey (e.g. client location string) might be null or not used by Master yet.
+                // Payload contains client's lat/lon and filters.
+                master.handleSearchStoresRequest(type, routingKey, payload, out);
+                break;
+            case RATE_STORE_REQUEST:
+                if (routingKey == null || routingKey.trim().isEmpty()) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key."));
+                    return;
+                }
+                master.handleRateStoreRequest(type, routingKey, payload, out);
+                break;
+            case PURCHASE_REQUEST:
+                if (routingKey == null || routingKey.trim().isEmpty()) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a storeName as routing key."));
+                    return;
+                }
+                master.handlePurchaseRequest(type, routingKey, payload, out);
+                break;
+            case GET_SALES_BY_STORE_TYPE_REQUEST:
+                if (routingKey == null || routingKey.trim().isEmpty()) {
+                    out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", type + " requires a foodCategory as routing key."));
+                    return;
+                }
+                // payload might be empty or contain additional filters in future
+                master.handleGetSalesByStoreTypeRequest(type, routingKey, payload, out); // routingKey is the foodCategory
+                break;
+            case ADD_WORKER_REQUEST:
+                // routingKey is the worker's host:port
+                master.handleAddWorkerRequest(routingKey, out);
+                break;
+            case REMOVE_WORKER_REQUEST:
+                master.handleRemoveWorkerRequest(routingKey, out);
+                break;
+            case WORKER_REGISTER_REQUEST:
+            case WORKER_HEARTBEAT_REQUEST:
+                // From a worker: routingKey is its host:port, payload its load report
+                master.handleWorkerHeartbeat(type, routingKey, payload, out);
+                break;
+            case SEARCH_CACHE_INVALIDATE_REQUEST:
+                master.handleSearchCacheInvalidation(payload, out);
+                break;
+            default:
+                System.err.println("Unsupported message type: " + type);
+                out.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Unsupported message type by Master."));
+        }
+    }
+
     private void closeConnection() {
         try {
             if (in != null) in.close();
@@ -0,0 +1,85 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Work queue of the client handler pool in NIO mode: bounded like the ArrayBlockingQueue it replaces, but a
+// waiting purchase is handed to the next free thread before searches and analytics that arrived earlier.
+// Ranks, first served first:
+//   0  purchases, and worker registrations and heartbeats (a late heartbeat gets a healthy worker evicted)
+//   1  management (store, product, stock and rating updates, adding and removing workers)
+//   2  searches
+//   3  analytics
+// Within a rank requests are served in arrival order. A lower rank only waits while higher ranked requests
+// are queued; the admission budgets (AdmissionController) still apply once a request runs.
+final class ClientRequestQueue extends PriorityBlockingQueue<Runnable> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final ReentrantLock offerLock = new ReentrantLock(); // Makes the capacity check and the insert one step
+
+    ClientRequestQueue(int capacity) {
+        super(Math.max(1, capacity), ClientRequestQueue::compare);
+        this.capacity = capacity;
+    }
+
+    // The rank of a request from its first line (TYPE[:routingKey]). Unreadable types rank first: their
+    // handler only sends back an error.
+    static int rankOf(String firstLine) {
+        MessageType type;
+        try {
+            type = MessageType.valueOf(firstLine.trim().split(":", 2)[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+        AdmissionController.RequestClass requestClass = AdmissionController.classify(type);
+        if (requestClass == null) {
+            return 0;
+        }
+        switch (requestClass) {
+            case PURCHASE: return 0;
+            case MANAGEMENT: return 1;
+            case SEARCH: return 2;
+            default: return 3;
+        }
+    }
+
+    private static int compare(Runnable a, Runnable b) {
+        int byRank = Integer.compare(rankOf(a), rankOf(b));
+        return byRank != 0 ? byRank : Long.compare(arrivalOf(a), arrivalOf(b));
+    }
+
+    private static int rankOf(Runnable task) {
+        return task instanceof ClientHandler ? ((ClientHandler) task).getQueueRank() : Integer.MAX_VALUE;
+    }
+
+    private static long arrivalOf(Runnable task) {
+        return task instanceof ClientHandler ? ((ClientHandler) task).getArrival() : Long.MAX_VALUE;
+    }
+
+    // Refuses the task when the queue is full, so the pool rejects it like a full ArrayBlockingQueue.
+    @Override
+    public boolean offer(Runnable task) {
+        offerLock.lock();
+        try {
+            return size() < capacity && super.offer(task);
+        } finally {
+            offerLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean add(Runnable task) {
+        if (!offer(task)) {
+            throw new IllegalStateException("Client request queue full");
+        }
+        return true;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+}
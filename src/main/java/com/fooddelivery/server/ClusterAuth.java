@@ -0,0 +1,82 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.util.JsonReader;
+import com.fooddelivery.util.StoreJsonParser;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+
+// Guards the cluster requests that arrive on the Master's client port: adding and removing workers, and workers'
+// own registrations, heartbeats and search cache invalidations. Anyone can reach that port, and a worker that
+// is added or registers is sent full store state.
+//
+// With -Dfooddelivery.cluster.secret set, a cluster request must carry the same secret in its payload's
+// "clusterSecret" field (the manager console and workers read the same property). With
+// -Dfooddelivery.master.clusterAllowlist=host,host it must also come from one of those addresses or from this
+// machine. With neither set, only requests from this machine are served.
+final class ClusterAuth {
+    static final String SECRET_PROPERTY = "fooddelivery.cluster.secret";
+    static final String SECRET_FIELD = "clusterSecret";
+
+    private final byte[] secret; // Null if no secret is configured
+    private final Set<InetAddress> allowlist; // Null if no allowlist is configured
+
+    ClusterAuth() {
+        String configuredSecret = System.getProperty(SECRET_PROPERTY);
+        this.secret = configuredSecret == null || configuredSecret.isEmpty() ? null : configuredSecret.getBytes(StandardCharsets.UTF_8);
+        String configuredAllowlist = System.getProperty("fooddelivery.master.clusterAllowlist");
+        if (configuredAllowlist == null || configuredAllowlist.trim().isEmpty()) {
+            this.allowlist = null;
+        } else {
+            this.allowlist = new HashSet<>();
+            for (String host : configuredAllowlist.split(",")) {
+                if (host.trim().isEmpty()) continue;
+                try {
+                    for (InetAddress address : InetAddress.getAllByName(host.trim())) {
+                        allowlist.add(address);
+                    }
+                } catch (UnknownHostException e) {
+                    System.err.println("Master: Ignoring unknown host in cluster allowlist: " + host.trim());
+                }
+            }
+        }
+    }
+
+    static boolean isClusterRequest(MessageType type) {
+        return type == MessageType.ADD_WORKER_REQUEST || type == MessageType.REMOVE_WORKER_REQUEST
+            || type == MessageType.WORKER_REGISTER_REQUEST || type == MessageType.WORKER_HEARTBEAT_REQUEST
+            || type == MessageType.SEARCH_CACHE_INVALIDATE_REQUEST;
+    }
+
+    // Whether a cluster request from this address with this payload may be served.
+    boolean permits(InetAddress from, String payload) {
+        boolean local = from != null && (from.isLoopbackAddress() || from.isAnyLocalAddress());
+        boolean addressAllowed = allowlist != null ? local || allowlist.contains(from) : local || secret != null;
+        return addressAllowed && (secret == null || secretMatches(payload));
+    }
+
+    private boolean secretMatches(String payload) {
+        String presented = null;
+        try {
+            JsonReader reader = new JsonReader(payload);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SECRET_FIELD.equals(reader.nextName())) {
+                    presented = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (StoreJsonParser.JsonParseException e) {
+            return false;
+        }
+        // Constant time, so the secret cannot be guessed from response times
+        return presented != null && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
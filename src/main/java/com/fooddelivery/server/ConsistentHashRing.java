@@ -0,0 +1,98 @@
+package com.fooddelivery.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Maps store names to workers with consistent hashing: every worker owns VIRTUAL_NODES_PER_WORKER points on a
+// 64-bit ring and a store belongs to the first point at or after its own hash. Adding or removing a worker
+// only changes the owner of the stores next to that worker's points (about 1/n of them), instead of nearly
+// every store as with hashCode() % workerCount.
+//
+// Immutable: the Master swaps in a new ring when membership changes, so routing reads it without locking.
+class ConsistentHashRing {
+    static final int VIRTUAL_NODES_PER_WORKER = 160;
+
+    private final NavigableMap<Long, Master.WorkerInfo> points;
+    private final Map<String, Master.WorkerInfo> workersById;
+
+    ConsistentHashRing(Collection<Master.WorkerInfo> workers) {
+        NavigableMap<Long, Master.WorkerInfo> points = new TreeMap<>();
+        Map<String, Master.WorkerInfo> workersById = new TreeMap<>();
+        for (Master.WorkerInfo worker : workers) {
+            workersById.put(worker.getId(), worker);
+            for (int i = 0; i < VIRTUAL_NODES_PER_WORKER; i++) {
+                points.putIfAbsent(hash(worker.getId() + "#" + i), worker); // Collisions are astronomically rare; first one wins
+            }
+        }
+        this.points = Collections.unmodifiableNavigableMap(points);
+        this.workersById = Collections.unmodifiableMap(workersById);
+    }
+
+    ConsistentHashRing withWorker(Master.WorkerInfo worker) {
+        List<Master.WorkerInfo> workers = new ArrayList<>(workersById.values());
+        workers.removeIf(w -> w.getId().equals(worker.getId()));
+        workers.add(worker);
+        return new ConsistentHashRing(workers);
+    }
+
+    ConsistentHashRing withoutWorker(String workerId) {
+        List<Master.WorkerInfo> workers = new ArrayList<>(workersById.values());
+        workers.removeIf(w -> w.getId().equals(workerId));
+        return new ConsistentHashRing(workers);
+    }
+
+    // The owner of the store, or null if the ring has no workers.
+    Master.WorkerInfo workerFor(String storeName) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, Master.WorkerInfo> point = points.ceilingEntry(hash(storeName));
+        return point != null ? point.getValue() : points.firstEntry().getValue(); // Wrap around the ring
+    }
+
+    // The workers holding replicas of every store whose primary is primaryId: the replicationFactor - 1 workers
+    // after it in id order, wrapping around. Replicas follow the primary worker, not each store's ring position,
+    // so "the stores of primary P" is a partition that any one of P's holders can serve on its own.
+    List<Master.WorkerInfo> replicasOf(String primaryId, int replicationFactor) {
+        List<Master.WorkerInfo> ordered = new ArrayList<>(workersById.values());
+        int primaryIndex = -1;
+        for (int i = 0; i < ordered.size(); i++) {
+            if (ordered.get(i).getId().equals(primaryId)) primaryIndex = i;
+        }
+        List<Master.WorkerInfo> replicas = new ArrayList<>();
+        if (primaryIndex < 0) {
+            return replicas;
+        }
+        int count = Math.min(replicationFactor, ordered.size()) - 1;
+        for (int i = 1; i <= count; i++) {
+            replicas.add(ordered.get((primaryIndex + i) % ordered.size()));
+        }
+        return replicas;
+    }
+
+    boolean contains(String workerId) { return workersById.containsKey(workerId); }
+    Master.WorkerInfo getWorker(String workerId) { return workersById.get(workerId); }
+    List<Master.WorkerInfo> getWorkers() { return new ArrayList<>(workersById.values()); }
+    boolean isEmpty() { return workersById.isEmpty(); }
+
+    // 64-bit FNV-1a over the UTF-16 chars, finished with the MurmurHash3 mixer so nearby keys ("w#1", "w#2")
+    // spread over the whole ring. Must never change, or every store would be re-homed on upgrade.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,22 +1,37 @@
 package com.fooddelivery.server;
 
+import com.fooddelivery.client.android.network.ClientJsonParser;
+import com.fooddelivery.communication.BinaryCodec;
 import com.fooddelivery.communication.Message;
 import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.communication.payloads.MapTaskRequestPayload;
+import com.fooddelivery.communication.payloads.MapTaskResponsePayload;
+import com.fooddelivery.communication.payloads.SalesDataEntry;
+import com.fooddelivery.communication.payloads.SearchStoresRequestPayload;
+import com.fooddelivery.communication.payloads.SearchStoresResponsePayload;
+import com.fooddelivery.communication.payloads.StoreInfoForClient;
+import com.fooddelivery.model.Store;
 import com.fooddelivery.util.JsonUtil;
+import com.fooddelivery.util.StoreJsonParser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class Master {
@@ -25,11 +40,87 @@ public class Master {
     private ServerSocket serverSocket;
     private boolean isRunning;
     private ExecutorService clientExecutorService;
+    private NioClientAcceptor nioAcceptor;
+    // Client connections are accepted by a non-blocking selector (NioClientAcceptor) and complete requests run on a
+    // bounded pool. -Dfooddelivery.master.blockingAccept=true restores the thread-per-connection ServerSocket loop,
+    // which is also used with -Dfooddelivery.virtualThreads=true since a virtual thread per connection is cheap.
+    private final boolean blockingAccept = Boolean.getBoolean("fooddelivery.master.blockingAccept") || ServerExecutors.virtualThreadsEnabled();
+    private static final int CLIENT_HANDLER_THREADS = Integer.getInteger("fooddelivery.master.clientThreads", 64);
+    private static final int CLIENT_HANDLER_QUEUE_CAPACITY = Integer.getInteger("fooddelivery.master.clientQueue", 512);
+    private final AdmissionController admission = new AdmissionController(); // Per-request-class budgets, see ClientHandler
+    private final ClusterAuth clusterAuth = new ClusterAuth(); // Who may add and remove workers through the client port
+    private ExecutorService workerTaskExecutorService; // Bounded pool for scatter-gather calls to workers
+
+    // Scatter-gather deadlines. Workers that have not answered by the deadline are left out of the result.
+    private static final long SEARCH_DEADLINE_MS = 5000;
+    private static final long MAP_TASK_DEADLINE_MS = 15000;
+    // Read calls (searches, map tasks, store sales queries) adapt to each worker's recent latencies for the same
+    // kind of request (readLatency is kept per worker and message type, so slow map tasks do not stretch search
+    // timeouts, nor fast searches cut map tasks short). A call times out after READ_TIMEOUT_P99_MULTIPLIER times
+    // that p99, within the request's deadline, and a partition still unanswered after the p95 is hedged:
+    // requested again from another of its holders, first answer wins. A worker stalled in GC then costs a search
+    // about one p95, not the deadline. -Dfooddelivery.master.hedgeReads=false turns hedging of slow calls off;
+    // a call that fails is still retried on another holder right away.
+    private static final boolean HEDGE_READS = !"false".equals(System.getProperty("fooddelivery.master.hedgeReads"));
+    private static final long MIN_HEDGE_DELAY_MS = Long.getLong("fooddelivery.master.minHedgeDelayMs", 5);
+    private static final long DEFAULT_HEDGE_DELAY_MS = 250; // Until a worker has answered enough calls for a p95
+    private static final int MIN_READ_TIMEOUT_MS = 1000;
+    private static final int READ_TIMEOUT_P99_MULTIPLIER = 4;
+    private final WorkerLatencyTracker readLatency = new WorkerLatencyTracker();
+    private final SearchResultCache searchCache = new SearchResultCache();
+    private final Map<SearchResultCache.Key, java.util.concurrent.CompletableFuture<List<StoreInfoForClient>>> searchCacheFills = new ConcurrentHashMap<>();
+    private static final int MIN_WORKER_TASK_THREADS = 4;
+    private static final int WORKER_TASK_THREADS_PER_WORKER = Integer.getInteger("fooddelivery.master.workerTaskThreadsPerWorker", 4);
+
+    // Persistent, multiplexed Master -> Worker connections, one pool per worker id.
+    private final Map<String, WorkerConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private ScheduledExecutorService connectionMaintenanceService;
+    private static final int FORWARD_TIMEOUT_MS = 10000;
+    private static final int MAX_CONNECTIONS_PER_WORKER = 4; // Each connection carries many requests in flight
+    private static final long CONNECTION_HEALTH_CHECK_INTERVAL_MS = 15000; // Must stay below the worker's idle timeout
+
+    // Store routing: a consistent-hash ring over the workers. While membership changes, stores that still have to
+    // move are pinned in storeOwnerOverrides to the worker that holds them, and requests keep going there.
+    private volatile ConsistentHashRing ring;
+    private volatile ConsistentHashRing pendingRing; // Target ring while a rebalance is running, null otherwise
+    private final Map<String, WorkerInfo> storeOwnerOverrides = new ConcurrentHashMap<>();
+    private final ReentrantLock membershipLock = new ReentrantLock(); // One membership change at a time
+    // A store request holds its stripe's read lock while it is routed and forwarded; moving a store takes the
+    // write lock, so only requests for stores in the same stripe wait for a move.
+    private static final int STORE_ROUTING_STRIPES = 64;
+    private final ReentrantReadWriteLock[] storeRoutingLocks = new ReentrantReadWriteLock[STORE_ROUTING_STRIPES];
+
+    // Workers started with a master address register themselves and send heartbeats (see WorkerHeartbeatSender).
+    // One that stays silent this long is evicted; workers that never sent a heartbeat are never evicted.
+    private static final long HEARTBEAT_TIMEOUT_MS = Long.getLong("fooddelivery.master.heartbeatTimeoutMs", 6000);
+    private static final long EVICTION_CHECK_INTERVAL_MS = 1000;
+    // Removed by the manager: their registrations are refused until the manager adds them again.
+    private final java.util.Set<String> removedWorkerIds = ConcurrentHashMap.newKeySet();
+
+    // Every store lives on its primary (its ring owner) and on REPLICATION_FACTOR - 1 replicas, the workers after
+    // the primary in id order; the primary streams its changes to them (see ReplicationManager). Searches and map
+    // tasks are answered per partition (the stores of one primary) by whichever holder is least busy, and when a
+    // worker is evicted its stores fail over to their replicas.
+    private static final int REPLICATION_FACTOR = Math.max(1, Integer.getInteger("fooddelivery.replicationFactor", 2));
+    private static final long CLUSTER_VIEW_RESEND_INTERVAL_MS = 10000;
+    // After a membership change replicas first have to receive their new stores, so reads stay on the primaries
+    // for this long, and for as long as a primary reports unsent changes.
+    private static final long REPLICA_READ_GRACE_MS = Long.getLong("fooddelivery.replicaReadGraceMs", 3000);
+    private volatile long membershipChangedMillis;
+    // Starts at the clock so a restarted Master's views are not taken for stale ones by its workers
+    private final java.util.concurrent.atomic.AtomicLong clusterViewEpoch = new java.util.concurrent.atomic.AtomicLong(System.currentTimeMillis());
+    private final java.util.concurrent.atomic.AtomicLong readRotation = new java.util.concurrent.atomic.AtomicLong();
 
     static class WorkerInfo { 
         String id; String host; int port;
+        // Last heartbeat (0 if the worker does not send any) and the load it reported.
+        volatile long lastHeartbeatMillis; volatile int storeCount; volatile int queueDepth; volatile double recentLatencyMs;
+        volatile int replicationBacklog; // Changes not yet streamed to its replicas
         public WorkerInfo(String id, String host, int port) { this.id = id; this.host = host; this.port = port; }
         public String getId() { return id; } public String getHost() { return host; } public int getPort() { return port; }
+        public long getLastHeartbeatMillis() { return lastHeartbeatMillis; } public int getStoreCount() { return storeCount; }
+        public int getQueueDepth() { return queueDepth; } public double getRecentLatencyMs() { return recentLatencyMs; }
+        public int getReplicationBacklog() { return replicationBacklog; }
         @Override public String toString() { return "WorkerInfo{id='" + id + "', host='" + host + "', port=" + port + '}';}
     }
 
@@ -37,7 +128,14 @@ public class Master {
         this.port = port;
         this.workerNodes = Collections.synchronizedList(new ArrayList<>());
         this.isRunning = false;
-        this.clientExecutorService = Executors.newCachedThreadPool();
+        if (blockingAccept) {
+            this.clientExecutorService = ServerExecutors.newBlockingIoExecutor();
+        } else {
+            ThreadPoolExecutor boundedClientExecutor = new ThreadPoolExecutor(CLIENT_HANDLER_THREADS, CLIENT_HANDLER_THREADS,
+                60, TimeUnit.SECONDS, new ClientRequestQueue(CLIENT_HANDLER_QUEUE_CAPACITY)); // Purchases are taken first
+            boundedClientExecutor.allowCoreThreadTimeOut(true);
+            this.clientExecutorService = boundedClientExecutor;
+        }
 
         for (String workerArg : workerArgs) {
             try {
@@ -54,9 +152,30 @@ public class Master {
         if (workerNodes.isEmpty()) {
             System.out.println("Warning: No worker nodes registered.");
         }
+        this.ring = new ConsistentHashRing(workerNodes);
+        for (int i = 0; i < storeRoutingLocks.length; i++) {
+            storeRoutingLocks[i] = new ReentrantReadWriteLock();
+        }
+        // Enough threads for several concurrent broadcasts to every worker; extra tasks queue instead of spawning threads.
+        // Resized as workers join and leave, see resizeWorkerTaskPool.
+        this.workerTaskExecutorService = ServerExecutors.newBlockingIoExecutor(workerTaskThreads());
+        this.connectionMaintenanceService = Executors.newScheduledThreadPool(2); // Eviction must not wait behind slow health checks
+        connectionMaintenanceService.scheduleWithFixedDelay(this::evictSilentWorkers,
+            EVICTION_CHECK_INTERVAL_MS, EVICTION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        connectionMaintenanceService.scheduleWithFixedDelay(this::healthCheckWorkerConnections,
+            CONNECTION_HEALTH_CHECK_INTERVAL_MS, CONNECTION_HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        connectionMaintenanceService.scheduleWithFixedDelay(this::resendClusterView,
+            0, CLUSTER_VIEW_RESEND_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
     
+    AdmissionController getAdmission() { return admission; }
+    ClusterAuth getClusterAuth() { return clusterAuth; }
+
     public void startServer() {
+        if (!blockingAccept) {
+            startNioServer();
+            return;
+        }
         isRunning = true;
         try {
             serverSocket = new ServerSocket(port);
@@ -82,9 +201,26 @@ public class Master {
         }
     }
     
+    private void startNioServer() {
+        isRunning = true;
+        nioAcceptor = new NioClientAcceptor(port, this, (ThreadPoolExecutor) clientExecutorService);
+        try {
+            nioAcceptor.bind();
+            System.out.println("Master server started on port " + port + " (non-blocking accept, " + CLIENT_HANDLER_THREADS + " handler threads)");
+            nioAcceptor.run(); // Returns once stopServer() stops the acceptor
+        } catch (IOException e) {
+            System.err.println("Could not start master server on port " + port + ": " + e.getMessage());
+        } finally {
+            stopServer();
+        }
+    }
+
     public void stopServer() {
         System.out.println("Master: Shutting down server...");
         isRunning = false;
+        if (nioAcceptor != null) {
+            nioAcceptor.stop();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -101,6 +237,11 @@ public class Master {
             clientExecutorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        workerTaskExecutorService.shutdownNow();
+        connectionMaintenanceService.shutdownNow();
+        for (WorkerConnectionPool pool : connectionPools.values()) {
+            pool.close();
+        }
         System.out.println("Master server shut down.");
     }
 
@@ -125,12 +266,18 @@ public class Master {
             return;
         }
 
-        int workerIndex = Math.abs(storeName.hashCode()) % workerNodes.size();
-        WorkerInfo selectedWorker = workerNodes.get(workerIndex);
-        System.out.println("Master: Selected worker " + selectedWorker.getId() + " for store " + storeName);
+        // Workers that negotiated the binary codec get the store pre-parsed; if the JSON does not parse here it is
+        // forwarded as is, so the worker reports the parse error to the client as before.
+        String binaryPayload = null;
+        try {
+            Store store = StoreJsonParser.parseStoreJson(storeJsonPayload);
+            binaryPayload = BinaryCodec.encodeStore(store);
+        } catch (StoreJsonParser.JsonParseException e) {
+            System.err.println("Master: Store JSON for " + storeName + " did not parse, forwarding it unchanged: " + e.getMessage());
+        }
 
         // For ADD_STORE_REQUEST, the first line to worker is just the MessageType
-        forwardRequestToWorker(selectedWorker, clientMessage.getType().name(), storeJsonPayload, clientOut, storeName);
+        forwardStoreRequest(storeName, true, clientMessage.getType().name(), jsonOrBinary(storeJsonPayload, binaryPayload), clientOut, clientMessage.getType().name());
     }
 
     // New generic method for product management requests
@@ -147,14 +294,9 @@ public class Master {
             return;
         }
 
-        // Select worker using storeName hash
-        int workerIndex = Math.abs(storeName.hashCode()) % workerNodes.size();
-        WorkerInfo selectedWorker = workerNodes.get(workerIndex);
-        System.out.println("Master: Selected worker " + selectedWorker.getId() + " for " + requestType + " for store " + storeName);
-
         // For product management, first line includes storeName: TYPE:StoreName
         String firstLineToWorker = requestType.name() + ":" + storeName;
-        forwardRequestToWorker(selectedWorker, firstLineToWorker, jsonPayload, clientOut, storeName);
+        forwardStoreRequest(storeName, false, firstLineToWorker, jsonPayload, clientOut, requestType.name());
     }
     
     public void handleGetSalesByProductRequest(MessageType requestType, String storeName, String jsonPayload, PrintWriter clientOut) {
@@ -167,68 +309,216 @@ public class Master {
             return;
         }
 
-        int workerIndex = Math.abs(storeName.hashCode()) % workerNodes.size();
-        WorkerInfo selectedWorker = workerNodes.get(workerIndex);
-        System.out.println("Master: Selected worker " + selectedWorker.getId() + " for " + requestType + " for store " + storeName);
-
-        // For sales requests, first line also includes storeName: TYPE:StoreName
+        // For sales requests, first line also includes storeName: TYPE:StoreName. Replicas hold the store's sales
+        // too, so this read is hedged like the broadcast ones, with the owner's partition as the only partition.
         String firstLineToWorker = requestType.name() + ":" + storeName;
-        forwardRequestToWorker(selectedWorker, firstLineToWorker, jsonPayload, clientOut, storeName);
+        ReentrantReadWriteLock.ReadLock routingLock = routingLockFor(storeName).readLock();
+        routingLock.lock();
+        try {
+            WorkerInfo owner = ownerOf(storeName, false);
+            if (owner == null) {
+                clientOut.println(JsonUtil.createStatusResponseJson(storeName, "FAILURE", "No workers available."));
+                return;
+            }
+            Map<WorkerInfo, String> partition = Collections.singletonMap(owner, owner.getId());
+            List<String> responses = scatterGather(partition, partitions -> firstLineToWorker, binaryCodecVersion -> jsonPayload,
+                FORWARD_TIMEOUT_MS, requestType.name() + " for store " + storeName, response -> response);
+            clientOut.println(!responses.isEmpty() ? responses.get(0)
+                : JsonUtil.createStatusResponseJson(storeName, "FAILURE", "No response from worker."));
+        } finally {
+            routingLock.unlock();
+        }
     }
 
     public void handleSearchStoresRequest(MessageType requestType, String routingKey, String jsonPayload, PrintWriter clientOut) {
-        if (workerNodes.isEmpty()) {
-            clientOut.println(JsonUtil.createSearchStoresResponseJson(new ArrayList<>())); // Send empty valid response
+        SearchStoresRequestPayload request = null;
+        try {
+            request = ClientJsonParser.parseSearchStoresRequest(jsonPayload);
+        } catch (StoreJsonParser.JsonParseException e) {
+            System.err.println("Master: Search request did not parse, forwarding it unchanged: " + e.getMessage());
+        }
+
+        if (request != null && !(request.getRadiusKm() >= 0 && request.getRadiusKm() <= Worker.MAX_SEARCH_RADIUS_KM)) { // Also rejects NaN
+            clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE",
+                "radiusKm must be between 0 (the default " + Worker.SEARCH_RADIUS_KM + " km) and " + Worker.MAX_SEARCH_RADIUS_KM + " km."));
             return;
         }
 
-        System.out.println("Master: Broadcasting " + requestType + " to all workers. Payload: " + jsonPayload);
-        List<com.fooddelivery.communication.payloads.StoreInfoForClient> aggregatedResults = Collections.synchronizedList(new ArrayList<>());
-        // Use a CountDownLatch to wait for all workers to respond or timeout
-        java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(workerNodes.size());
-
-        for (WorkerInfo workerInfo : workerNodes) {
-            // Create a new thread or use an executor for each worker communication to do them in parallel
-            // For simplicity here, doing it sequentially, but parallel is better.
-            // A proper implementation would use a thread pool for these scatter-gather operations.
-            
-            // This simplified sequential version is for brevity in this subtask:
-            try (Socket workerSocket = new Socket(workerInfo.getHost(), workerInfo.getPort());
-                 PrintWriter workerOut = new PrintWriter(workerSocket.getOutputStream(), true);
-                 BufferedReader workerIn = new BufferedReader(new InputStreamReader(workerSocket.getInputStream()))) {
-                
-                workerSocket.setSoTimeout(5000); // Shorter timeout for search queries to individual workers
-
-                // Worker expects: MessageType (no routing key needed here as it's broadcast), Payload
-                workerOut.println(requestType.name()); 
-                workerOut.println(jsonPayload);
-
-                String workerResponseJson = workerIn.readLine();
-                if (workerResponseJson != null) {
-                    try {
-                        // Master needs to parse worker's SearchStoresResponsePayload
-                        com.fooddelivery.communication.payloads.SearchStoresResponsePayload workerResponse = 
-                            com.fooddelivery.client.android.network.ClientJsonParser.parseSearchStoresResponse(workerResponseJson);
-                        if (workerResponse != null && workerResponse.getResults() != null) {
-                            aggregatedResults.addAll(workerResponse.getResults());
+        // Ranked searches (see SearchRanking) are answered one page of `limit` stores at a time
+        boolean ranked = request != null && SearchRanking.isRanked(request);
+        String sortKey = null;
+        int limit = 0;
+        if (ranked) {
+            sortKey = SearchRanking.sortKeyOf(request);
+            limit = request.getLimit();
+            if (sortKey == null) {
+                clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "sortBy must be distance, stars or price."));
+                return;
+            }
+            if (limit < 0 || limit > SearchRanking.MAX_LIMIT) {
+                clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "limit must be between 1 and " + SearchRanking.MAX_LIMIT + ", or 0 for every match."));
+                return;
+            }
+            if (request.getCursor() != null && SearchRanking.parseCursor(sortKey, request.getCursor()) == null) {
+                clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Invalid cursor for sortBy " + sortKey + "."));
+                return;
+            }
+            request.setSortBy(sortKey);
+            if (limit > 0) {
+                request.setLimit(limit + 1); // One more than the page, to tell whether another page follows
+            }
+        }
+
+        List<StoreInfoForClient> results = null;
+        // Answered from the cache if possible (see SearchResultCache)
+        if (request != null && SearchResultCache.isEnabled()) {
+            List<StoreInfoForClient> cached = cachedSearch(requestType, new SearchResultCache.Key(request));
+            if (cached != null) {
+                results = SearchResultCache.resultsFor(cached, request);
+                if (ranked) {
+                    SearchRanking.TopK page = SearchRanking.TopK.forRequest(request);
+                    results.forEach(page::offer);
+                    results = page.sorted();
+                }
+            }
+            // Null only if waiting on another request's fill failed; then the workers are asked below
+        }
+
+        if (results == null) {
+            String forwardedJson = ranked ? JsonUtil.createSearchStoresRequestJson(request) : jsonPayload;
+            String binaryPayload = request == null ? null : BinaryCodec.encodeSearchStoresRequest(request);
+            ReadGather<SearchStoresResponsePayload> gather = searchWorkers(requestType, forwardedJson, binaryPayload);
+            List<SearchStoresResponsePayload> workerResponses = gather == null ? new ArrayList<>() : gather.results;
+            results = ranked ? mergeRankedSearchResults(workerResponses, SearchRanking.comparator(sortKey), request.getLimit())
+                             : mergeSearchResults(workerResponses);
+            System.out.println("Master: Aggregated " + results.size() + " search results from workers.");
+        }
+
+        String nextCursor = null;
+        if (ranked && limit > 0 && results.size() > limit) {
+            results = results.subList(0, limit);
+            nextCursor = SearchRanking.cursorAfter(sortKey, results.get(limit - 1));
+        }
+        JsonUtil.writeSearchStoresResponse(clientOut, results, nextCursor); // Streamed into the client's buffered writer
+        clientOut.println();
+    }
+
+    // The stores cached for the key, filled from the workers on a miss. Concurrent misses on one key share a single
+    // fill. A fill that missed some partitions is not cached, as it would hide stores until it expired, but its
+    // partial results still answer every request that waited for it: asking the workers again would only wait
+    // for the same unavailable partitions a second time. Returns null only if waiting on the fill failed.
+    private List<StoreInfoForClient> cachedSearch(MessageType requestType, SearchResultCache.Key key) {
+        List<StoreInfoForClient> cached = searchCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        java.util.concurrent.CompletableFuture<List<StoreInfoForClient>> fill = new java.util.concurrent.CompletableFuture<>();
+        java.util.concurrent.CompletableFuture<List<StoreInfoForClient>> running = searchCacheFills.putIfAbsent(key, fill);
+        if (running != null) {
+            try {
+                return running.get(SEARCH_DEADLINE_MS + 1000, TimeUnit.MILLISECONDS); // The fill ends by its own deadline
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (java.util.concurrent.ExecutionException | java.util.concurrent.TimeoutException e) {
+                return null;
+            }
+        }
+        List<StoreInfoForClient> stores = null;
+        try {
+            long invalidationCount = searchCache.invalidationCount();
+            SearchStoresRequestPayload fillRequest = key.fillRequest();
+            String fillJson = JsonUtil.createSearchStoresRequestJson(fillRequest.getClientLatitude(), fillRequest.getClientLongitude(),
+                fillRequest.getFoodCategoryFilter(), fillRequest.getMinStarsFilter(), fillRequest.getPriceRangeFilter(), fillRequest.getRadiusKm());
+            ReadGather<SearchStoresResponsePayload> gather = searchWorkers(requestType, fillJson, BinaryCodec.encodeSearchStoresRequest(fillRequest));
+            stores = Collections.unmodifiableList(gather == null ? new ArrayList<>() : mergeSearchResults(gather.results));
+            if (gather != null && gather.complete) {
+                searchCache.put(key, stores, invalidationCount);
+                System.out.println("Master: Cached " + stores.size() + " stores around (" + fillRequest.getClientLatitude() + ", " + fillRequest.getClientLongitude() + ").");
+            }
+        } finally {
+            searchCacheFills.remove(key);
+            fill.complete(stores);
+        }
+        return stores;
+    }
+
+    // Asks every partition of the store space for the search. Returns null if there are no workers.
+    private ReadGather<SearchStoresResponsePayload> searchWorkers(MessageType requestType, String jsonPayload, String binaryPayload) {
+        Map<WorkerInfo, String> partitions = assignReadPartitions();
+        if (partitions.isEmpty()) {
+            return null;
+        }
+        System.out.println("Master: Broadcasting " + requestType + " to " + partitions.size() + " workers. Payload: " + jsonPayload);
+        // Worker expects: MessageType:<partitions it answers for>, Payload
+        // Master needs to parse each worker's SearchStoresResponsePayload; parsing happens on the worker task threads.
+        return gatherReads(partitions, keys -> requestType.name() + ":" + keys, jsonOrBinary(jsonPayload, binaryPayload),
+            SEARCH_DEADLINE_MS, "search", Master::parseSearchStoresResponse);
+    }
+
+    private static List<StoreInfoForClient> mergeSearchResults(List<SearchStoresResponsePayload> workerResponses) {
+        List<StoreInfoForClient> aggregatedResults = new ArrayList<>();
+        // A store being moved between workers, or failed over, can briefly be answered by two of them; list it once
+        java.util.Set<String> seenStoreNames = new java.util.HashSet<>();
+        for (SearchStoresResponsePayload workerResponse : workerResponses) {
+            if (workerResponse != null && workerResponse.getResults() != null) {
+                for (StoreInfoForClient store : workerResponse.getResults()) {
+                    if (seenStoreNames.add(store.getStoreName())) {
+                        aggregatedResults.add(store);
+                    }
+                }
+            }
+        }
+        return aggregatedResults;
+    }
+
+    private static List<StoreInfoForClient> mergeRankedSearchResults(List<SearchStoresResponsePayload> workerResponses,
+                                                                      java.util.Comparator<StoreInfoForClient> order, int limit) {
+        List<List<StoreInfoForClient>> sortedLists = new ArrayList<>();
+        for (SearchStoresResponsePayload workerResponse : workerResponses) {
+            if (workerResponse != null && workerResponse.getResults() != null) {
+                sortedLists.add(SearchRanking.sortedCopy(workerResponse.getResults(), order));
+            }
+        }
+        return SearchRanking.merge(sortedLists, order, limit);
+    }
+
+    // A worker saw the stars, price category or menu of stores change; drop the cached searches around them.
+    public void handleSearchCacheInvalidation(String payload, PrintWriter clientOut) {
+        int dropped = 0;
+        try {
+            com.fooddelivery.util.JsonReader reader = new com.fooddelivery.util.JsonReader(payload);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"locations".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    double latitude = 0;
+                    double longitude = 0;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "latitude": latitude = reader.nextDouble(); break;
+                            case "longitude": longitude = reader.nextDouble(); break;
+                            default: reader.skipValue();
                         }
-                    } catch (Exception e) {
-                        System.err.println("Master: Error parsing response from worker " + workerInfo.getId() + ": " + e.getMessage());
                     }
+                    reader.endObject();
+                    dropped += searchCache.invalidateNear(latitude, longitude);
                 }
-            } catch (IOException e) {
-                System.err.println("Master: Error communicating with worker " + workerInfo.getId() + " for search: " + e.getMessage());
-            } finally {
-                latch.countDown(); // Decrement latch regardless of success/failure for this worker
+                reader.endArray();
             }
+            reader.endObject();
+        } catch (StoreJsonParser.JsonParseException e) {
+            clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Unreadable invalidation: " + e.getMessage()));
+            return;
         }
-        
-        // This part would ideally be after latch.await() if using parallel calls.
-        // For sequential, it's just after the loop.
-        System.out.println("Master: Aggregated " + aggregatedResults.size() + " search results from workers.");
-        clientOut.println(JsonUtil.createSearchStoresResponseJson(aggregatedResults));
+        clientOut.println(JsonUtil.createStatusResponseJson(null, "SUCCESS", "Dropped " + dropped + " cached searches."));
     }
-    
+
     public void handleGetSalesByProductCategoryRequest(MessageType clientRequestType, String productTypeFromClient, String clientJsonPayload, PrintWriter clientOut) {
         if (productTypeFromClient == null || productTypeFromClient.trim().isEmpty()) {
             clientOut.println(JsonUtil.createSalesResponseJson("SALES_BY_PRODUCT_CATEGORY", productTypeFromClient, new ArrayList<>(), 0));
@@ -240,56 +530,29 @@ public class Master {
         }
 
         System.out.println("Master: Starting MapReduce for " + clientRequestType + " on ProductType: " + productTypeFromClient);
-        final List<SalesDataEntry> collectedWorkerResults = Collections.synchronizedList(new ArrayList<>());
-        final CountDownLatch latch = new CountDownLatch(workerNodes.size());
-        
+        final List<SalesDataEntry> collectedWorkerResults = new ArrayList<>();
         String mapTaskPayloadJson = JsonUtil.createMapTaskRequestJson("PRODUCT_CATEGORY_SALES", productTypeFromClient);
+        String mapTaskPayloadBinary = BinaryCodec.encodeMapTaskRequest(new MapTaskRequestPayload("PRODUCT_CATEGORY_SALES", productTypeFromClient));
 
-        for (final WorkerInfo workerInfo : workerNodes) {
-            workerTaskExecutorService.submit(() -> {
-                try (Socket workerSocket = new Socket(workerInfo.getHost(), workerInfo.getPort());
-                     PrintWriter workerOut = new PrintWriter(workerSocket.getOutputStream(), true);
-                     BufferedReader workerIn = new BufferedReader(new InputStreamReader(workerSocket.getInputStream()))) {
-                    
-                    workerSocket.setSoTimeout(10000);
-                    // Send WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST to worker
-                    workerOut.println(MessageType.WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST.name());
-                    workerOut.println(mapTaskPayloadJson);
-                    System.out.println("Master: Sent MAP_SALES_PRODUCT_CATEGORY task for '" + productTypeFromClient + "' to worker " + workerInfo.getId());
-
-                    String workerResponseJson = workerIn.readLine();
-                    if (workerResponseJson != null) {
-                        try {
-                            MapTaskResponsePayload workerResponse = ClientJsonParser.parseMapTaskResponsePayload(workerResponseJson);
-                            if (workerResponse != null && workerResponse.getMappedResults() != null) {
-                                collectedWorkerResults.addAll(workerResponse.getMappedResults());
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Master: Error parsing MapTaskResponse from worker " + workerInfo.getId() + " for product category sales: " + e.getMessage());
-                        }
-                    }
-                } catch (IOException e) {
-                    System.err.println("Master: Error communicating with worker " + workerInfo.getId() + " for product category sales task: " + e.getMessage());
-                } finally {
-                    latch.countDown();
-                }
-            });
-        }
-
-        try {
-            latch.await(15, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            System.err.println("Master: Interrupted while waiting for product category sales map tasks.");
-            Thread.currentThread().interrupt();
+        // Send WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST to one holder of every partition
+        Map<WorkerInfo, String> partitions = assignReadPartitions();
+        List<MapTaskResponsePayload> workerResponses = scatterGather(partitions,
+            keys -> MessageType.WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST.name() + ":" + keys, jsonOrBinary(mapTaskPayloadJson, mapTaskPayloadBinary),
+            MAP_TASK_DEADLINE_MS, "product category sales task", Master::parseMapTaskResponse);
+        for (MapTaskResponsePayload workerResponse : workerResponses) {
+            if (workerResponse != null && workerResponse.getMappedResults() != null) {
+                collectedWorkerResults.addAll(workerResponse.getMappedResults());
+            }
         }
 
         // Reduce Step (in Master)
         Map<String, Double> salesByStoreName = new HashMap<>();
         double grandTotalRevenue = 0;
         for (SalesDataEntry entry : collectedWorkerResults) {
-            // entry.getItemName() is storeName, entry.getTotalRevenue() is sum for that store for the target productType
-            salesByStoreName.put(entry.getItemName(), 
-                                 salesByStoreName.getOrDefault(entry.getItemName(), 0.0) + entry.getTotalRevenue());
+            // entry.getItemName() is storeName, entry.getTotalRevenue() is sum for that store for the target productType.
+            // Each store is held by one worker; while it is being moved both copies (identical, its writes wait
+            // for the move) may answer, so it is counted once.
+            salesByStoreName.putIfAbsent(entry.getItemName(), entry.getTotalRevenue());
         }
         
         List<SalesDataEntry> finalReducedEntries = new ArrayList<>();
@@ -299,12 +562,13 @@ public class Master {
         }
         
         System.out.println("Master: Finished MapReduce for " + clientRequestType + ". ProductType: " + productTypeFromClient + ", Results: " + finalReducedEntries.size() + " stores, Grand Total: " + grandTotalRevenue);
-        clientOut.println(JsonUtil.createSalesResponseJson(
+        JsonUtil.writeSalesResponse(clientOut, 
             "SALES_BY_PRODUCT_CATEGORY", 
             productTypeFromClient, 
             finalReducedEntries, 
             grandTotalRevenue
-        ));
+        );
+        clientOut.println();
     }
 
     public void handleGetSalesByStoreTypeRequest(MessageType clientRequestType, String foodCategoryFromClient, String clientJsonPayload, PrintWriter clientOut) {
@@ -318,58 +582,30 @@ public class Master {
         }
 
         System.out.println("Master: Starting MapReduce for " + clientRequestType + " on FoodCategory: " + foodCategoryFromClient);
-        final List<SalesDataEntry> collectedWorkerResults = Collections.synchronizedList(new ArrayList<>());
-        final CountDownLatch latch = new CountDownLatch(workerNodes.size());
-        
+        final List<SalesDataEntry> collectedWorkerResults = new ArrayList<>();
         // Use "STORE_TYPE_SALES" as the identifier for this specific map task
         String mapTaskPayloadJson = JsonUtil.createMapTaskRequestJson("STORE_TYPE_SALES", foodCategoryFromClient);
+        String mapTaskPayloadBinary = BinaryCodec.encodeMapTaskRequest(new MapTaskRequestPayload("STORE_TYPE_SALES", foodCategoryFromClient));
 
-        for (final WorkerInfo workerInfo : workerNodes) {
-            workerTaskExecutorService.submit(() -> {
-                try (Socket workerSocket = new Socket(workerInfo.getHost(), workerInfo.getPort());
-                     PrintWriter workerOut = new PrintWriter(workerSocket.getOutputStream(), true);
-                     BufferedReader workerIn = new BufferedReader(new InputStreamReader(workerSocket.getInputStream()))) {
-                    
-                    workerSocket.setSoTimeout(10000);
-                    // Send WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST to worker
-                    workerOut.println(MessageType.WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST.name());
-                    workerOut.println(mapTaskPayloadJson);
-                    System.out.println("Master: Sent MAP_SALES_STORE_TYPE task for '" + foodCategoryFromClient + "' to worker " + workerInfo.getId());
-
-                    String workerResponseJson = workerIn.readLine();
-                    if (workerResponseJson != null) {
-                        try {
-                            MapTaskResponsePayload workerResponse = ClientJsonParser.parseMapTaskResponsePayload(workerResponseJson);
-                            if (workerResponse != null && workerResponse.getMappedResults() != null) {
-                                collectedWorkerResults.addAll(workerResponse.getMappedResults());
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Master: Error parsing MapTaskResponse from worker " + workerInfo.getId() + " for store type sales: " + e.getMessage());
-                        }
-                    }
-                } catch (IOException e) {
-                    System.err.println("Master: Error communicating with worker " + workerInfo.getId() + " for store type sales task: " + e.getMessage());
-                } finally {
-                    latch.countDown();
-                }
-            });
-        }
-
-        try {
-            latch.await(15, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            System.err.println("Master: Interrupted while waiting for store type sales map tasks.");
-            Thread.currentThread().interrupt();
+        // Send WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST to one holder of every partition
+        Map<WorkerInfo, String> partitions = assignReadPartitions();
+        List<MapTaskResponsePayload> workerResponses = scatterGather(partitions,
+            keys -> MessageType.WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST.name() + ":" + keys, jsonOrBinary(mapTaskPayloadJson, mapTaskPayloadBinary),
+            MAP_TASK_DEADLINE_MS, "store type sales task", Master::parseMapTaskResponse);
+        for (MapTaskResponsePayload workerResponse : workerResponses) {
+            if (workerResponse != null && workerResponse.getMappedResults() != null) {
+                collectedWorkerResults.addAll(workerResponse.getMappedResults());
+            }
         }
 
         // Reduce Step (in Master)
         Map<String, Double> salesByStoreName = new HashMap<>();
         double grandTotalRevenue = 0;
 
-        // Each SalesDataEntry from worker contains (StoreName, TotalRevenueOfThatStoreIfMatchingCategory)
+        // Each SalesDataEntry from worker contains (StoreName, TotalRevenueOfThatStoreIfMatchingCategory).
+        // A store being moved between workers may be reported by both; count it once.
         for (SalesDataEntry entry : collectedWorkerResults) {
-            salesByStoreName.put(entry.getItemName(), 
-                                 salesByStoreName.getOrDefault(entry.getItemName(), 0.0) + entry.getTotalRevenue());
+            salesByStoreName.putIfAbsent(entry.getItemName(), entry.getTotalRevenue());
         }
         
         List<SalesDataEntry> finalReducedEntries = new ArrayList<>();
@@ -379,12 +615,23 @@ public class Master {
         }
         
         System.out.println("Master: Finished MapReduce for " + clientRequestType + ". FoodCategory: " + foodCategoryFromClient + ", Results: " + finalReducedEntries.size() + " stores, Grand Total: " + grandTotalRevenue);
-        clientOut.println(JsonUtil.createSalesResponseJson(
+        JsonUtil.writeSalesResponse(clientOut, 
             "SALES_BY_STORE_TYPE", 
             foodCategoryFromClient, 
             finalReducedEntries, 
             grandTotalRevenue
-        ));
+        );
+        clientOut.println();
+    }
+
+    // Forwarded to the store's primary, which checks and takes the stock of all items at once.
+    public void handlePurchaseRequest(MessageType requestType, String storeName, String jsonPayload, PrintWriter clientOut) {
+        if (workerNodes.isEmpty()) {
+            clientOut.println(JsonUtil.createStatusResponseJson(storeName, "FAILURE", "No workers available for purchase."));
+            return;
+        }
+        String firstLineToWorker = requestType.name() + ":" + storeName;
+        forwardStoreRequest(storeName, false, firstLineToWorker, jsonPayload, clientOut, requestType.name());
     }
 
     public void handleRateStoreRequest(MessageType requestType, String storeName, String jsonPayload, PrintWriter clientOut) {
@@ -397,28 +644,781 @@ public class Master {
             return;
         }
 
-        int workerIndex = Math.abs(storeName.hashCode()) % workerNodes.size();
-        WorkerInfo selectedWorker = workerNodes.get(workerIndex);
-        System.out.println("Master: Selected worker " + selectedWorker.getId() + " for " + requestType + " for store " + storeName);
-
         String firstLineToWorker = requestType.name() + ":" + storeName;
-        forwardRequestToWorker(selectedWorker, firstLineToWorker, jsonPayload, clientOut, storeName);
+        forwardStoreRequest(storeName, false, firstLineToWorker, jsonPayload, clientOut, requestType.name());
     }
     
+    // Adds a worker and moves to it the stores the new ring assigns it. Traffic keeps flowing during the move:
+    // only requests for a store that is being copied wait for it. Returns a status JSON for the manager.
+    public String addWorker(String host, int workerPort) {
+        String workerId = host + ":" + workerPort;
+        membershipLock.lock();
+        try {
+            if (ring.contains(workerId)) {
+                return JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker " + workerId + " is already a member.");
+            }
+            removedWorkerIds.remove(workerId);
+            WorkerInfo worker = new WorkerInfo(workerId, host, workerPort);
+            workerNodes.add(worker); // Joins broadcasts right away; it holds no stores yet
+            resizeWorkerTaskPool();
+            int unmoved;
+            try {
+                unmoved = rebalanceTo(ring.withWorker(worker));
+            } catch (IOException e) {
+                System.err.println("Master: Could not add worker " + workerId + ": " + e.getMessage());
+                workerNodes.remove(worker);
+                resizeWorkerTaskPool();
+                closeConnectionPool(workerId);
+                return JsonUtil.createStatusResponseJson(null, "FAILURE", "Could not add worker " + workerId + ": " + e.getMessage());
+            }
+            System.out.println("Master: Worker " + workerId + " added. Workers: " + ring.getWorkers().size() + ", stores not moved: " + unmoved);
+            return JsonUtil.createStatusResponseJson(null, unmoved == 0 ? "SUCCESS" : "FAILURE",
+                "Worker " + workerId + " added." + (unmoved == 0 ? "" : " " + unmoved + " stores could not be moved and stay on their current worker."));
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    // Moves the worker's stores to the remaining workers, then drops it. If some stores cannot be moved the
+    // worker keeps serving them and stays in the broadcast set.
+    public String removeWorker(String workerId) {
+        membershipLock.lock();
+        try {
+            if (!ring.contains(workerId)) {
+                return JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker " + workerId + " is not a member.");
+            }
+            try {
+                rebalanceTo(ring.withoutWorker(workerId));
+            } catch (IOException e) {
+                System.err.println("Master: Could not remove worker " + workerId + ": " + e.getMessage());
+                return JsonUtil.createStatusResponseJson(null, "FAILURE", "Could not remove worker " + workerId + ": " + e.getMessage());
+            }
+            long stillHeld = storeOwnerOverrides.values().stream().filter(w -> w.getId().equals(workerId)).count();
+            if (stillHeld > 0) {
+                return JsonUtil.createStatusResponseJson(null, "FAILURE", stillHeld + " stores could not be moved off worker " + workerId + "; it keeps serving them.");
+            }
+            workerNodes.removeIf(w -> w.getId().equals(workerId));
+            resizeWorkerTaskPool();
+            removedWorkerIds.add(workerId); // Keeps a still running worker from registering itself straight back
+            closeConnectionPool(workerId);
+            System.out.println("Master: Worker " + workerId + " removed. Workers: " + ring.getWorkers().size());
+            return JsonUtil.createStatusResponseJson(null, "SUCCESS", "Worker " + workerId + " removed.");
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    private int workerTaskThreads() {
+        return Math.max(MIN_WORKER_TASK_THREADS, workerNodes.size() * WORKER_TASK_THREADS_PER_WORKER);
+    }
+
+    // Keeps the worker task pool at workerTaskThreads() as workers join and leave, so a Master whose workers
+    // register themselves is not left with the minimum pool it started with. Called under membershipLock.
+    // With virtual threads the pool is unbounded and there is nothing to resize.
+    private void resizeWorkerTaskPool() {
+        if (!(workerTaskExecutorService instanceof java.util.concurrent.ThreadPoolExecutor)) {
+            return;
+        }
+        java.util.concurrent.ThreadPoolExecutor pool = (java.util.concurrent.ThreadPoolExecutor) workerTaskExecutorService;
+        int threads = workerTaskThreads();
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads); // The maximum may never drop below the core size
+            pool.setCorePoolSize(threads);
+        } else if (threads < pool.getMaximumPoolSize()) {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    public void handleAddWorkerRequest(String workerAddress, PrintWriter clientOut) {
+        String[] hostAndPort = parseWorkerAddress(workerAddress);
+        if (hostAndPort == null) {
+            clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker address must be host:port."));
+            return;
+        }
+        clientOut.println(addWorker(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+    }
+
+    public void handleRemoveWorkerRequest(String workerAddress, PrintWriter clientOut) {
+        if (parseWorkerAddress(workerAddress) == null) {
+            clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker address must be host:port."));
+            return;
+        }
+        clientOut.println(removeWorker(workerAddress.trim()));
+    }
+
+    // WORKER_REGISTER_REQUEST / WORKER_HEARTBEAT_REQUEST from a worker, routing key host:port, payload its load.
+    // Registering an unknown worker adds it to the ring (moving stores to it) before answering; a heartbeat
+    // from an unknown worker (evicted, or this Master restarted) is refused, which makes the worker register again.
+    public void handleWorkerHeartbeat(MessageType type, String workerAddress, String payload, PrintWriter clientOut) {
+        String[] hostAndPort = parseWorkerAddress(workerAddress);
+        if (hostAndPort == null) {
+            clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker address must be host:port."));
+            return;
+        }
+        String workerId = hostAndPort[0] + ":" + hostAndPort[1];
+        WorkerInfo member = findWorkerNode(workerId);
+        if (member == null) {
+            if (type != MessageType.WORKER_REGISTER_REQUEST) {
+                clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Unknown worker " + workerId + ", register again."));
+                return;
+            }
+            if (removedWorkerIds.contains(workerId)) {
+                clientOut.println(JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker " + workerId + " was removed by the manager."));
+                return;
+            }
+            System.out.println("Master: Worker " + workerId + " is registering.");
+            String addResult = addWorker(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+            member = findWorkerNode(workerId);
+            if (member == null) {
+                clientOut.println(addResult);
+                return;
+            }
+        }
+        recordHeartbeat(member, payload);
+        clientOut.println(JsonUtil.createStatusResponseJson(null, "SUCCESS",
+            type == MessageType.WORKER_REGISTER_REQUEST ? "Worker " + workerId + " registered." : "Heartbeat recorded."));
+    }
+
+    private static void recordHeartbeat(WorkerInfo worker, String loadJson) {
+        try {
+            com.fooddelivery.util.JsonReader reader = new com.fooddelivery.util.JsonReader(loadJson);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "storeCount": worker.storeCount = reader.nextInt(); break;
+                    case "queueDepth": worker.queueDepth = reader.nextInt(); break;
+                    case "recentLatencyMs": worker.recentLatencyMs = reader.nextDouble(); break;
+                    case "replicationBacklog": worker.replicationBacklog = reader.nextInt(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (StoreJsonParser.JsonParseException e) {
+            System.err.println("Master: Unreadable load report from worker " + worker.getId() + ": " + e.getMessage());
+        }
+        worker.lastHeartbeatMillis = System.currentTimeMillis(); // The worker is alive even if its report was not readable
+    }
+
+    // Evicts every heartbeating worker that has been silent for longer than HEARTBEAT_TIMEOUT_MS.
+    private void evictSilentWorkers() {
+        long now = System.currentTimeMillis();
+        for (WorkerInfo worker : getWorkerNodes()) {
+            long lastHeartbeat = worker.getLastHeartbeatMillis();
+            if (lastHeartbeat > 0 && now - lastHeartbeat > HEARTBEAT_TIMEOUT_MS) {
+                try {
+                    evictWorker(worker, now - lastHeartbeat);
+                } catch (Exception e) {
+                    System.err.println("Master: Error evicting worker " + worker.getId() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Takes a dead worker out of routing and broadcasts at once, so requests stop waiting on connect timeouts,
+    // and fails its stores over to their replicas. Stores without a replica are unavailable until the worker
+    // registers again, when the rebalance moves them to wherever the ring then puts them.
+    private void evictWorker(WorkerInfo worker, long silentMillis) {
+        membershipLock.lock();
+        try {
+            if (findWorkerNode(worker.getId()) != worker || worker.getLastHeartbeatMillis() + HEARTBEAT_TIMEOUT_MS >= System.currentTimeMillis()) {
+                return; // Already gone, or it came back while we waited for the lock
+            }
+            ConsistentHashRing before = ring;
+            ring = ring.withoutWorker(worker.getId());
+            workerNodes.remove(worker);
+            resizeWorkerTaskPool();
+            storeOwnerOverrides.values().removeIf(w -> w.getId().equals(worker.getId()));
+            closeConnectionPool(worker.getId());
+            System.err.println("Master: Evicted worker " + worker.getId() + " after " + silentMillis + "ms without a heartbeat (last load: "
+                + worker.getStoreCount() + " stores, queue " + worker.getQueueDepth() + "). Workers: " + ring.getWorkers().size());
+            int failedOver = failOverStoresOf(worker, before);
+            if (failedOver > 0) {
+                System.out.println("Master: Failed " + failedOver + " stores of worker " + worker.getId() + " over to their replicas.");
+            }
+            broadcastClusterView(); // Only now: the replicas' copies of its stores were needed for the failover
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    // Gives every store of a dead primary to its owner in the new ring: the owner promotes its replica if it has
+    // one, otherwise a replica is copied to it. Replication is asynchronous, so the dead worker's last few
+    // acknowledged writes can be lost. Caller holds membershipLock. Returns the number of stores failed over.
+    private int failOverStoresOf(WorkerInfo dead, ConsistentHashRing before) {
+        Map<String, List<WorkerInfo>> replicaHolders = new HashMap<>();
+        for (WorkerInfo holder : before.replicasOf(dead.getId(), REPLICATION_FACTOR)) {
+            if (!ring.contains(holder.getId())) continue;
+            try {
+                String response = callWorker(holder, MessageType.LIST_STORES_REQUEST.name(), JsonUtil.createReplicaListRequestJson(dead.getId()), FORWARD_TIMEOUT_MS);
+                for (String storeName : ClientJsonParser.parseStoreNamesResponse(response)) {
+                    replicaHolders.computeIfAbsent(storeName, k -> new ArrayList<>()).add(holder);
+                }
+            } catch (IOException | StoreJsonParser.JsonParseException e) {
+                System.err.println("Master: Could not list replicas of worker " + dead.getId() + " on worker " + holder.getId() + ": " + e.getMessage());
+            }
+        }
+        int failedOver = 0;
+        for (Map.Entry<String, List<WorkerInfo>> entry : replicaHolders.entrySet()) {
+            String storeName = entry.getKey();
+            WorkerInfo newOwner = ring.workerFor(storeName);
+            if (newOwner == null) break;
+            ReentrantReadWriteLock.WriteLock routingLock = routingLockFor(storeName).writeLock();
+            routingLock.lock();
+            try {
+                String response;
+                WorkerInfo source = entry.getValue().get(0);
+                for (WorkerInfo holder : entry.getValue()) {
+                    if (holder.getId().equals(newOwner.getId())) source = holder;
+                }
+                if (source == newOwner) {
+                    response = callWorker(newOwner, MessageType.PROMOTE_STORE_REQUEST.name() + ":" + storeName, "{}", FORWARD_TIMEOUT_MS);
+                } else {
+                    String storeState = callWorker(source, MessageType.EXPORT_STORE_REQUEST.name() + ":" + storeName, "{}", FORWARD_TIMEOUT_MS);
+                    response = JsonUtil.extractStoreName(storeState) == null ? storeState
+                        : callWorker(newOwner, MessageType.ADD_STORE_REQUEST.name(), storeState, FORWARD_TIMEOUT_MS);
+                }
+                if ("SUCCESS".equals(JsonUtil.extractStatus(response))) {
+                    failedOver++;
+                } else {
+                    System.err.println("Master: Failing store " + storeName + " over to worker " + newOwner.getId() + " failed: " + response);
+                }
+            } catch (IOException e) {
+                System.err.println("Master: Failing store " + storeName + " over to worker " + newOwner.getId() + " failed: " + e.getMessage());
+            } finally {
+                routingLock.unlock();
+            }
+        }
+        return failedOver;
+    }
+
+    // Sends every ring member the membership and replication factor, with its own id, so primaries know where
+    // to stream their stores and replicas which copies to keep. Caller holds membershipLock.
+    private void broadcastClusterView() {
+        membershipChangedMillis = System.currentTimeMillis();
+        sendClusterView();
+    }
+
+    private void sendClusterView() {
+        ConsistentHashRing current = ring;
+        long epoch = clusterViewEpoch.incrementAndGet();
+        List<String> workerIds = new ArrayList<>();
+        for (WorkerInfo worker : current.getWorkers()) {
+            workerIds.add(worker.getId());
+        }
+        for (WorkerInfo worker : current.getWorkers()) {
+            String view = JsonUtil.createClusterViewJson(epoch, REPLICATION_FACTOR, worker.getId(), workerIds);
+            workerTaskExecutorService.submit(() -> {
+                try {
+                    callWorker(worker, MessageType.CLUSTER_VIEW_REQUEST.name(), view, FORWARD_TIMEOUT_MS);
+                } catch (IOException e) {
+                    System.err.println("Master: Could not send cluster view to worker " + worker.getId() + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // Periodic resend for restarted workers and views lost to a failed call; skipped while membership changes.
+    private void resendClusterView() {
+        if (membershipLock.tryLock()) {
+            try {
+                sendClusterView();
+            } finally {
+                membershipLock.unlock();
+            }
+        }
+    }
+
+    // Read-from-replica: the stores are split into partitions, one per primary worker, and each partition is
+    // answered by one of its holders (the primary or one of its replicas), the least busy by pooled requests in
+    // flight and the queue depth of its last heartbeat. Replicas lag their primary by a few milliseconds; while
+    // stores are being moved, shortly after a membership change, or while the primary reports a replication
+    // backlog they are further behind, and the partition is read from its primary. Returns, per worker asked,
+    // its partition list for the request's routing key.
+    private Map<WorkerInfo, String> assignReadPartitions() {
+        long now = System.currentTimeMillis();
+        int rotation = (int) (readRotation.getAndIncrement() & Integer.MAX_VALUE); // Spreads ties over the holders
+        Map<WorkerInfo, List<String>> assigned = new java.util.LinkedHashMap<>();
+        for (WorkerInfo primary : getWorkerNodes()) { // Includes a worker being removed that still holds stores
+            WorkerInfo chosen = leastLoadedHolder(readHoldersOf(primary), java.util.Set.of(), assigned, rotation, now);
+            assigned.computeIfAbsent(chosen != null ? chosen : primary, k -> new ArrayList<>()).add(primary.getId());
+        }
+        Map<WorkerInfo, String> routingKeys = new java.util.LinkedHashMap<>();
+        for (Map.Entry<WorkerInfo, List<String>> entry : assigned.entrySet()) {
+            routingKeys.put(entry.getKey(), String.join(",", entry.getValue()));
+        }
+        return routingKeys;
+    }
+
+    // The workers a partition may be read from: its primary first, then its replicas unless they may be behind.
+    private List<WorkerInfo> readHoldersOf(WorkerInfo primary) {
+        ConsistentHashRing current = ring;
+        boolean moving = pendingRing != null || !storeOwnerOverrides.isEmpty()
+            || System.currentTimeMillis() - membershipChangedMillis < REPLICA_READ_GRACE_MS;
+        List<WorkerInfo> holders = new ArrayList<>();
+        holders.add(primary);
+        if (!moving && primary.getReplicationBacklog() == 0 && current.contains(primary.getId())) {
+            holders.addAll(current.replicasOf(primary.getId(), REPLICATION_FACTOR));
+        }
+        return holders;
+    }
+
+    // The holder with the fewest pooled requests in flight plus queued requests (and partitions already assigned
+    // to it), skipping excluded ones and ones that have missed heartbeats. Null if none is left.
+    private WorkerInfo leastLoadedHolder(List<WorkerInfo> holders, java.util.Set<String> excludedIds, Map<WorkerInfo, List<String>> assigned,
+                                         int rotation, long now) {
+        WorkerInfo chosen = null;
+        double lowestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < holders.size(); i++) {
+            WorkerInfo holder = holders.get((i + rotation) % holders.size());
+            if (excludedIds.contains(holder.getId())) {
+                continue;
+            }
+            long lastHeartbeat = holder.getLastHeartbeatMillis();
+            if (lastHeartbeat > 0 && now - lastHeartbeat > HEARTBEAT_TIMEOUT_MS / 2) {
+                continue; // Probably dying; leave it to the eviction
+            }
+            WorkerConnectionPool pool = connectionPools.get(holder.getId());
+            double load = (pool != null ? pool.getInFlightCount() : 0) + holder.getQueueDepth()
+                + assigned.getOrDefault(holder, List.of()).size();
+            if (load < lowestLoad) {
+                lowestLoad = load;
+                chosen = holder;
+            }
+        }
+        return chosen;
+    }
+
+    private WorkerInfo findWorkerNode(String workerId) {
+        for (WorkerInfo worker : getWorkerNodes()) {
+            if (worker.getId().equals(workerId)) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    private static String[] parseWorkerAddress(String workerAddress) {
+        if (workerAddress == null) return null;
+        String[] parts = workerAddress.trim().split(":");
+        if (parts.length != 2 || parts[0].isEmpty()) return null;
+        try {
+            Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return parts;
+    }
+
+    // Switches routing to target and moves every store whose owner changes. Caller holds membershipLock.
+    // Throws (with routing unchanged) if a worker's stores cannot be listed; returns the number of stores that
+    // could not be moved, which stay pinned to the worker holding them.
+    private int rebalanceTo(ConsistentHashRing target) throws IOException {
+        ConsistentHashRing current = ring;
+        pendingRing = target;
+        try {
+            // 1. List the stores of every worker in either ring. A worker that re-registers after an eviction may still
+            // hold stores that were re-created elsewhere meanwhile; the copy requests are routed to wins.
+            Map<String, List<WorkerInfo>> holdersByStore = new HashMap<>();
+            Map<String, WorkerInfo> listedWorkers = new java.util.LinkedHashMap<>();
+            for (WorkerInfo worker : current.getWorkers()) listedWorkers.put(worker.getId(), worker);
+            for (WorkerInfo worker : target.getWorkers()) listedWorkers.putIfAbsent(worker.getId(), worker);
+            for (WorkerInfo worker : listedWorkers.values()) {
+                String response = callWorker(worker, MessageType.LIST_STORES_REQUEST.name(), "{}", FORWARD_TIMEOUT_MS);
+                if (response == null) {
+                    throw new IOException("Worker " + worker.getId() + " closed the connection while listing its stores.");
+                }
+                try {
+                    for (String storeName : ClientJsonParser.parseStoreNamesResponse(response)) {
+                        holdersByStore.computeIfAbsent(storeName, k -> new ArrayList<>()).add(worker);
+                    }
+                } catch (StoreJsonParser.JsonParseException e) {
+                    throw new IOException("Unreadable store list from worker " + worker.getId() + ": " + e.getMessage());
+                }
+            }
+
+            // Then pin every store whose owner changes to the worker holding it, dropping stale extra copies.
+            for (Map.Entry<String, List<WorkerInfo>> entry : holdersByStore.entrySet()) {
+                String storeName = entry.getKey();
+                List<WorkerInfo> holders = entry.getValue();
+                WorkerInfo holder = holders.get(0);
+                if (holders.size() > 1) {
+                    WorkerInfo routedTo = ownerOf(storeName, false);
+                    for (WorkerInfo candidate : holders) {
+                        if (routedTo != null && candidate.getId().equals(routedTo.getId())) holder = candidate;
+                    }
+                    for (WorkerInfo stale : holders) {
+                        if (stale != holder) {
+                            System.out.println("Master: Dropping stale copy of store " + storeName + " on worker " + stale.getId());
+                            callWorker(stale, MessageType.DROP_STORE_REQUEST.name() + ":" + storeName, "{}", FORWARD_TIMEOUT_MS);
+                        }
+                    }
+                }
+                WorkerInfo newOwner = target.workerFor(storeName);
+                WorkerInfo routedTo = ownerOf(storeName, false);
+                if (newOwner == null || !newOwner.getId().equals(holder.getId())
+                        || routedTo == null || !routedTo.getId().equals(holder.getId())) {
+                    storeOwnerOverrides.put(storeName, holder);
+                }
+            }
+
+            // 2. Route by the target ring from now on; pinned stores keep going to their current worker.
+            ring = target;
+            broadcastClusterView();
+
+            // 3. Move pinned stores one by one. Stores created meanwhile are pinned by ownerOf and moved by a later pass.
+            boolean movedAny;
+            do {
+                movedAny = false;
+                for (Map.Entry<String, WorkerInfo> pin : new ArrayList<>(storeOwnerOverrides.entrySet())) {
+                    WorkerInfo newOwner = target.workerFor(pin.getKey());
+                    if (newOwner != null && migrateStore(pin.getKey(), pin.getValue(), newOwner)) {
+                        movedAny = true;
+                    }
+                }
+            } while (movedAny && !storeOwnerOverrides.isEmpty());
+            return storeOwnerOverrides.size();
+        } finally {
+            pendingRing = null;
+            broadcastClusterView(); // Replicas drop the copies of stores that moved
+        }
+    }
+
+    // Copies one store from its current worker to its new owner, then unpins and drops the old copy. Requests for
+    // the store wait on its routing stripe meanwhile, so nothing is written to the old copy after the export.
+    private boolean migrateStore(String storeName, WorkerInfo from, WorkerInfo to) {
+        ReentrantReadWriteLock.WriteLock routingLock = routingLockFor(storeName).writeLock();
+        routingLock.lock();
+        try {
+            if (storeOwnerOverrides.get(storeName) != from) {
+                return true; // Already handled
+            }
+            if (from.getId().equals(to.getId())) {
+                storeOwnerOverrides.remove(storeName);
+                return true;
+            }
+            String storeState = callWorker(from, MessageType.EXPORT_STORE_REQUEST.name() + ":" + storeName, "{}", FORWARD_TIMEOUT_MS);
+            if (storeState == null) {
+                System.err.println("Master: No export of store " + storeName + " from worker " + from.getId() + ".");
+                return false;
+            }
+            if (JsonUtil.extractStoreName(storeState) == null) {
+                // Not a store but a FAILURE status: the worker does not have it (e.g. its ADD_STORE failed), nothing to move
+                System.out.println("Master: Store " + storeName + " not found on worker " + from.getId() + ", unpinning it.");
+                storeOwnerOverrides.remove(storeName);
+                return true;
+            }
+            String importResponse = callWorker(to, MessageType.ADD_STORE_REQUEST.name(), storeState, FORWARD_TIMEOUT_MS);
+            if (!"SUCCESS".equals(JsonUtil.extractStatus(importResponse))) {
+                System.err.println("Master: Worker " + to.getId() + " did not accept store " + storeName + ": " + importResponse);
+                return false;
+            }
+            storeOwnerOverrides.remove(storeName); // Requests go to the new owner from here on
+            String dropResponse = callWorker(from, MessageType.DROP_STORE_REQUEST.name() + ":" + storeName, "{}", FORWARD_TIMEOUT_MS);
+            if (!"SUCCESS".equals(JsonUtil.extractStatus(dropResponse))) {
+                System.err.println("Master: Worker " + from.getId() + " kept a stale copy of moved store " + storeName + ": " + dropResponse);
+            }
+            System.out.println("Master: Moved store " + storeName + " from worker " + from.getId() + " to worker " + to.getId());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Master: Moving store " + storeName + " from worker " + from.getId() + " to worker " + to.getId() + " failed: " + e.getMessage());
+            return false;
+        } finally {
+            routingLock.unlock();
+        }
+    }
+
+    // The worker holding the store, or null if there are no workers. A store created (creating=true) while a
+    // rebalance runs and whose owner changes in the target ring is pinned to its current worker, so the
+    // rebalance moves it with the others.
+    private WorkerInfo ownerOf(String storeName, boolean creating) {
+        WorkerInfo pinned = storeOwnerOverrides.get(storeName);
+        if (pinned != null) {
+            return pinned;
+        }
+        ConsistentHashRing current = ring;
+        WorkerInfo owner = current.workerFor(storeName);
+        ConsistentHashRing pending = pendingRing;
+        if (creating && owner != null && pending != null && pending != current) {
+            WorkerInfo finalOwner = pending.workerFor(storeName);
+            if (finalOwner != null && !finalOwner.getId().equals(owner.getId())) {
+                WorkerInfo alreadyPinned = storeOwnerOverrides.putIfAbsent(storeName, owner);
+                return alreadyPinned != null ? alreadyPinned : owner;
+            }
+        }
+        return owner;
+    }
+
+    private ReentrantReadWriteLock routingLockFor(String storeName) {
+        return storeRoutingLocks[Math.floorMod(storeName.hashCode(), STORE_ROUTING_STRIPES)];
+    }
+
+    // Routes a single-store request to the worker holding the store and relays its response to the client.
+    private void forwardStoreRequest(String storeName, boolean creating, String firstLineToWorker, String payload, PrintWriter clientOut, String requestLabel) {
+        forwardStoreRequest(storeName, creating, firstLineToWorker, binaryCodecVersion -> payload, clientOut, requestLabel);
+    }
+
+    private void forwardStoreRequest(String storeName, boolean creating, String firstLineToWorker, WorkerConnectionPool.PayloadEncoder payload,
+                                     PrintWriter clientOut, String requestLabel) {
+        ReentrantReadWriteLock.ReadLock routingLock = routingLockFor(storeName).readLock();
+        routingLock.lock();
+        try {
+            WorkerInfo selectedWorker = ownerOf(storeName, creating);
+            if (selectedWorker == null) {
+                System.err.println("Master: No workers available for store: " + storeName);
+                clientOut.println(JsonUtil.createStatusResponseJson(storeName, "FAILURE", "No workers available."));
+                return;
+            }
+            System.out.println("Master: Selected worker " + selectedWorker.getId() + " for " + requestLabel + " for store " + storeName);
+            forwardRequestToWorker(selectedWorker, firstLineToWorker, payload, clientOut, storeName);
+        } finally {
+            routingLock.unlock();
+        }
+    }
+
+    private void closeConnectionPool(String workerId) {
+        readLatency.forget(workerId);
+        WorkerConnectionPool pool = connectionPools.remove(workerId);
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    // Parses one worker response line into a payload object. Runs on the worker task threads.
+    interface WorkerResponseParser<T> {
+        T parse(String workerResponseJson) throws Exception;
+    }
+
+    // Sends the binary form (if there is one) over connections that negotiated the codec, the JSON form otherwise.
+    private static WorkerConnectionPool.PayloadEncoder jsonOrBinary(String json, String binary) {
+        return binaryCodecVersion -> binary != null && binaryCodecVersion >= BinaryCodec.VERSION ? binary : json;
+    }
+
+    // Workers answer in the encoding of the request, so a response may be either.
+    private static SearchStoresResponsePayload parseSearchStoresResponse(String workerResponse) throws StoreJsonParser.JsonParseException {
+        return BinaryCodec.isBinary(workerResponse) ? BinaryCodec.decodeSearchStoresResponse(workerResponse)
+                                                    : ClientJsonParser.parseSearchStoresResponse(workerResponse);
+    }
+
+    private static MapTaskResponsePayload parseMapTaskResponse(String workerResponse) throws StoreJsonParser.JsonParseException {
+        return BinaryCodec.isBinary(workerResponse) ? BinaryCodec.decodeMapTaskResponse(workerResponse)
+                                                    : ClientJsonParser.parseMapTaskResponsePayload(workerResponse);
+    }
+
+    // State of one scatter-gather, guarded by its lock: the partitions (primary worker ids) not answered yet, the
+    // workers asked for each partition, and the calls in flight.
+    private static final class ReadGather<T> {
+        final ReentrantLock lock = new ReentrantLock(); // Not synchronized, to avoid pinning virtual threads while waiting
+        final java.util.concurrent.locks.Condition changed = lock.newCondition();
+        final java.util.Set<String> pendingPartitions = new java.util.HashSet<>();
+        final Map<String, java.util.Set<String>> askedByPartition = new HashMap<>();
+        final List<ReadCall> calls = new ArrayList<>();
+        final List<T> results = new ArrayList<>();
+        int inFlight; // Calls sent whose task has not finished yet
+        boolean closed;
+        boolean complete; // Every partition was answered before the gather closed
+    }
+
+    private static final class ReadCall {
+        final WorkerInfo worker;
+        final List<String> partitions;
+        long hedgeAtMillis; // When to ask another holder for whatever is still unanswered; 0 as soon as the call fails
+        boolean hedged;
+
+        ReadCall(WorkerInfo worker, List<String> partitions, long hedgeAtMillis) {
+            this.worker = worker;
+            this.partitions = partitions;
+            this.hedgeAtMillis = hedgeAtMillis;
+        }
+    }
+
+    // Scatter-gather helper for reads: asks every worker in the assignment for its partitions (first line built from
+    // the comma-separated partition list) in parallel on the bounded worker task pool, and waits until every
+    // partition is answered or the deadline passed, whichever is first. A partition still unanswered once its call
+    // is slower than the worker's p95, or whose call failed, is asked of another holder (see HEDGE_READS); the
+    // first answer for a partition is kept and later ones dropped. Returns the parsed responses that arrived in
+    // time, so callers get partial results instead of waiting for the slowest worker.
+    private <T> List<T> scatterGather(Map<WorkerInfo, String> assignment, java.util.function.Function<String, String> firstLineForPartitions,
+                                      WorkerConnectionPool.PayloadEncoder payload, long deadlineMillis, String taskLabel, WorkerResponseParser<T> parser) {
+        return gatherReads(assignment, firstLineForPartitions, payload, deadlineMillis, taskLabel, parser).results;
+    }
+
+    // The scatter-gather itself; returns the closed gather, so callers can also tell whether it was complete.
+    private <T> ReadGather<T> gatherReads(Map<WorkerInfo, String> assignment, java.util.function.Function<String, String> firstLineForPartitions,
+                                          WorkerConnectionPool.PayloadEncoder payload, long deadlineMillis, String taskLabel, WorkerResponseParser<T> parser) {
+        final long deadline = System.currentTimeMillis() + deadlineMillis;
+        final ReadGather<T> gather = new ReadGather<>();
+        gather.lock.lock();
+        try {
+            for (Map.Entry<WorkerInfo, String> entry : assignment.entrySet()) {
+                List<String> partitions = java.util.Arrays.asList(entry.getValue().split(","));
+                gather.pendingPartitions.addAll(partitions);
+                sendReadCall(gather, entry.getKey(), partitions, firstLineForPartitions, payload, deadline, taskLabel, parser);
+            }
+            while (!gather.pendingPartitions.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    System.out.println("Master: Deadline reached for " + taskLabel + " with partitions " + gather.pendingPartitions + " unanswered. Returning partial results.");
+                    break;
+                }
+                long wakeAt = deadline;
+                for (ReadCall call : new ArrayList<>(gather.calls)) {
+                    if (call.hedged) continue;
+                    if (now >= call.hedgeAtMillis) {
+                        call.hedged = true;
+                        hedge(gather, call, firstLineForPartitions, payload, deadline, taskLabel, parser, now);
+                    } else {
+                        wakeAt = Math.min(wakeAt, call.hedgeAtMillis);
+                    }
+                }
+                if (gather.inFlight == 0) { // Every call failed and no holder is left to ask
+                    System.out.println("Master: No worker left to ask for " + taskLabel + " partitions " + gather.pendingPartitions + ". Returning partial results.");
+                    break;
+                }
+                try {
+                    gather.changed.await(Math.max(1, wakeAt - now), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    System.err.println("Master: Interrupted while waiting for " + taskLabel + " responses.");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            gather.closed = true;
+            gather.complete = gather.pendingPartitions.isEmpty();
+            return gather; // Closed, so no response task touches the results any more
+        } finally {
+            gather.lock.unlock();
+        }
+    }
+
+    // Asks the still-unanswered partitions of a slow or failed call of other holders, grouped per holder.
+    // Called with the gather's lock held.
+    private <T> void hedge(ReadGather<T> gather, ReadCall slowCall, java.util.function.Function<String, String> firstLineForPartitions,
+                           WorkerConnectionPool.PayloadEncoder payload, long deadline, String taskLabel, WorkerResponseParser<T> parser, long now) {
+        Map<WorkerInfo, List<String>> backups = new java.util.LinkedHashMap<>();
+        int rotation = (int) (readRotation.getAndIncrement() & Integer.MAX_VALUE);
+        for (String partition : slowCall.partitions) {
+            if (!gather.pendingPartitions.contains(partition)) continue;
+            WorkerInfo primary = findWorkerNode(partition);
+            if (primary == null) continue;
+            WorkerInfo backup = leastLoadedHolder(readHoldersOf(primary), gather.askedByPartition.get(partition), backups, rotation, now);
+            if (backup != null) {
+                backups.computeIfAbsent(backup, k -> new ArrayList<>()).add(partition);
+            }
+        }
+        for (Map.Entry<WorkerInfo, List<String>> backup : backups.entrySet()) {
+            System.out.println("Master: Hedging " + taskLabel + " for partitions " + backup.getValue() + ": " + slowCall.worker.getId()
+                + (slowCall.hedgeAtMillis == 0 ? " failed" : " is slow") + ", asking " + backup.getKey().getId() + ".");
+            sendReadCall(gather, backup.getKey(), backup.getValue(), firstLineForPartitions, payload, deadline, taskLabel, parser);
+        }
+    }
+
+    // Starts one read call on the worker task pool. Called with the gather's lock held.
+    private <T> void sendReadCall(ReadGather<T> gather, WorkerInfo worker, List<String> partitions, java.util.function.Function<String, String> firstLineForPartitions,
+                                  WorkerConnectionPool.PayloadEncoder payload, long deadline, String taskLabel, WorkerResponseParser<T> parser) {
+        String firstLine = firstLineForPartitions.apply(String.join(",", partitions));
+        String readClass = firstLine.split(":", 2)[0]; // The message type
+        long sentAt = System.currentTimeMillis();
+        ReadCall call = new ReadCall(worker, partitions, HEDGE_READS ? sentAt + hedgeDelayMs(worker, readClass) : Long.MAX_VALUE);
+        gather.calls.add(call);
+        gather.inFlight++;
+        for (String partition : partitions) {
+            gather.askedByPartition.computeIfAbsent(partition, k -> new java.util.HashSet<>()).add(worker.getId());
+        }
+        workerTaskExecutorService.submit(() -> {
+            T parsed = null;
+            try {
+                int remaining = (int) (deadline - System.currentTimeMillis());
+                if (remaining <= 0) {
+                    return; // Task was queued past the deadline, no point in contacting the worker
+                }
+                long started = System.nanoTime();
+                String workerResponseJson;
+                try {
+                    workerResponseJson = callWorker(worker, firstLine, payload, readTimeoutMs(worker, readClass, remaining));
+                } finally {
+                    readLatency.record(worker.getId(), readClass, System.nanoTime() - started); // Timeouts count too: they are what a slow worker costs
+                }
+                if (workerResponseJson == null) {
+                    System.err.println("Master: No response from worker " + worker.getId() + " for " + taskLabel + ".");
+                    return;
+                }
+                parsed = parser.parse(workerResponseJson);
+            } catch (IOException e) {
+                System.err.println("Master: Error communicating with worker " + worker.getId() + " for " + taskLabel + ": " + e.getMessage());
+            } catch (Exception e) {
+                System.err.println("Master: Error parsing response from worker " + worker.getId() + " for " + taskLabel + ": " + e.getMessage());
+            } finally {
+                gather.lock.lock();
+                try {
+                    gather.inFlight--;
+                    if (parsed == null) {
+                        call.hedgeAtMillis = 0; // Failed: ask another holder right away
+                        call.hedged = false;
+                    } else if (gather.closed) {
+                        System.err.println("Master: Dropping late response from worker " + worker.getId() + " for " + taskLabel + ".");
+                    } else {
+                        boolean answeredAny = false;
+                        for (String partition : partitions) {
+                            answeredAny |= gather.pendingPartitions.remove(partition);
+                        }
+                        if (answeredAny) {
+                            gather.results.add(parsed); // Otherwise a hedge already answered all of it
+                        }
+                    }
+                    gather.changed.signalAll();
+                } finally {
+                    gather.lock.unlock();
+                }
+            }
+        });
+    }
+
+    // How long to wait for a worker's read before hedging it: its recent p95 for this kind of read.
+    private long hedgeDelayMs(WorkerInfo worker, String readClass) {
+        double p95 = readLatency.percentileMs(worker.getId(), readClass, 0.95);
+        return p95 < 0 ? DEFAULT_HEDGE_DELAY_MS : Math.max(MIN_HEDGE_DELAY_MS, (long) Math.ceil(p95));
+    }
+
+    // Timeout for one read call: a multiple of the worker's recent p99 for this kind of read, never beyond what is
+    // left of the deadline.
+    private int readTimeoutMs(WorkerInfo worker, String readClass, int remainingMillis) {
+        double p99 = readLatency.percentileMs(worker.getId(), readClass, 0.99);
+        if (p99 < 0) {
+            return remainingMillis;
+        }
+        return (int) Math.min(remainingMillis, Math.max(MIN_READ_TIMEOUT_MS, p99 * READ_TIMEOUT_P99_MULTIPLIER));
+    }
+
+    // Sends a single request to a worker over its connection pool and returns the one-line response (null if the worker closed the connection).
+    // Connecting, waiting for a free connection and reading are all bounded by timeoutMillis so a dead worker cannot hold a task past the deadline.
+    private String callWorker(WorkerInfo worker, String firstLineToWorker, String payload, int timeoutMillis) throws IOException {
+        return callWorker(worker, firstLineToWorker, binaryCodecVersion -> payload, timeoutMillis);
+    }
+
+    private String callWorker(WorkerInfo worker, String firstLineToWorker, WorkerConnectionPool.PayloadEncoder payload, int timeoutMillis) throws IOException {
+        WorkerConnectionPool pool = connectionPools.computeIfAbsent(worker.getId(),
+            id -> new WorkerConnectionPool(id, worker.getHost(), worker.getPort(), MAX_CONNECTIONS_PER_WORKER));
+        return pool.call(firstLineToWorker, payload, timeoutMillis);
+    }
+
+    private void healthCheckWorkerConnections() {
+        for (WorkerConnectionPool pool : connectionPools.values()) {
+            try {
+                pool.healthCheckIdleConnections(CONNECTION_HEALTH_CHECK_INTERVAL_MS);
+            } catch (Exception e) {
+                System.err.println("Master: Error during worker connection health check: " + e.getMessage());
+            }
+        }
+    }
+
     // Helper method to forward request to worker and relay response
     // Takes the full firstLine string to send to worker
-    private void forwardRequestToWorker(WorkerInfo worker, String firstLineToWorker, String payload, PrintWriter clientOut, String storeNameForError) {
-        try (Socket workerSocket = new Socket(worker.getHost(), worker.getPort());
-             PrintWriter workerOut = new PrintWriter(workerSocket.getOutputStream(), true);
-             BufferedReader workerIn = new BufferedReader(new InputStreamReader(workerSocket.getInputStream()))) {
-            
-            workerSocket.setSoTimeout(10000); 
-
-            workerOut.println(firstLineToWorker); // e.g., "GET_SALES_BY_PRODUCT_REQUEST:MyStore" or "ADD_PRODUCT_REQUEST:MyStore" or "ADD_STORE_REQUEST"
-            workerOut.println(payload);     
-            System.out.println("Master: Sent to worker " + worker.getId() + " -> First Line: " + firstLineToWorker + ", Payload Length: " + (payload != null ? payload.length() : 0));
-
-            String workerResponseJson = workerIn.readLine();
+    private void forwardRequestToWorker(WorkerInfo worker, String firstLineToWorker, WorkerConnectionPool.PayloadEncoder payload, PrintWriter clientOut, String storeNameForError) {
+        try {
+            // e.g., "GET_SALES_BY_PRODUCT_REQUEST:MyStore" or "ADD_PRODUCT_REQUEST:MyStore" or "ADD_STORE_REQUEST"
+            System.out.println("Master: Sending to worker " + worker.getId() + " -> First Line: " + firstLineToWorker);
+            String workerResponseJson = callWorker(worker, firstLineToWorker, payload, FORWARD_TIMEOUT_MS);
             if (workerResponseJson != null) {
                 System.out.println("Master: Received response from worker " + worker.getId() + ": (length " + workerResponseJson.length() + ")");
                 clientOut.println(workerResponseJson); 
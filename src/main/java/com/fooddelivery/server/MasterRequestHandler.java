@@ -1,6 +1,9 @@
 package com.fooddelivery.server;
 
+import com.fooddelivery.client.android.network.ClientJsonParser;
+import com.fooddelivery.communication.BinaryCodec;
 import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.communication.WorkerProtocol;
 import com.fooddelivery.communication.payloads.*; // Import all payloads
 import com.fooddelivery.model.Product; // For creating Product object for addProductToStore
 import com.fooddelivery.model.Store;   // For type casting if needed, though not directly here
@@ -13,12 +16,29 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MasterRequestHandler implements Runnable {
+    private static final int IDLE_TIMEOUT_MS = 120000;
+
     private Socket masterSocket;
     private Worker worker;
     private PrintWriter out;
     private BufferedReader in;
+    private final ReentrantLock responseWriteLock = new ReentrantLock(); // Responses of concurrent requests share the socket
+
+    // A response line body. Large results are streamed into the socket's buffered writer by JsonUtil
+    // instead of being built as a String first.
+    private interface Response {
+        void writeTo(PrintWriter out);
+    }
+
+    private static Response json(String responseJson) {
+        return out -> out.print(responseJson);
+    }
 
     public MasterRequestHandler(Socket socket, Worker worker) {
         this.masterSocket = socket;
@@ -35,45 +55,100 @@ public class MasterRequestHandler implements Runnable {
 
     @Override
     public void run() {
+        try {
+            // Pooled connections from the Master stay open between requests; the Master pings idle
+            // connections well within this timeout, so hitting it means the Master is gone.
+            masterSocket.setSoTimeout(IDLE_TIMEOUT_MS);
+
+            String firstLine;
+            while ((firstLine = in.readLine()) != null) {
+                long requestId = WorkerProtocol.parseRequestId(firstLine);
+                String payload = in.readLine();
+                if (payload == null) { 
+                    System.out.println("Worker ("+worker.getPort()+"): Master disconnected before sending payload for " + firstLine + " from " + masterSocket.getRemoteSocketAddress());
+                    return; 
+                }
+
+                if (requestId < 0) {
+                    // Legacy one-request-per-connection mode: answer and close.
+                    processRequest(firstLine, payload).writeTo(out);
+                    out.println();
+                    return;
+                }
+                // Multiplexed mode: the Master may have many requests in flight on this connection.
+                // Each one runs on the worker's request pool and is answered as soon as it finishes,
+                // possibly out of order; the correlation ID tells the Master which request it belongs to.
+                final String requestLine = WorkerProtocol.stripRequestId(firstLine);
+                final String requestPayload = payload;
+                try {
+                    worker.submitRequest(() -> {
+                        long startNanos = System.nanoTime();
+                        Response response = processRequest(requestLine, requestPayload);
+                        worker.recordRequestLatency(System.nanoTime() - startNanos);
+                        sendResponse(requestId, response);
+                    });
+                } catch (RejectedExecutionException e) {
+                    sendResponse(requestId, json(JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker " + worker.getPort() + " is shutting down.")));
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("Worker ("+worker.getPort()+") MasterRequestHandler: Closing idle connection from " + masterSocket.getRemoteSocketAddress());
+        } catch (IOException e) {
+             if (!masterSocket.isClosed()) {
+                 System.err.println("Worker ("+worker.getPort()+") MasterRequestHandler: IOException: " + e.getMessage());
+             } else {
+                 System.out.println("Worker ("+worker.getPort()+") MasterRequestHandler: Connection closed by Master or network issue before full processing.");
+             }
+             // Response cannot be reliably sent.
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void sendResponse(long requestId, Response response) {
+        responseWriteLock.lock();
+        try {
+            if (!masterSocket.isClosed()) {
+                out.print(WorkerProtocol.withRequestId(requestId, ""));
+                response.writeTo(out);
+                out.println();
+            }
+        } finally {
+            responseWriteLock.unlock();
+        }
+    }
+
+    // Handles one request and always returns a response line, so a pooled connection stays in step with the Master.
+    private Response processRequest(String firstLine, String payload) {
         String responseJson = null;
+        Response streamedResponse = null; // Set instead of responseJson for results that are streamed
         String requestStoreName = null; // For error messages if payload parsing fails early
         MessageType type = null; // To hold the parsed message type
 
+        String[] parts = firstLine.trim().split(":", 2);
         try {
-            masterSocket.setSoTimeout(30000); 
-
-            String firstLine = in.readLine(); 
-            if (firstLine == null) { 
-                System.out.println("Worker ("+worker.getPort()+"): Master disconnected before sending any data from " + masterSocket.getRemoteSocketAddress());
-                return; 
+            type = MessageType.valueOf(parts[0].toUpperCase());
+            if (parts.length > 1) {
+                requestStoreName = parts[1]; 
             }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Worker ("+worker.getPort()+"): Invalid message type from Master: " + firstLine + ". Error: " + e.getMessage());
+            return json(JsonUtil.createStatusResponseJson(null, "FAILURE", "Invalid message type '" + parts[0] + "'."));
+        }
 
-            String[] parts = firstLine.trim().split(":", 2);
-            try {
-                type = MessageType.valueOf(parts[0].toUpperCase());
-                if (parts.length > 1) {
-                    requestStoreName = parts[1]; 
-                }
-            } catch (IllegalArgumentException e) {
-                System.err.println("Worker ("+worker.getPort()+"): Invalid message type from Master: " + firstLine + ". Error: " + e.getMessage());
-                // We can't send a response if we don't know the protocol / payload structure. Master should timeout.
-                return;
-            }
-            
-            String payload = in.readLine();
-            if (payload == null) { 
-                System.out.println("Worker ("+worker.getPort()+"): Master disconnected before sending payload for type " + type + " from " + masterSocket.getRemoteSocketAddress());
-                return; 
-            }
-            
+        if (type != MessageType.HEALTH_CHECK_REQUEST && type != MessageType.NEGOTIATE_CODEC_REQUEST && type != MessageType.REPLICATE_STORE_REQUEST
+                && type != MessageType.CLUSTER_VIEW_REQUEST) {
             System.out.println("Worker (" + worker.getPort() + "): Received " + type + 
-                               (requestStoreName != null ? " for store " + requestStoreName : "") + 
+                               (requestStoreName != null ? (isBroadcastRead(type) ? " for partitions " : " for store ") + requestStoreName : "") + 
                                " from Master.");
+        }
 
+        boolean binaryPayload = BinaryCodec.isBinary(payload);
+        try {
             switch (type) {
                 case ADD_STORE_REQUEST:
                     try {
-                        Store store = StoreJsonParser.parseStoreJson(payload);
+                        Store store = binaryPayload ? BinaryCodec.decodeStore(payload) : StoreJsonParser.parseStoreJson(payload);
                         requestStoreName = store.getStoreName(); 
                         worker.addStore(store);
                         responseJson = JsonUtil.createStatusResponseJson(store.getStoreName(), "SUCCESS", "Store added by worker " + worker.getPort());
@@ -82,7 +157,7 @@ public class MasterRequestHandler implements Runnable {
                         responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Worker: StoreJsonParseException: " + e.getMessage());
                     }
                     break;
-                
+            
                 case ADD_PRODUCT_REQUEST:
                     if (requestStoreName == null || requestStoreName.trim().isEmpty()) {
                         responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for ADD_PRODUCT_REQUEST.");
@@ -129,6 +204,19 @@ public class MasterRequestHandler implements Runnable {
                     }
                     break;
 
+                case PURCHASE_REQUEST:
+                    if (requestStoreName == null || requestStoreName.trim().isEmpty()) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for PURCHASE_REQUEST.");
+                        break;
+                    }
+                    try {
+                        PurchaseRequestPayload purchase = StoreJsonParser.parsePurchaseRequestPayload(payload);
+                        responseJson = worker.purchaseItems(requestStoreName, purchase.getItems());
+                    } catch (StoreJsonParser.JsonParseException e) {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Worker: PurchaseRequestParseException: " + e.getMessage());
+                    }
+                    break;
+
                 case GET_SALES_BY_PRODUCT_REQUEST:
                     if (requestStoreName == null) { // requestStoreName is the routingKey from first line
                         responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for sales request.");
@@ -137,17 +225,23 @@ public class MasterRequestHandler implements Runnable {
                     // Payload from Master might be empty or contain other filters not yet used by worker.
                     responseJson = worker.getSalesByProductForStore(requestStoreName);
                     break;
-                
+            
                 case SEARCH_STORES_REQUEST:
-                    // No routingKey (storeName) expected from Master for SEARCH, payload has all info
+                    // The routing key, if any, lists the partitions (primary worker ids) to answer for
                     try {
-                        com.fooddelivery.communication.payloads.SearchStoresRequestPayload searchRequest = 
-                            com.fooddelivery.client.android.network.ClientJsonParser.parseSearchStoresRequest(payload);
-                        responseJson = worker.handleWorkerSearchStoresRequest(searchRequest);
+                        // A binary request gets a binary response: the Master only sends one after negotiating the codec
+                        com.fooddelivery.communication.payloads.SearchStoresRequestPayload searchRequest = binaryPayload
+                            ? BinaryCodec.decodeSearchStoresRequest(payload)
+                            : com.fooddelivery.client.android.network.ClientJsonParser.parseSearchStoresRequest(payload);
+                        List<StoreInfoForClient> matchingStores = worker.handleWorkerSearchStoresRequest(searchRequest, servePrimaries(requestStoreName));
+                        streamedResponse = binaryPayload
+                            ? out -> out.print(BinaryCodec.encodeSearchStoresResponse(matchingStores))
+                            : out -> JsonUtil.writeWorkerSearchStoresResponse(out, matchingStores);
                     } catch (StoreJsonParser.JsonParseException e) { // Assuming JsonParseException is in StoreJsonParser
                         System.err.println("Worker (" + worker.getPort() + "): Failed to parse SearchStoresRequestPayload: " + e.getMessage());
                         // Send back an empty valid SearchStoresResponsePayload as JSON
-                        responseJson = JsonUtil.createSearchStoresResponseJson(new java.util.ArrayList<>());
+                        responseJson = binaryPayload ? BinaryCodec.encodeSearchStoresResponse(new ArrayList<>())
+                                                     : JsonUtil.createSearchStoresResponseJson(new java.util.ArrayList<>());
                     }
                     break;
 
@@ -169,63 +263,168 @@ public class MasterRequestHandler implements Runnable {
 
                 case WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST:
                     try {
-                        MapTaskRequestPayload mapRequest = ClientJsonParser.parseMapTaskRequestPayload(payload);
+                        MapTaskRequestPayload mapRequest = binaryPayload ? BinaryCodec.decodeMapTaskRequest(payload)
+                                                                         : ClientJsonParser.parseMapTaskRequestPayload(payload);
                         if (!"PRODUCT_CATEGORY_SALES".equals(mapRequest.getTaskTypeIdentifier())) {
                              throw new StoreJsonParser.JsonParseException("Invalid taskTypeIdentifier for product category sales map.");
                         }
-                        List<SalesDataEntry> mappedEntries = worker.executeMapSalesByProductCategoryTask(mapRequest.getTargetCriteria());
-                        responseJson = JsonUtil.createMapTaskResponseJson(mappedEntries);
+                        List<SalesDataEntry> mappedEntries = worker.executeMapSalesByProductCategoryTask(mapRequest.getTargetCriteria(), servePrimaries(requestStoreName));
+                        streamedResponse = binaryPayload
+                            ? out -> out.print(BinaryCodec.encodeMapTaskResponse(mappedEntries))
+                            : out -> JsonUtil.writeMapTaskResponse(out, mappedEntries);
                     } catch (StoreJsonParser.JsonParseException e) {
                         System.err.println("Worker (" + worker.getPort() + "): Failed to parse MapTaskRequestPayload for product category sales: " + e.getMessage());
-                        responseJson = JsonUtil.createMapTaskResponseJson(new ArrayList<>()); // Respond with empty results on error
+                        responseJson = binaryPayload ? BinaryCodec.encodeMapTaskResponse(new ArrayList<>())
+                                                     : JsonUtil.createMapTaskResponseJson(new ArrayList<>()); // Respond with empty results on error
                     }
                     break;
 
                 case WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST:
                     try {
-                        MapTaskRequestPayload mapRequest = ClientJsonParser.parseMapTaskRequestPayload(payload);
+                        MapTaskRequestPayload mapRequest = binaryPayload ? BinaryCodec.decodeMapTaskRequest(payload)
+                                                                         : ClientJsonParser.parseMapTaskRequestPayload(payload);
                          if (!"STORE_TYPE_SALES".equals(mapRequest.getTaskTypeIdentifier())) { // Ensure correct task type
                              throw new StoreJsonParser.JsonParseException("Invalid taskTypeIdentifier for store type sales map.");
                         }
-                        List<SalesDataEntry> mappedEntries = worker.executeMapSalesByStoreTypeTask(mapRequest.getTargetCriteria());
-                        responseJson = JsonUtil.createMapTaskResponseJson(mappedEntries);
+                        List<SalesDataEntry> mappedEntries = worker.executeMapSalesByStoreTypeTask(mapRequest.getTargetCriteria(), servePrimaries(requestStoreName));
+                        streamedResponse = binaryPayload
+                            ? out -> out.print(BinaryCodec.encodeMapTaskResponse(mappedEntries))
+                            : out -> JsonUtil.writeMapTaskResponse(out, mappedEntries);
                     } catch (StoreJsonParser.JsonParseException e) {
                         System.err.println("Worker (" + worker.getPort() + "): Failed to parse MapTaskRequestPayload for store type sales: " + e.getMessage());
-                        responseJson = JsonUtil.createMapTaskResponseJson(new ArrayList<>());
+                        responseJson = binaryPayload ? BinaryCodec.encodeMapTaskResponse(new ArrayList<>())
+                                                     : JsonUtil.createMapTaskResponseJson(new ArrayList<>());
+                    }
+                    break;
+
+                case HEALTH_CHECK_REQUEST:
+                    responseJson = JsonUtil.createStatusResponseJson(null, "SUCCESS", "Worker " + worker.getPort() + " is alive.");
+                    break;
+
+                case LIST_STORES_REQUEST: {
+                    // Primary copies, or with {"primary": id} the replica copies held for that primary
+                    String primaryId = null;
+                    if (payload != null && !payload.isBlank()) {
+                        com.fooddelivery.util.JsonReader listReader = new com.fooddelivery.util.JsonReader(payload);
+                        listReader.beginObject();
+                        while (listReader.hasNext()) {
+                            if (listReader.nextName().equals("primary")) {
+                                primaryId = listReader.nextString();
+                            } else {
+                                listReader.skipValue();
+                            }
+                        }
+                        listReader.endObject();
+                    }
+                    responseJson = JsonUtil.createStoreNamesResponseJson(
+                        primaryId == null ? worker.getPrimaryStoreNames() : worker.getReplicaStoreNames(primaryId));
+                    break;
+                }
+
+                case EXPORT_STORE_REQUEST: {
+                    if (requestStoreName == null) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for export.");
+                        break;
+                    }
+                    // Serialized under the store's lock, so the export is a consistent snapshot
+                    String[] exported = new String[1];
+                    if (worker.withStoreLocked(requestStoreName, store -> exported[0] = JsonUtil.createStoreStateJson(store))) {
+                        responseJson = exported[0];
+                    } else {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Store not found by worker for export.");
+                    }
+                    break;
+                }
+
+                case DROP_STORE_REQUEST:
+                    if (requestStoreName == null) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for drop.");
+                    } else if (worker.removeStore(requestStoreName)) {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "SUCCESS", "Store dropped by worker " + worker.getPort());
+                    } else {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Store not found by worker for drop.");
+                    }
+                    break;
+
+                case CLUSTER_VIEW_REQUEST:
+                    try {
+                        boolean applied = worker.getReplication().applyView(payload);
+                        responseJson = JsonUtil.createStatusResponseJson(null, "SUCCESS", applied ? "Cluster view applied." : "Cluster view is older than the current one.");
+                    } catch (StoreJsonParser.JsonParseException e) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker: ClusterViewParseException: " + e.getMessage());
+                    }
+                    break;
+
+                case REPLICATE_STORE_REQUEST:
+                    if (requestStoreName == null) { // The routing key is the sending primary's id
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Primary id (routing key) missing for replication.");
+                        break;
+                    }
+                    try {
+                        Store replica = StoreJsonParser.parseStoreJson(payload);
+                        worker.installReplica(replica, requestStoreName);
+                        responseJson = JsonUtil.createStatusResponseJson(replica.getStoreName(), "SUCCESS", "Replica applied by worker " + worker.getPort());
+                    } catch (StoreJsonParser.JsonParseException e) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Worker: StoreJsonParseException: " + e.getMessage());
+                    }
+                    break;
+
+                case PROMOTE_STORE_REQUEST:
+                    if (requestStoreName == null) {
+                        responseJson = JsonUtil.createStatusResponseJson(null, "FAILURE", "Store name (routing key) missing for promotion.");
+                    } else if (worker.promoteReplica(requestStoreName)) {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "SUCCESS", "Store promoted to primary by worker " + worker.getPort());
+                    } else {
+                        responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Store not found by worker for promotion.");
                     }
                     break;
 
+                case NEGOTIATE_CODEC_REQUEST:
+                    // The Master offers its highest codec version; answer with the highest one both sides know.
+                    int offeredVersion = 0;
+                    com.fooddelivery.util.JsonReader reader = new com.fooddelivery.util.JsonReader(payload);
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("binaryCodecVersion")) {
+                            offeredVersion = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    int agreedVersion = Math.max(0, Math.min(offeredVersion, BinaryCodec.VERSION));
+                    responseJson = JsonUtil.createCodecNegotiationResponseJson(agreedVersion, "Worker " + worker.getPort() + " uses binary codec version " + agreedVersion + ".");
+                    break;
+
                 default:
                     System.err.println("Worker (" + worker.getPort() + "): Unsupported message type from Master: " + type);
                     responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Unsupported message type '" + type + "' by worker.");
             }
-        } catch (SocketTimeoutException e) {
-            System.err.println("Worker ("+worker.getPort()+") MasterRequestHandler: Socket read timeout: " + e.getMessage());
-            // Response cannot be reliably sent. Master will also timeout.
-        } catch (IOException e) {
-             if (!masterSocket.isClosed()) {
-                 System.err.println("Worker ("+worker.getPort()+") MasterRequestHandler: IOException: " + e.getMessage());
-             } else {
-                 System.out.println("Worker ("+worker.getPort()+") MasterRequestHandler: Connection closed by Master or network issue before full processing.");
-             }
-             // Response cannot be reliably sent.
         } catch (Exception e) { 
-            System.err.println("Worker ("+worker.getPort()+") MasterRequestHandler: Unexpected error processing request type " + (type != null ? type : "UNKNOWN") + ": " + e.getMessage());
+            System.err.println("Worker ("+worker.getPort()+") MasterRequestHandler: Unexpected error processing request type " + type + ": " + e.getMessage());
             e.printStackTrace();
-            if (responseJson == null && out != null && !masterSocket.isClosed()){ 
-                 responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Unexpected worker error during request processing for " + (type != null ? type : "UNKNOWN") + ".");
-            }
         }
-        finally {
-            if (responseJson != null && out != null && !masterSocket.isClosed()) {
-                out.println(responseJson);
-            } else if (responseJson == null && out != null && !masterSocket.isClosed()) {
-                // This means an error happened before responseJson could be set by the switch, or an IO/Socket error.
-                out.println(JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Worker error occurred processing " + (type != null ? type : "UNKNOWN") + ". Check worker logs."));
-            }
-            // If out is null or socket is closed, can't send anything.
-            closeConnection();
+        if (streamedResponse != null) {
+            return streamedResponse;
+        }
+        if (responseJson == null) {
+            // This means an error happened before responseJson could be set by the switch.
+            responseJson = JsonUtil.createStatusResponseJson(requestStoreName, "FAILURE", "Worker error occurred processing " + type + ". Check worker logs.");
+        }
+        return json(responseJson);
+    }
+
+    private static boolean isBroadcastRead(MessageType type) {
+        return type == MessageType.SEARCH_STORES_REQUEST || type == MessageType.WORKER_MAP_SALES_PRODUCT_CATEGORY_TASK_REQUEST
+            || type == MessageType.WORKER_MAP_SALES_STORE_TYPE_TASK_REQUEST;
+    }
+
+    // Partitions named in the routing key of a broadcast read ("id1,id2"); null (serve all) without one.
+    private static java.util.Set<String> servePrimaries(String routingKey) {
+        if (routingKey == null || routingKey.isEmpty()) {
+            return null;
         }
+        return new java.util.HashSet<>(java.util.Arrays.asList(routingKey.split(",")));
     }
 
     private void closeConnection() {
@@ -0,0 +1,254 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.util.JsonUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Non-blocking front door for client connections. A single selector thread accepts connections and
+// reads the two-line request (TYPE[:routingKey], payload) without parking a thread per connection;
+// only complete requests are handed to the bounded client handler pool as a ClientHandler.
+//
+// Backpressure: while the handler pool's queue is full the acceptor stops accepting (new connections
+// wait in the kernel backlog) and stops reading from connections it already has. A request that still
+// cannot be queued is answered with a FAILURE status right away instead of piling up.
+public class NioClientAcceptor implements Runnable {
+    private static final int READ_TIMEOUT_MS = 30000; // Same limit the blocking ClientHandler applies per read
+    private static final int MAX_REQUEST_BYTES = 4 * 1024 * 1024;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final long PAUSED_SELECT_TIMEOUT_MS = 50;
+
+    private final int port;
+    private final Master master;
+    private final ThreadPoolExecutor clientHandlerExecutor;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SelectionKey acceptKey;
+    private volatile boolean running;
+    private boolean paused;
+
+    // Per-connection read state, attached to the connection's SelectionKey.
+    private static class PendingRequest {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        String firstLine;
+        String payload;
+        long lastActivityMillis = System.currentTimeMillis();
+    }
+
+    // Connections whose request is complete; handed off after the current batch of selected keys.
+    private final List<SelectionKey> completedRequests = new ArrayList<>();
+
+    public NioClientAcceptor(int port, Master master, ThreadPoolExecutor clientHandlerExecutor) {
+        this.port = port;
+        this.master = master;
+        this.clientHandlerExecutor = clientHandlerExecutor;
+    }
+
+    // Opens the listening channel; throws if the port cannot be bound so the caller can report it.
+    public void bind() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        long lastTimeoutSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                updateBackpressure();
+                selector.select(paused ? PAUSED_SELECT_TIMEOUT_MS : SELECT_TIMEOUT_MS);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key, readBuffer);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("NioClientAcceptor: Error on client connection: " + e.getMessage());
+                        closeChannel(key);
+                    }
+                }
+                if (!completedRequests.isEmpty()) {
+                    handOffCompletedRequests();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastTimeoutSweep >= SELECT_TIMEOUT_MS) {
+                    closeTimedOutConnections(now);
+                    lastTimeoutSweep = now;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // stop() closed the selector.
+        } catch (IOException e) {
+            if (running) System.err.println("NioClientAcceptor: Selector failure: " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (selector != null && selector.isOpen()) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.channel() != serverChannel) closeChannel(key);
+                }
+                selector.close();
+            }
+            if (serverChannel != null && serverChannel.isOpen()) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("NioClientAcceptor: Error closing selector: " + e.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel clientChannel;
+        while (!paused && (clientChannel = serverChannel.accept()) != null) {
+            System.out.println("New connection from: " + clientChannel.getRemoteAddress());
+            clientChannel.configureBlocking(false);
+            clientChannel.register(selector, SelectionKey.OP_READ, new PendingRequest());
+            updateBackpressure();
+        }
+    }
+
+    private void read(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        PendingRequest request = (PendingRequest) key.attachment();
+
+        readBuffer.clear();
+        int read = clientChannel.read(readBuffer);
+        if (read < 0) {
+            System.out.println("Client disconnected before sending a complete request: " + clientChannel.getRemoteAddress());
+            closeChannel(key);
+            return;
+        }
+        request.lastActivityMillis = System.currentTimeMillis();
+        byte[] bytes = readBuffer.array();
+        int lineStart = 0;
+        for (int i = 0; i < read; i++) {
+            if (bytes[i] != '\n') continue;
+            request.buffer.write(bytes, lineStart, i - lineStart);
+            lineStart = i + 1;
+            String line = takeLine(request.buffer);
+            if (request.firstLine == null) {
+                request.firstLine = line;
+            } else {
+                // Anything the client sent after the payload line is ignored, as with the blocking handler.
+                request.payload = line;
+                key.cancel();
+                completedRequests.add(key);
+                return;
+            }
+        }
+        request.buffer.write(bytes, lineStart, read - lineStart);
+        if (request.buffer.size() > MAX_REQUEST_BYTES) {
+            System.err.println("NioClientAcceptor: Request from " + clientChannel.getRemoteAddress() + " exceeds " + MAX_REQUEST_BYTES + " bytes, closing.");
+            closeChannel(key);
+        }
+    }
+
+    // Switches the channels of complete requests back to blocking mode and queues them on the handler pool.
+    private void handOffCompletedRequests() throws IOException {
+        selector.selectNow(); // Completes the deregistration of the cancelled keys so their channels may become blocking again
+        for (SelectionKey key : completedRequests) {
+            SocketChannel clientChannel = (SocketChannel) key.channel();
+            PendingRequest request = (PendingRequest) key.attachment();
+            try {
+                clientChannel.configureBlocking(true);
+                ClientHandler handler = new ClientHandler(clientChannel.socket(), master, request.firstLine, request.payload);
+                try {
+                    clientHandlerExecutor.execute(handler);
+                } catch (RejectedExecutionException e) {
+                    System.err.println("NioClientAcceptor: Client handler pool saturated, rejecting request from " + clientChannel.getRemoteAddress());
+                    ByteBuffer response = StandardCharsets.UTF_8.encode(
+                        JsonUtil.createStatusResponseJson(null, "FAILURE", "Master is overloaded, please retry later.") + System.lineSeparator());
+                    while (response.hasRemaining()) {
+                        clientChannel.write(response);
+                    }
+                    clientChannel.close();
+                }
+            } catch (IOException e) {
+                System.err.println("NioClientAcceptor: Error handing off client request: " + e.getMessage());
+                closeChannel(key);
+            }
+        }
+        completedRequests.clear();
+        updateBackpressure();
+    }
+
+    // Pauses accepting and reading while the handler queue is full, resumes once there is room again.
+    private void updateBackpressure() {
+        boolean saturated = clientHandlerExecutor.getQueue().remainingCapacity() == 0;
+        if (saturated == paused) return;
+        paused = saturated;
+        int interest = paused ? 0 : SelectionKey.OP_READ;
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) continue;
+            key.interestOps(key == acceptKey ? (paused ? 0 : SelectionKey.OP_ACCEPT) : interest);
+            if (!paused && key.attachment() instanceof PendingRequest) {
+                ((PendingRequest) key.attachment()).lastActivityMillis = now; // Time spent paused does not count against the client
+            }
+        }
+        System.out.println("NioClientAcceptor: " + (paused ? "Handler pool saturated, pausing accept/read." : "Handler pool has capacity again, resuming."));
+    }
+
+    private void closeTimedOutConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            // Paused connections are not timed out: the wait is ours, not the client's.
+            if (!paused && attachment instanceof PendingRequest
+                    && now - ((PendingRequest) attachment).lastActivityMillis > READ_TIMEOUT_MS) {
+                System.err.println("NioClientAcceptor: Read timeout, closing client connection.");
+                SocketChannel clientChannel = (SocketChannel) key.channel();
+                try {
+                    clientChannel.write(StandardCharsets.UTF_8.encode(
+                        JsonUtil.createStatusResponseJson(null, "FAILURE", "Request timeout") + System.lineSeparator()));
+                } catch (IOException e) {
+                    // Client is gone anyway.
+                }
+                closeChannel(key);
+            }
+        }
+    }
+
+    private static String takeLine(ByteArrayOutputStream buffer) {
+        String line = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        buffer.reset();
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static void closeChannel(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ignore, connection is being dropped.
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.util.JsonReader;
+import com.fooddelivery.util.JsonUtil;
+import com.fooddelivery.util.StoreJsonParser.JsonParseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Worker side of store replication. The Master sends every worker its view of the cluster (CLUSTER_VIEW_REQUEST);
+// from it a worker knows its own id and which workers hold replicas of the stores it is primary for
+// (ConsistentHashRing.replicasOf). After each change to one of its primary stores the worker queues the store's
+// full state, with its version, for those replicas, and a background thread streams the queue out as
+// REPLICATE_STORE_REQUESTs. Sending whole (small) store states rather than individual operations means a replica
+// only has to keep the highest version it saw; reordered or repeated messages are harmless, and several changes
+// to one store between two flushes collapse into one message.
+class ReplicationManager {
+    private static final long FLUSH_INTERVAL_MS = 5;
+    private static final int REPLICATE_TIMEOUT_MS = 5000;
+
+    private final Worker worker;
+    private volatile ConsistentHashRing view = new ConsistentHashRing(List.of());
+    private volatile String selfId; // Null until the first cluster view arrives
+    private volatile int replicationFactor = 1;
+    private volatile long viewEpoch = -1;
+    private final ReentrantLock viewLock = new ReentrantLock(); // Not synchronized, to avoid pinning virtual threads
+    private final Map<String, WorkerConnectionPool> peerPools = new ConcurrentHashMap<>();
+    // peer id -> store name -> latest state not yet acknowledged by that peer
+    private final Map<String, Map<String, QueuedState>> pendingByPeer = new ConcurrentHashMap<>();
+    private final Set<String> unreachablePeers = ConcurrentHashMap.newKeySet(); // Only to avoid logging every failed flush
+    private ScheduledExecutorService sender;
+
+    private static final class QueuedState {
+        final long version;
+        final String stateJson;
+
+        QueuedState(long version, String stateJson) {
+            this.version = version;
+            this.stateJson = stateJson;
+        }
+    }
+
+    ReplicationManager(Worker worker) {
+        this.worker = worker;
+    }
+
+    void start() {
+        sender = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "worker-replication-" + worker.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (sender != null) {
+            sender.shutdownNow();
+        }
+        for (WorkerConnectionPool pool : peerPools.values()) {
+            pool.close();
+        }
+    }
+
+    String getSelfId() { return selfId; }
+
+    // Store states queued but not yet acknowledged by a replica, reported with the heartbeats.
+    int getBacklog() {
+        int backlog = 0;
+        for (Map<String, QueuedState> pending : pendingByPeer.values()) {
+            backlog += pending.size();
+        }
+        return backlog;
+    }
+
+    // Applies a CLUSTER_VIEW_REQUEST payload. Returns false for a view older than the current one.
+    boolean applyView(String json) throws JsonParseException {
+        long epoch = -1;
+        int factor = 1;
+        String self = null;
+        List<Master.WorkerInfo> workers = new ArrayList<>();
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "epoch": epoch = reader.nextLong(); break;
+                case "replicationFactor": factor = reader.nextInt(); break;
+                case "self": self = reader.nextString(); break;
+                case "workers":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String id = reader.nextString();
+                        int colon = id.lastIndexOf(':');
+                        if (colon <= 0) throw new JsonParseException("Invalid worker id in cluster view: " + id);
+                        try {
+                            workers.add(new Master.WorkerInfo(id, id.substring(0, colon), Integer.parseInt(id.substring(colon + 1))));
+                        } catch (NumberFormatException e) {
+                            throw new JsonParseException("Invalid worker id in cluster view: " + id, e);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        if (self == null) {
+            throw new JsonParseException("Cluster view has no 'self'.");
+        }
+
+        // One view at a time: the work below compares the old and new replica sets
+        viewLock.lock();
+        try {
+            if (epoch < viewEpoch) {
+                return false;
+            }
+            Set<String> oldReplicas = replicaIds();
+            viewEpoch = epoch;
+            replicationFactor = Math.max(1, factor);
+            selfId = self;
+            view = new ConsistentHashRing(workers);
+
+            Set<String> newReplicas = replicaIds();
+            if (!newReplicas.equals(oldReplicas)) {
+                System.out.println("Worker (" + worker.getPort() + "): Cluster view of " + workers.size() + " workers, replicating as " + self + " to " + newReplicas);
+            }
+            for (String peerId : new ArrayList<>(pendingByPeer.keySet())) {
+                if (!newReplicas.contains(peerId)) {
+                    pendingByPeer.remove(peerId); // No longer one of our replicas
+                    WorkerConnectionPool pool = peerPools.remove(peerId);
+                    if (pool != null) pool.close();
+                }
+            }
+            // New replicas start empty: give them every store we are primary for
+            for (String peerId : newReplicas) {
+                if (!oldReplicas.contains(peerId)) {
+                    for (String storeName : worker.getPrimaryStoreNames()) {
+                        worker.withStoreLocked(storeName, store -> {
+                            long version = store.getVersion();
+                            queueFor(peerId, storeName, version, JsonUtil.createStoreStateJson(store, version));
+                        });
+                    }
+                }
+            }
+            worker.dropStaleReplicas();
+            return true;
+        } finally {
+            viewLock.unlock();
+        }
+    }
+
+    // Ids of the workers holding replicas of this worker's primary stores.
+    private Set<String> replicaIds() {
+        Set<String> ids = new HashSet<>();
+        if (selfId != null) {
+            for (Master.WorkerInfo replica : view.replicasOf(selfId, replicationFactor)) {
+                ids.add(replica.getId());
+            }
+        }
+        return ids;
+    }
+
+    // Whether a replica copy whose primary is primaryId should still be kept here: primaryId still owns the
+    // store in the current view and this worker is still one of its replicas. Without a view, keep everything.
+    boolean shouldHoldReplica(String storeName, String primaryId) {
+        if (selfId == null) {
+            return true;
+        }
+        Master.WorkerInfo owner = view.workerFor(storeName);
+        if (owner == null || !owner.getId().equals(primaryId)) {
+            return false;
+        }
+        for (Master.WorkerInfo replica : view.replicasOf(primaryId, replicationFactor)) {
+            if (replica.getId().equals(selfId)) return true;
+        }
+        return false;
+    }
+
+    // Called by the Worker with the new state of one of its primary stores. Stock changes call this without the
+    // store's lock, so states can arrive out of order; the queue keeps the highest version.
+    void storeChanged(String storeName, long version, String stateJson) {
+        if (selfId == null) {
+            return; // Not part of a cluster view (yet); nothing to replicate to
+        }
+        for (String peerId : replicaIds()) {
+            queueFor(peerId, storeName, version, stateJson);
+        }
+    }
+
+    private void queueFor(String peerId, String storeName, long version, String stateJson) {
+        pendingByPeer.computeIfAbsent(peerId, id -> new ConcurrentHashMap<>())
+            .merge(storeName, new QueuedState(version, stateJson), (queued, state) -> queued.version > state.version ? queued : state);
+    }
+
+    private void flush() {
+        String self = selfId;
+        for (Map.Entry<String, Map<String, QueuedState>> peer : pendingByPeer.entrySet()) {
+            String peerId = peer.getKey();
+            Map<String, QueuedState> pending = peer.getValue();
+            if (pending.isEmpty()) continue;
+            Master.WorkerInfo peerInfo = view.getWorker(peerId);
+            if (peerInfo == null) continue;
+            WorkerConnectionPool pool = peerPools.computeIfAbsent(peerId,
+                id -> new WorkerConnectionPool(id, peerInfo.getHost(), peerInfo.getPort(), 1));
+            try {
+                for (Map.Entry<String, QueuedState> entry : pending.entrySet()) {
+                    String response = pool.call(MessageType.REPLICATE_STORE_REQUEST.name() + ":" + self, entry.getValue().stateJson, REPLICATE_TIMEOUT_MS);
+                    if (response == null) {
+                        throw new IOException("Connection closed by replica.");
+                    }
+                    pending.remove(entry.getKey(), entry.getValue()); // Unless a newer state was queued meanwhile
+                }
+                if (unreachablePeers.remove(peerId)) {
+                    System.out.println("Worker (" + worker.getPort() + "): Replication to " + peerId + " resumed.");
+                }
+            } catch (IOException e) {
+                // Keep the states queued; they are retried on the next flush
+                if (unreachablePeers.add(peerId)) {
+                    System.err.println("Worker (" + worker.getPort() + "): Cannot replicate to " + peerId + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
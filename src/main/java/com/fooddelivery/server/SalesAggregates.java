@@ -0,0 +1,85 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.payloads.SalesDataEntry;
+import com.fooddelivery.model.Product;
+import com.fooddelivery.model.Store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+// Running revenue totals for the worker's MapReduce reports, per product type and per food category, each
+// broken down by store. Sales are added as Store.recordSale runs (through the store's SaleListener), so a
+// report is a lookup of one category's per-store totals instead of a scan of every store's sales.
+//
+// Revenue is counted at the price of the sale. Sales a store already carries when it is added are seeded
+// at the current product prices, as the reports used to compute them.
+class SalesAggregates {
+    // normalized productType -> storeName -> revenue
+    private final Map<String, Map<String, DoubleAdder>> revenueByProductType = new ConcurrentHashMap<>();
+    // normalized foodCategory -> storeName -> revenue; every store of the category has an entry, even without sales
+    private final Map<String, Map<String, DoubleAdder>> revenueByFoodCategory = new ConcurrentHashMap<>();
+
+    // Registers a store (replacing any totals kept for a previous store of the same name) and seeds its past sales.
+    void addStore(Store store) {
+        removeStore(store.getStoreName());
+        accumulator(revenueByFoodCategory, store.getFoodCategory(), store.getStoreName()).add(store.getTotalRevenue());
+        for (Map.Entry<String, Integer> sale : store.getSalesByProduct().entrySet()) {
+            Product product = store.findProduct(sale.getKey());
+            if (product != null) {
+                accumulator(revenueByProductType, product.getProductType(), store.getStoreName()).add(product.getPrice() * sale.getValue());
+            }
+        }
+    }
+
+    void removeStore(String storeName) {
+        for (Map<String, DoubleAdder> byStore : revenueByProductType.values()) {
+            byStore.remove(storeName);
+        }
+        for (Map<String, DoubleAdder> byStore : revenueByFoodCategory.values()) {
+            byStore.remove(storeName);
+        }
+    }
+
+    void recordSale(Store store, String productName, double revenue) {
+        Product product = store.findProduct(productName);
+        if (product != null) {
+            accumulator(revenueByProductType, product.getProductType(), store.getStoreName()).add(revenue);
+        }
+        accumulator(revenueByFoodCategory, store.getFoodCategory(), store.getStoreName()).add(revenue);
+    }
+
+    // Per-store revenue from products of this type; stores without such sales are left out.
+    List<SalesDataEntry> revenueByStoreForProductType(String productType) {
+        List<SalesDataEntry> entries = new ArrayList<>();
+        Map<String, DoubleAdder> byStore = revenueByProductType.get(StoreAttributeIndex.normalize(productType));
+        if (byStore != null) {
+            for (Map.Entry<String, DoubleAdder> entry : byStore.entrySet()) {
+                double revenue = entry.getValue().sum();
+                if (revenue > 0) {
+                    entries.add(new SalesDataEntry(entry.getKey(), 0, revenue));
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Total revenue of every store in this food category.
+    List<SalesDataEntry> revenueByStoreForFoodCategory(String foodCategory) {
+        List<SalesDataEntry> entries = new ArrayList<>();
+        Map<String, DoubleAdder> byStore = revenueByFoodCategory.get(StoreAttributeIndex.normalize(foodCategory));
+        if (byStore != null) {
+            for (Map.Entry<String, DoubleAdder> entry : byStore.entrySet()) {
+                entries.add(new SalesDataEntry(entry.getKey(), 0, entry.getValue().sum()));
+            }
+        }
+        return entries;
+    }
+
+    private static DoubleAdder accumulator(Map<String, Map<String, DoubleAdder>> index, String category, String storeName) {
+        return index.computeIfAbsent(StoreAttributeIndex.normalize(category), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(storeName, k -> new DoubleAdder());
+    }
+}
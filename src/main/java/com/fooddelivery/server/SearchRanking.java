@@ -0,0 +1,166 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.payloads.SearchStoresRequestPayload;
+import com.fooddelivery.communication.payloads.StoreInfoForClient;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Ranked, paginated search. A search that sets sortBy, limit or cursor gets its results in a total order
+// (sort key, then distance, then store name) one page at a time:
+//   distance  nearest first
+//   stars     most stars first
+//   price     cheapest price category first
+//
+// Each worker keeps only its best `limit` matches after the cursor in a bounded heap, and the Master k-way
+// merges the workers' sorted lists, so neither the answers nor the merge grow with the number of stores. The
+// cursor is the sort key of the last store on the page, so pages stay consistent without any state kept
+// between requests; a store whose rating changes in between may move to another page.
+//
+// Searches without any of the three fields get every match, unsorted, as before.
+final class SearchRanking {
+    static final String BY_DISTANCE = "distance";
+    static final String BY_STARS = "stars";
+    static final String BY_PRICE = "price";
+    static final int MAX_LIMIT = 100;
+
+    private SearchRanking() {}
+
+    static boolean isRanked(SearchStoresRequestPayload request) {
+        return request.getSortBy() != null || request.getLimit() != 0 || request.getCursor() != null;
+    }
+
+    // The request's sort key, with distance as the default; null if the client asked for an unknown one.
+    static String sortKeyOf(SearchStoresRequestPayload request) {
+        String sortBy = request.getSortBy() == null ? BY_DISTANCE : request.getSortBy().trim().toLowerCase();
+        return BY_DISTANCE.equals(sortBy) || BY_STARS.equals(sortBy) || BY_PRICE.equals(sortBy) ? sortBy : null;
+    }
+
+    static Comparator<StoreInfoForClient> comparator(String sortKey) {
+        Comparator<StoreInfoForClient> byDistance = Comparator.comparingDouble(StoreInfoForClient::getDistanceKm);
+        Comparator<StoreInfoForClient> first;
+        if (BY_STARS.equals(sortKey)) {
+            first = Comparator.comparingInt(StoreInfoForClient::getStars).reversed().thenComparing(byDistance);
+        } else if (BY_PRICE.equals(sortKey)) {
+            first = Comparator.comparingInt((StoreInfoForClient store) -> priceRank(store.getPriceCategory())).thenComparing(byDistance);
+        } else {
+            first = byDistance;
+        }
+        return first.thenComparing(store -> store.getStoreName() == null ? "" : store.getStoreName());
+    }
+
+    private static int priceRank(String priceCategory) {
+        return priceCategory == null || priceCategory.isEmpty() ? Integer.MAX_VALUE : priceCategory.length(); // $ < $$ < $$$
+    }
+
+    // The cursor for the page that follows the given store: its sort key fields, opaque to the client.
+    static String cursorAfter(String sortKey, StoreInfoForClient last) {
+        String fields = sortKey + "\n" + last.getDistanceKm() + "\n" + last.getStars() + "\n"
+            + (last.getPriceCategory() == null ? "" : last.getPriceCategory()) + "\n" + (last.getStoreName() == null ? "" : last.getStoreName());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(fields.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The position a cursor stands for, as a store that compares like the last store of the previous page.
+    // Null if the cursor is malformed or was issued for another sort key.
+    static StoreInfoForClient parseCursor(String sortKey, String cursor) {
+        try {
+            String[] fields = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 5);
+            if (fields.length != 5 || !fields[0].equals(sortKey)) {
+                return null;
+            }
+            return new StoreInfoForClient(fields[4], null, Integer.parseInt(fields[2]), fields[3], Double.parseDouble(fields[1]), null, 0, 0);
+        } catch (IllegalArgumentException e) { // Bad Base64 or number
+            return null;
+        }
+    }
+
+    // Keeps the best `limit` stores (all of them if limit <= 0) that come after the cursor, in a heap whose root
+    // is the worst store kept.
+    static final class TopK {
+        private final Comparator<StoreInfoForClient> order;
+        private final StoreInfoForClient after;
+        private final int limit;
+        private final PriorityQueue<StoreInfoForClient> heap;
+
+        TopK(Comparator<StoreInfoForClient> order, StoreInfoForClient after, int limit) {
+            this.order = order;
+            this.after = after;
+            this.limit = limit;
+            this.heap = new PriorityQueue<>(limit > 0 ? limit + 1 : 16, order.reversed());
+        }
+
+        // For a worker answering a ranked search; the Master has already validated the sort key and cursor.
+        static TopK forRequest(SearchStoresRequestPayload request) {
+            String sortKey = sortKeyOf(request);
+            if (sortKey == null) {
+                sortKey = BY_DISTANCE;
+            }
+            StoreInfoForClient after = request.getCursor() == null ? null : parseCursor(sortKey, request.getCursor());
+            return new TopK(comparator(sortKey), after, request.getLimit());
+        }
+
+        void offer(StoreInfoForClient store) {
+            if (after != null && order.compare(store, after) <= 0) {
+                return; // On an earlier page
+            }
+            if (limit > 0 && heap.size() == limit) {
+                if (order.compare(store, heap.peek()) >= 0) {
+                    return;
+                }
+                heap.poll();
+            }
+            heap.add(store);
+        }
+
+        List<StoreInfoForClient> sorted() {
+            List<StoreInfoForClient> stores = new ArrayList<>(heap);
+            stores.sort(order);
+            return stores;
+        }
+    }
+
+    // K-way merge of the workers' sorted lists into the first `limit` stores overall. A store being moved between
+    // workers, or failed over, can briefly be answered by two of them; it is listed once.
+    static List<StoreInfoForClient> merge(List<List<StoreInfoForClient>> sortedLists, Comparator<StoreInfoForClient> order, int limit) {
+        // Heap entries are {list index, position in list}, ordered by the store they point at
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, sortedLists.size()),
+            (a, b) -> order.compare(sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1])));
+        for (int i = 0; i < sortedLists.size(); i++) {
+            if (!sortedLists.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+        List<StoreInfoForClient> merged = new ArrayList<>();
+        Set<String> seenStoreNames = new HashSet<>();
+        while (!heads.isEmpty() && (limit <= 0 || merged.size() < limit)) {
+            int[] head = heads.poll();
+            List<StoreInfoForClient> list = sortedLists.get(head[0]);
+            StoreInfoForClient store = list.get(head[1]);
+            if (seenStoreNames.add(store.getStoreName())) {
+                merged.add(store);
+            }
+            if (head[1] + 1 < list.size()) {
+                heads.add(new int[] { head[0], head[1] + 1 });
+            }
+        }
+        return merged;
+    }
+
+    // Workers answer ranked searches sorted, so this is a linear pass for them; it keeps the merge correct for a
+    // worker that does not rank (an older build answers with every match, unsorted).
+    static List<StoreInfoForClient> sortedCopy(List<StoreInfoForClient> stores, Comparator<StoreInfoForClient> order) {
+        if (stores.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<StoreInfoForClient> sorted = new ArrayList<>(stores);
+        sorted.sort(order);
+        return sorted;
+    }
+}
@@ -0,0 +1,200 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.payloads.SearchStoresRequestPayload;
+import com.fooddelivery.communication.payloads.StoreInfoForClient;
+import com.fooddelivery.model.Coordinates;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Master-side cache of search results. Clients are grouped into cells of CELL_DEGREES x CELL_DEGREES, and one
+// entry per cell, radius and filter combination holds every matching store within the radius of any point of
+// the cell: the workers are asked once, for the cell's center with the radius widened by the cell's
+// half-diagonal. Each client's answer is then cut from the entry with its own distances and radius (the same
+// haversine the workers use), so cached results are exactly what the workers would have returned. Radii are
+// rounded up to RADIUS_STEP_KM for the key, so clients asking for 5.2 and 5.4 km share an entry.
+//
+// Entries live for TTL_MS and the least recently used ones are evicted beyond MAX_ENTRIES. Workers push
+// invalidations for stores whose stars, price category or products change (see WorkerHeartbeatSender); every
+// entry whose widened radius reaches such a store is dropped. Workers started without a Master address cannot
+// push, so their changes show once the TTL runs out.
+//
+// -Dfooddelivery.master.searchCache.ttlMs=0 disables the cache.
+final class SearchResultCache {
+    private static final long TTL_MS = Long.getLong("fooddelivery.master.searchCache.ttlMs", 3000);
+    private static final int MAX_ENTRIES = Integer.getInteger("fooddelivery.master.searchCache.maxEntries", 10000);
+    private static final double CELL_DEGREES = Double.parseDouble(System.getProperty("fooddelivery.master.searchCache.cellDegrees", "0.01"));
+    private static final double KM_PER_DEGREE = Math.toRadians(1) * 6371; // Earth radius used by Coordinates.distanceKm
+    private static final double RADIUS_STEP_KM = 0.5;
+
+    // Quantized location plus the filters, normalized the way the workers' attribute index compares them.
+    static final class Key {
+        final long cellLatitude;
+        final long cellLongitude;
+        final String foodCategory;
+        final int minStars;
+        final String priceRange;
+        final double radiusKm; // The requested radius rounded up to RADIUS_STEP_KM
+
+        Key(SearchStoresRequestPayload request) {
+            this.cellLatitude = (long) Math.floor(request.getClientLatitude() / CELL_DEGREES);
+            this.cellLongitude = (long) Math.floor(request.getClientLongitude() / CELL_DEGREES);
+            this.foodCategory = StoreAttributeIndex.normalize(request.getFoodCategoryFilter());
+            this.minStars = Math.max(0, request.getMinStarsFilter());
+            this.priceRange = request.getPriceRangeFilter() == null ? "" : request.getPriceRangeFilter().trim();
+            this.radiusKm = Math.ceil(radiusOf(request) / RADIUS_STEP_KM) * RADIUS_STEP_KM;
+        }
+
+        double centerLatitude() { return (cellLatitude + 0.5) * CELL_DEGREES; }
+        double centerLongitude() { return (cellLongitude + 0.5) * CELL_DEGREES; }
+
+        // The key's radius widened by the largest distance from the cell's center to any point of the cell,
+        // with a little margin for the haversine's curvature.
+        double fillRadiusKm() {
+            double nearestToEquator = Math.min(Math.abs(cellLatitude * CELL_DEGREES), Math.abs((cellLatitude + 1) * CELL_DEGREES));
+            if (cellLatitude < 0 && cellLatitude + 1 > 0) nearestToEquator = 0;
+            double halfHeightKm = CELL_DEGREES / 2 * KM_PER_DEGREE;
+            double halfWidthKm = halfHeightKm * Math.cos(Math.toRadians(nearestToEquator));
+            return radiusKm + Math.hypot(halfHeightKm, halfWidthKm) * 1.01 + 0.001;
+        }
+
+        // The request the workers are asked to fill the entry with.
+        SearchStoresRequestPayload fillRequest() {
+            return new SearchStoresRequestPayload(centerLatitude(), centerLongitude(), foodCategory, minStars, priceRange, fillRadiusKm());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return cellLatitude == other.cellLatitude && cellLongitude == other.cellLongitude && minStars == other.minStars
+                && radiusKm == other.radiusKm && foodCategory.equals(other.foodCategory) && priceRange.equals(other.priceRange);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cellLatitude, cellLongitude, foodCategory, minStars, priceRange, radiusKm);
+        }
+    }
+
+    private static final class Entry {
+        final List<StoreInfoForClient> stores;
+        final long expiresAtMillis;
+
+        Entry(List<StoreInfoForClient> stores, long expiresAtMillis) {
+            this.stores = stores;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock(); // Not synchronized, to avoid pinning virtual threads
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) { // Access order: LRU first
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private long invalidations; // Guarded by lock; a fill that overlapped an invalidation is not stored
+
+    static boolean isEnabled() {
+        return TTL_MS > 0 && CELL_DEGREES > 0;
+    }
+
+    // The stores cached for the key, or null if there is no live entry.
+    List<StoreInfoForClient> get(Key key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.stores;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Taken before asking the workers, and handed back to put().
+    long invalidationCount() {
+        lock.lock();
+        try {
+            return invalidations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stores the stores the workers returned for the key's fill request, unless an invalidation arrived since
+    // invalidationCountBefore was taken: the workers may have answered from before the change.
+    void put(Key key, List<StoreInfoForClient> stores, long invalidationCountBefore) {
+        lock.lock();
+        try {
+            if (invalidations != invalidationCountBefore) {
+                return;
+            }
+            entries.put(key, new Entry(stores, System.currentTimeMillis() + TTL_MS));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops every entry that holds, or should hold, a store at this location. A linear pass, but entries far
+    // from the store are passed over by their latitude alone, and invalidations only come with manager changes.
+    int invalidateNear(double latitude, double longitude) {
+        int removed = 0;
+        lock.lock();
+        try {
+            invalidations++;
+            for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Key key = it.next().getKey();
+                if (Math.abs(key.centerLatitude() - latitude) * KM_PER_DEGREE > key.fillRadiusKm() * 1.001) {
+                    continue; // The distance is at least the latitude difference
+                }
+                if (Coordinates.distanceKm(latitude, longitude, key.centerLatitude(), key.centerLongitude()) <= key.fillRadiusKm()) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    // The radius a request searches: its own, or the workers' default.
+    static double radiusOf(SearchStoresRequestPayload request) {
+        return request.getRadiusKm() > 0 ? request.getRadiusKm() : Worker.SEARCH_RADIUS_KM;
+    }
+
+    // One client's results from an entry: the stores within the client's radius, with the client's distances.
+    static List<StoreInfoForClient> resultsFor(List<StoreInfoForClient> cached, SearchStoresRequestPayload request) {
+        double clientLatitude = request.getClientLatitude();
+        double clientLongitude = request.getClientLongitude();
+        double cosClientLatitude = Coordinates.cosLatitude(clientLatitude);
+        double radiusKm = radiusOf(request);
+        List<StoreInfoForClient> results = new ArrayList<>();
+        for (StoreInfoForClient store : cached) {
+            if (Math.abs(store.getLatitude() - clientLatitude) * KM_PER_DEGREE > radiusKm * 1.001) {
+                continue; // The distance is at least the latitude difference
+            }
+            double distance = Coordinates.distanceKm(store.getLatitude(), store.getLongitude(), Coordinates.cosLatitude(store.getLatitude()),
+                clientLatitude, clientLongitude, cosClientLatitude);
+            if (distance > radiusKm) {
+                continue;
+            }
+            results.add(new StoreInfoForClient(store.getStoreName(), store.getFoodCategory(), store.getStars(), store.getPriceCategory(),
+                distance, store.getStoreLogoPath(), store.getLatitude(), store.getLongitude()));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,69 @@
+package com.fooddelivery.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Thread factories for the blocking-I/O parts of Master and Worker (client handlers, MasterRequestHandler,
+// Master -> Worker calls and connection reader threads).
+//
+// Start the JVM with -Dfooddelivery.virtualThreads=true to run them on virtual threads, so tens of thousands
+// of connections blocked in socket reads do not each need a platform thread. Virtual threads need Java 21+;
+// they are looked up reflectively so the code still builds and runs (on platform threads) on older JDKs.
+final class ServerExecutors {
+    private static final boolean VIRTUAL_THREADS_REQUESTED = Boolean.getBoolean("fooddelivery.virtualThreads");
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+    private static final Method START_VIRTUAL_THREAD = findMethod(Thread.class, "startVirtualThread", Runnable.class);
+
+    static {
+        if (VIRTUAL_THREADS_REQUESTED && !virtualThreadsEnabled()) {
+            System.err.println("Virtual threads requested but not supported by this JVM (" + System.getProperty("java.version") + "), using platform threads.");
+        }
+    }
+
+    private ServerExecutors() {}
+
+    static boolean virtualThreadsEnabled() {
+        return VIRTUAL_THREADS_REQUESTED && NEW_VIRTUAL_THREAD_EXECUTOR != null && START_VIRTUAL_THREAD != null;
+    }
+
+    // One thread per task: virtual threads if enabled, otherwise a cached pool of platform threads.
+    static ExecutorService newBlockingIoExecutor() {
+        if (virtualThreadsEnabled()) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Could not create virtual thread executor, using platform threads: " + e.getMessage());
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    // Bounded pool for outbound calls. With virtual threads the bound is dropped: each call gets its own virtual thread.
+    static ExecutorService newBlockingIoExecutor(int platformThreads) {
+        return virtualThreadsEnabled() ? newBlockingIoExecutor() : Executors.newFixedThreadPool(platformThreads);
+    }
+
+    // Starts a long-running background thread (virtual if enabled, otherwise a named daemon platform thread).
+    static void startDaemon(String name, Runnable task) {
+        if (virtualThreadsEnabled()) {
+            try {
+                START_VIRTUAL_THREAD.invoke(null, task);
+                return;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Could not start virtual thread " + name + ", using a platform thread: " + e.getMessage());
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Method findMethod(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            return owner.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
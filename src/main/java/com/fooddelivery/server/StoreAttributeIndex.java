@@ -0,0 +1,236 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.model.Store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Inverted indexes from normalized food category, price category and star rating to the set of stores that
+// have them. Every store gets a dense ordinal; each index value maps to a BitSet of ordinals, so a filtered
+// search or a category-scoped map task intersects a few bitsets instead of comparing strings store by store.
+//
+// Writers (addStore, rating, price category recalculation) are serialized on a lock and publish a new
+// immutable snapshot, cloning only the bitsets they change. Readers use whatever snapshot is current, lock-free.
+//
+// The ordinal of a removed store is handed to the next new store, so the bitsets stay as dense as the worker's
+// current stores however often stores move away and come back. Each snapshot carries its own ordinal -> store
+// table, and readers resolve ordinals only through the snapshot they matched against (see Matches), so a
+// recycled ordinal never makes an older snapshot's bits point at the wrong store.
+class StoreAttributeIndex {
+    private static final int MAX_STARS = 5;
+
+    // Immutable once published; bitsets are never modified after the snapshot holding them is visible.
+    private static final class Snapshot {
+        final Map<String, BitSet> byFoodCategory;
+        final Map<String, BitSet> byPriceCategory;
+        final BitSet[] byStars; // Index = star rating, 0..MAX_STARS
+        final BitSet all;
+        final Store[] stores; // Store per ordinal; null for free ordinals
+
+        Snapshot(Map<String, BitSet> byFoodCategory, Map<String, BitSet> byPriceCategory, BitSet[] byStars, BitSet all, Store[] stores) {
+            this.byFoodCategory = byFoodCategory;
+            this.byPriceCategory = byPriceCategory;
+            this.byStars = byStars;
+            this.all = all;
+            this.stores = stores;
+        }
+    }
+
+    // The stores matching a search's filters, resolved against the snapshot they were matched in.
+    final class Matches {
+        private final BitSet ordinalSet;
+        private final Store[] stores;
+
+        private Matches(BitSet ordinalSet, Store[] stores) {
+            this.ordinalSet = ordinalSet;
+            this.stores = stores;
+        }
+
+        int count() {
+            return ordinalSet.cardinality();
+        }
+
+        List<Store> stores() {
+            List<Store> result = new ArrayList<>(ordinalSet.cardinality());
+            for (int i = ordinalSet.nextSetBit(0); i >= 0; i = ordinalSet.nextSetBit(i + 1)) {
+                result.add(stores[i]);
+            }
+            return result;
+        }
+
+        // Whether the named store matched. Its current ordinal only counts if the snapshot had the same store
+        // there; a store indexed after the snapshot did not match.
+        boolean contains(String storeName) {
+            Integer ordinal = ordinals.get(storeName);
+            return ordinal != null && ordinal < stores.length && ordinalSet.get(ordinal)
+                && stores[ordinal] != null && storeName.equals(stores[ordinal].getStoreName());
+        }
+    }
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>(); // storeName -> ordinal
+    // What each ordinal is currently indexed under, so an update can clear its old bits. Guarded by writeLock.
+    private final List<String> indexedFoodCategory = new ArrayList<>();
+    private final List<String> indexedPriceCategory = new ArrayList<>();
+    private final List<Integer> indexedStars = new ArrayList<>();
+    private final BitSet freeOrdinals = new BitSet(); // Ordinals of removed stores, reused lowest first. Guarded by writeLock.
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), Map.of(), newStarBuckets(), new BitSet(), new Store[64]);
+
+    // Indexes a new store or re-indexes an existing one (same name) after its attributes changed.
+    void update(Store store) {
+        String foodCategory = normalize(store.getFoodCategory());
+        String priceCategory = normalize(store.getPriceCategory());
+        int stars = Math.max(0, Math.min(MAX_STARS, store.getStars()));
+
+        writeLock.lock();
+        try {
+            Snapshot current = snapshot;
+            Integer existing = ordinals.get(store.getStoreName());
+            int ordinal;
+            if (existing != null) {
+                ordinal = existing;
+            } else if (!freeOrdinals.isEmpty()) {
+                ordinal = freeOrdinals.nextSetBit(0);
+                freeOrdinals.clear(ordinal);
+            } else {
+                ordinal = indexedStars.size();
+                indexedFoodCategory.add(null);
+                indexedPriceCategory.add(null);
+                indexedStars.add(-1);
+            }
+            Store[] stores = current.stores;
+            if (ordinal >= stores.length || stores[ordinal] != store) {
+                // Copied, as older snapshots keep resolving their ordinals through their own table
+                stores = Arrays.copyOf(stores, ordinal < stores.length ? stores.length : stores.length * 2);
+                stores[ordinal] = store;
+            }
+
+            Map<String, BitSet> byFoodCategory = move(current.byFoodCategory, indexedFoodCategory.get(ordinal), foodCategory, ordinal);
+            Map<String, BitSet> byPriceCategory = move(current.byPriceCategory, indexedPriceCategory.get(ordinal), priceCategory, ordinal);
+            BitSet[] byStars = current.byStars;
+            int oldStars = indexedStars.get(ordinal);
+            if (oldStars != stars) {
+                byStars = current.byStars.clone();
+                if (oldStars >= 0) {
+                    byStars[oldStars] = (BitSet) byStars[oldStars].clone();
+                    byStars[oldStars].clear(ordinal);
+                }
+                byStars[stars] = (BitSet) byStars[stars].clone();
+                byStars[stars].set(ordinal);
+            }
+            BitSet all = current.all;
+            if (existing == null) {
+                all = (BitSet) all.clone();
+                all.set(ordinal);
+            }
+
+            indexedFoodCategory.set(ordinal, foodCategory);
+            indexedPriceCategory.set(ordinal, priceCategory);
+            indexedStars.set(ordinal, stars);
+            ordinals.put(store.getStoreName(), ordinal);
+            snapshot = new Snapshot(byFoodCategory, byPriceCategory, byStars, all, stores);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Drops a store from every index and frees its ordinal for the next new store.
+    void remove(String storeName) {
+        writeLock.lock();
+        try {
+            Integer ordinal = ordinals.remove(storeName);
+            if (ordinal == null) {
+                return;
+            }
+            Snapshot current = snapshot;
+            Map<String, BitSet> byFoodCategory = without(current.byFoodCategory, indexedFoodCategory.get(ordinal), ordinal);
+            Map<String, BitSet> byPriceCategory = without(current.byPriceCategory, indexedPriceCategory.get(ordinal), ordinal);
+            BitSet[] byStars = current.byStars;
+            int oldStars = indexedStars.get(ordinal);
+            if (oldStars >= 0) {
+                byStars = current.byStars.clone();
+                byStars[oldStars] = (BitSet) byStars[oldStars].clone();
+                byStars[oldStars].clear(ordinal);
+            }
+            BitSet all = (BitSet) current.all.clone();
+            all.clear(ordinal);
+            Store[] stores = current.stores.clone();
+            stores[ordinal] = null; // Not kept alive by the index any more
+
+            indexedFoodCategory.set(ordinal, null);
+            indexedPriceCategory.set(ordinal, null);
+            indexedStars.set(ordinal, -1);
+            freeOrdinals.set(ordinal);
+            snapshot = new Snapshot(byFoodCategory, byPriceCategory, byStars, all, stores);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // The stores matching all given filters. A null/empty category or minStars <= 0 does not filter.
+    Matches matching(String foodCategory, String priceCategory, int minStars) {
+        Snapshot current = snapshot;
+        BitSet result = (BitSet) current.all.clone();
+        if (foodCategory != null && !foodCategory.isEmpty()) {
+            result.and(current.byFoodCategory.getOrDefault(normalize(foodCategory), new BitSet()));
+        }
+        if (priceCategory != null && !priceCategory.isEmpty()) {
+            result.and(current.byPriceCategory.getOrDefault(normalize(priceCategory), new BitSet()));
+        }
+        if (minStars > 0) {
+            BitSet starMatches = new BitSet();
+            for (int stars = Math.min(minStars, MAX_STARS + 1); stars <= MAX_STARS; stars++) {
+                starMatches.or(current.byStars[stars]);
+            }
+            result.and(starMatches);
+        }
+        return new Matches(result, current.stores);
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Copy of the index map with the ordinal moved from oldKey's bitset to newKey's; unchanged maps are shared.
+    private static Map<String, BitSet> move(Map<String, BitSet> index, String oldKey, String newKey, int ordinal) {
+        if (newKey.equals(oldKey)) {
+            return index;
+        }
+        Map<String, BitSet> updated = new HashMap<>(without(index, oldKey, ordinal));
+        BitSet newBits = updated.containsKey(newKey) ? (BitSet) updated.get(newKey).clone() : new BitSet();
+        newBits.set(ordinal);
+        updated.put(newKey, newBits);
+        return updated;
+    }
+
+    // Copy of the index map with the ordinal cleared from key's bitset; the map is shared if key is null.
+    private static Map<String, BitSet> without(Map<String, BitSet> index, String key, int ordinal) {
+        if (key == null) {
+            return index;
+        }
+        Map<String, BitSet> updated = new HashMap<>(index);
+        BitSet bits = (BitSet) updated.get(key).clone();
+        bits.clear(ordinal);
+        if (bits.isEmpty()) {
+            updated.remove(key);
+        } else {
+            updated.put(key, bits);
+        }
+        return updated;
+    }
+
+    private static BitSet[] newStarBuckets() {
+        BitSet[] buckets = new BitSet[MAX_STARS + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new BitSet();
+        }
+        return buckets;
+    }
+}
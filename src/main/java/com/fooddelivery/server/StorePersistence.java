@@ -0,0 +1,388 @@
+package com.fooddelivery.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Keeps a Worker's stores on disk under -Dfooddelivery.worker.dataDir (one directory per worker port), so a
+// restarted worker comes back with its stores, stock, ratings and sales. Without the property nothing is stored.
+//
+// Every change to a store appends the store's full state (the same versioned state that is replicated) to a
+// write-ahead log, wal-<generation>.log. Appends are queued and written by a background thread that fsyncs
+// once per batch every SYNC_INTERVAL_MS, so no request waits for the disk; a crash can lose the changes of the
+// last interval. Several changes to one store within an interval are written once. When the log has grown by
+// SNAPSHOT_WAL_BYTES the writer switches to a new log generation and writes every store to snapshot-<generation>.dat,
+// after which the older snapshot and logs are deleted.
+//
+// Recovery maps the newest snapshot and the logs of its generation and later into memory and replays them in
+// order, the last record of a store winning. Each run appends to a fresh log generation, so a torn record at
+// the end of a log (crash mid-write) is simply where replay of that log stops.
+class StorePersistence {
+    static final String DATA_DIR_PROPERTY = "fooddelivery.worker.dataDir";
+    private static final long SYNC_INTERVAL_MS = Long.getLong("fooddelivery.worker.walSyncIntervalMs", 10);
+    private static final long SNAPSHOT_WAL_BYTES = Long.getLong("fooddelivery.worker.snapshotWalBytes", 16L << 20);
+    private static final long MAX_MAPPED_BYTES = 1L << 30;
+    private static final int RECORD_HEADER_BYTES = 8; // Body length and CRC32 of the body
+
+    static final byte RECORD_PUT = 1;
+    static final byte RECORD_DROP = 2;
+
+    // One log record: a store's state (and, for a replica copy, its primary's id) or the store's removal.
+    static final class Record {
+        final byte type;
+        final String storeName;
+        final String primaryId; // Empty for a primary copy
+        final String stateJson; // Empty for a drop
+
+        Record(byte type, String storeName, String primaryId, String stateJson) {
+            this.type = type;
+            this.storeName = storeName;
+            this.primaryId = primaryId != null ? primaryId : "";
+            this.stateJson = stateJson != null ? stateJson : "";
+        }
+    }
+
+    // Current state of every store, each read under its lock; used to write snapshots.
+    interface StateSource {
+        List<Record> captureStoreStates();
+    }
+
+    private final Path directory;
+    private final int port; // For log messages
+    private final Map<String, Record> pending = new ConcurrentHashMap<>();
+    private final Map<String, Long> queuedVersions = new ConcurrentHashMap<>(); // Highest version queued per store
+    private FileChannel wal; // Only used by the writer thread (and by start/stop before and after it runs)
+    private long walGeneration;
+    private long walBytesSinceSnapshot;
+    private StateSource stateSource;
+    private volatile ScheduledExecutorService writer; // Null until started: nothing is queued before that
+    private boolean stopped;
+
+    private StorePersistence(Path directory, int port) {
+        this.directory = directory;
+        this.port = port;
+    }
+
+    // The persistence of the worker on the given port, or null if no data directory is configured.
+    static StorePersistence open(int port) throws IOException {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        if (dataDir == null || dataDir.isBlank()) {
+            return null;
+        }
+        Path directory = Paths.get(dataDir, "worker-" + port);
+        Files.createDirectories(directory);
+        return new StorePersistence(directory, port);
+    }
+
+    Path getDirectory() { return directory; }
+
+    // Replays the newest snapshot and the logs after it. Returns the surviving store records by name
+    // (drops already applied); start() then opens a new log generation for this run.
+    Map<String, Record> recover() throws IOException {
+        Map<String, Record> stores = new LinkedHashMap<>();
+        long snapshotGeneration = -1;
+        List<Long> logGenerations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("snapshot-") && name.endsWith(".dat")) {
+                    snapshotGeneration = Math.max(snapshotGeneration, generationOf(name, "snapshot-", ".dat"));
+                } else if (name.startsWith("wal-") && name.endsWith(".log")) {
+                    logGenerations.add(generationOf(name, "wal-", ".log"));
+                }
+            }
+        }
+        Collections.sort(logGenerations);
+
+        int records = 0;
+        if (snapshotGeneration >= 0) {
+            records += replay(snapshotFile(snapshotGeneration), stores);
+        }
+        long lastGeneration = Math.max(snapshotGeneration, 0);
+        for (long generation : logGenerations) {
+            if (generation >= snapshotGeneration) {
+                records += replay(walFile(generation), stores);
+            }
+            lastGeneration = Math.max(lastGeneration, generation);
+        }
+        stores.values().removeIf(record -> record.type != RECORD_PUT);
+
+        walGeneration = lastGeneration;
+        if (records > 0) {
+            System.out.println("Worker (" + port + "): Replayed " + records + " records from " + directory
+                + (snapshotGeneration >= 0 ? " (snapshot " + snapshotGeneration + " and later logs)" : "") + ".");
+        }
+        return stores;
+    }
+
+    // Compacts what was recovered into a snapshot, then starts the background writer.
+    void start(StateSource stateSource) {
+        this.stateSource = stateSource;
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("Worker (" + port + "): Could not write snapshot to " + directory + ": " + e.getMessage());
+            if (wal == null) {
+                return; // Not even a log could be opened; run without persistence
+            }
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "worker-wal-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushAndMaybeSnapshot, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes what is still queued and a final snapshot, so the next start replays little.
+    synchronized void stop() {
+        if (stopped || wal == null) {
+            return;
+        }
+        stopped = true;
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+            if (stateSource != null) {
+                snapshot();
+            }
+            wal.close();
+        } catch (IOException e) {
+            System.err.println("Worker (" + port + "): Error closing store log in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Stock changes call this without the store's lock, so states of one store can arrive out of order. A state
+    // older than one already queued (or written) is ignored; queueing inside compute() keeps the check atomic.
+    void put(String storeName, String primaryId, long version, String stateJson) {
+        if (writer == null) return;
+        queuedVersions.compute(storeName, (name, queued) -> {
+            if (queued != null && queued > version) {
+                return queued;
+            }
+            pending.put(name, new Record(RECORD_PUT, name, primaryId, stateJson));
+            return version;
+        });
+    }
+
+    // Called with the store's lock held. Forgets the store's version, so a store re-added later starts afresh.
+    void drop(String storeName) {
+        if (writer == null) return;
+        queuedVersions.compute(storeName, (name, queued) -> {
+            pending.put(name, new Record(RECORD_DROP, name, null, null));
+            return null;
+        });
+    }
+
+    private void flushAndMaybeSnapshot() {
+        try {
+            flush();
+            if (walBytesSinceSnapshot >= SNAPSHOT_WAL_BYTES) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("Worker (" + port + "): Error writing store log in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Appends all queued records as one batch and fsyncs once (group commit).
+    private void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Record> batch = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String storeName : pending.keySet()) {
+            Record record = pending.remove(storeName);
+            if (record != null) {
+                batch.add(record);
+                encode(record, bytes);
+            }
+        }
+        try {
+            write(wal, bytes.toByteArray());
+            wal.force(false);
+        } catch (IOException e) {
+            for (Record record : batch) {
+                pending.putIfAbsent(record.storeName, record); // Retried with the next batch unless superseded
+            }
+            throw e;
+        }
+        walBytesSinceSnapshot += bytes.size();
+    }
+
+    // Starts a new log generation, then writes the current state of every store as the snapshot of that
+    // generation. Changes made meanwhile are in the new log, which recovery replays after the snapshot.
+    private void snapshot() throws IOException {
+        flush();
+        long generation = walGeneration + 1;
+        FileChannel nextWal = FileChannel.open(walFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileChannel previousWal = wal;
+        wal = nextWal;
+        walGeneration = generation;
+        walBytesSinceSnapshot = 0;
+        if (previousWal != null) {
+            previousWal.close();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<Record> states = stateSource.captureStoreStates();
+        for (Record record : states) {
+            encode(record, bytes);
+        }
+        Path temporary = directory.resolve("snapshot-" + generation + ".tmp");
+        try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(snapshot, bytes.toByteArray());
+            snapshot.force(true);
+        }
+        Files.move(temporary, snapshotFile(generation), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Everything before this generation is now covered by the snapshot
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if ((name.startsWith("snapshot-") && name.endsWith(".dat") && generationOf(name, "snapshot-", ".dat") < generation)
+                        || (name.startsWith("wal-") && name.endsWith(".log") && generationOf(name, "wal-", ".log") < generation)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        System.out.println("Worker (" + port + "): Wrote snapshot " + generation + " of " + states.size() + " stores (" + bytes.size() + " bytes).");
+    }
+
+    private Path walFile(long generation) { return directory.resolve("wal-" + generation + ".log"); }
+    private Path snapshotFile(long generation) { return directory.resolve("snapshot-" + generation + ".dat"); }
+
+    private static long generationOf(String fileName, String prefix, String suffix) {
+        try {
+            return Long.parseLong(fileName.substring(prefix.length(), fileName.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // [body length][CRC32 of body][type][store name][primary id][state], strings as length-prefixed UTF-8.
+    private static void encode(Record record, ByteArrayOutputStream out) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(record.stateJson.length() + 64);
+        try (DataOutputStream data = new DataOutputStream(body)) {
+            data.writeByte(record.type);
+            writeString(data, record.storeName);
+            writeString(data, record.primaryId);
+            writeString(data, record.stateJson);
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory encoding failed", e); // ByteArrayOutputStream does not throw
+        }
+        byte[] bodyBytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+        try (DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(bodyBytes.length);
+            data.writeInt((int) crc.getValue());
+            data.write(bodyBytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory encoding failed", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    // Reads the records of a file through memory-mapped windows into stores (last record per store wins).
+    // Stops at the first incomplete or corrupt record. Returns the number of records read.
+    private int replay(Path file, Map<String, Record> stores) throws IOException {
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long window = Math.min(size - position, MAX_MAPPED_BYTES);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                int start = 0;
+                while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length < 0 || length > buffer.remaining()) {
+                        break; // Torn write, or a record continuing past this window
+                    }
+                    byte[] body = new byte[length];
+                    buffer.get(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) {
+                        System.err.println("Worker (" + port + "): Corrupt record in " + file.getFileName() + " at byte " + (position + start) + ", ignoring the rest of the file.");
+                        return records;
+                    }
+                    Record record = decode(body);
+                    stores.remove(record.storeName); // Keeps the map in last-change order
+                    stores.put(record.storeName, record);
+                    records++;
+                    start = buffer.position();
+                }
+                boolean windowReachesEnd = position + window == size;
+                if (start == 0 && !windowReachesEnd) {
+                    throw new IOException("Record larger than " + MAX_MAPPED_BYTES + " bytes in " + file);
+                }
+                position += start;
+                if (windowReachesEnd) {
+                    break; // Anything left is a torn record
+                }
+            }
+            if (position < size) {
+                System.err.println("Worker (" + port + "): Ignored a torn record (" + (size - position) + " bytes) at the end of " + file.getFileName() + ".");
+            }
+        }
+        return records;
+    }
+
+    private static Record decode(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte type = buffer.get();
+        String storeName = readString(buffer);
+        String primaryId = readString(buffer);
+        String stateJson = readString(buffer);
+        return new Record(type, storeName, primaryId, stateJson);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
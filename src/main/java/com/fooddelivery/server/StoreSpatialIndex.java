@@ -0,0 +1,122 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.model.Coordinates;
+import com.fooddelivery.model.Store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Uniform latitude/longitude grid over a worker's stores. Each store is bucketed in the cell containing its
+// location, and a radius query only visits the cells overlapping the radius' bounding box, so search cost
+// follows the number of nearby stores rather than the total held by the worker.
+//
+// Cells are concurrent sets, so the index is updated by addStore under its store lock and read by search
+// without any lock.
+//
+// The cells' corners still hold stores outside the circle, more so for large radii; SearchCircle rejects most
+// of them with two subtractions before the exact haversine runs.
+class StoreSpatialIndex {
+    // About 5.5 km of latitude: a 5 km search touches at most a 3x3 block of cells away from the poles.
+    static final double CELL_SIZE_DEGREES = 0.05;
+    private static final int LONGITUDE_CELLS = (int) Math.round(360 / CELL_SIZE_DEGREES);
+
+    private final Map<Long, Set<Store>> cells = new ConcurrentHashMap<>();
+
+    void add(Store store) {
+        cells.computeIfAbsent(cellKey(store.getLatitude(), store.getLongitude()), k -> ConcurrentHashMap.newKeySet()).add(store);
+    }
+
+    void remove(Store store) {
+        cells.computeIfPresent(cellKey(store.getLatitude(), store.getLongitude()), (k, stores) -> {
+            stores.remove(store);
+            return stores.isEmpty() ? null : stores;
+        });
+    }
+
+    // Stores in the cells that intersect the circle's bounding box. Candidates only: callers still check the exact
+    // distance. The box is the one SearchCircle.mayContain checks, worked out with the same Earth radius as the
+    // haversine, so no store within the radius is left out.
+    List<Store> candidatesWithin(SearchCircle circle) {
+        double latitude = circle.latitude;
+        double longitude = circle.longitude;
+        double minLat = Math.max(-90, latitude - circle.maxLatitudeDelta);
+        double maxLat = Math.min(90, latitude + circle.maxLatitudeDelta);
+        double lonDelta = Math.min(180, circle.maxLongitudeDelta);
+
+        int minLatCell = latCell(minLat);
+        int maxLatCell = latCell(maxLat);
+        int firstLonCell = (int) Math.floor((longitude - lonDelta) / CELL_SIZE_DEGREES);
+        int lonCellCount = Math.min(LONGITUDE_CELLS, (int) Math.floor((longitude + lonDelta) / CELL_SIZE_DEGREES) - firstLonCell + 1);
+
+        List<Store> candidates = new ArrayList<>();
+        for (int lat = minLatCell; lat <= maxLatCell; lat++) {
+            for (int i = 0; i < lonCellCount; i++) {
+                Set<Store> stores = cells.get(key(lat, Math.floorMod(firstLonCell + i, LONGITUDE_CELLS)));
+                if (stores != null) {
+                    candidates.addAll(stores);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // A search's circle, with what the distance checks need worked out once per search.
+    static final class SearchCircle {
+        private static final double EARTH_RADIUS_KM = 6371; // As in Coordinates.distanceKm
+        private static final double SLACK = 1 + 1e-9; // Keeps the bounds conservative despite rounding
+
+        final double latitude;
+        final double longitude;
+        final double radiusKm;
+        private final double cosLatitude;
+        private final double maxLatitudeDelta;  // Degrees
+        private final double maxLongitudeDelta; // Degrees; 180 or more means no bound
+
+        SearchCircle(double latitude, double longitude, double radiusKm) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radiusKm = radiusKm;
+            this.cosLatitude = Coordinates.cosLatitude(latitude);
+            // The great-circle distance is at least R times the latitude difference
+            double halfAngle = radiusKm / EARTH_RADIUS_KM / 2;
+            this.maxLatitudeDelta = Math.toDegrees(2 * halfAngle) * SLACK;
+            // and, with both latitudes in the band, at least 2R asin(cosMin sin(dLon / 2)), where cosMin is the
+            // cosine at the band's edge nearest a pole
+            double cosMin = Coordinates.cosLatitude(Math.min(90, Math.abs(latitude) + maxLatitudeDelta));
+            double ratio = halfAngle >= Math.PI / 2 ? 2 : Math.sin(halfAngle) / Math.max(cosMin, 0);
+            this.maxLongitudeDelta = ratio >= 1 || Double.isNaN(ratio) ? 360 : Math.toDegrees(2 * Math.asin(ratio)) * SLACK;
+        }
+
+        // False only for stores that are certainly outside the circle; no trigonometry.
+        boolean mayContain(Store store) {
+            if (Math.abs(store.getLatitude() - latitude) > maxLatitudeDelta) {
+                return false;
+            }
+            double longitudeDelta = Math.abs(store.getLongitude() - longitude);
+            if (longitudeDelta > 180) {
+                longitudeDelta = 360 - longitudeDelta; // Across the antimeridian
+            }
+            return longitudeDelta <= maxLongitudeDelta;
+        }
+
+        // The exact haversine distance, the same value Coordinates.distanceKm gives.
+        double distanceKm(Store store) {
+            return Coordinates.distanceKm(store.getLatitude(), store.getLongitude(), store.getCosLatitude(), latitude, longitude, cosLatitude);
+        }
+    }
+
+    private static long cellKey(double latitude, double longitude) {
+        return key(latCell(latitude), Math.floorMod((int) Math.floor(longitude / CELL_SIZE_DEGREES), LONGITUDE_CELLS));
+    }
+
+    private static int latCell(double latitude) {
+        return (int) Math.floor(latitude / CELL_SIZE_DEGREES);
+    }
+
+    private static long key(int latCell, int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xFFFFFFFFL);
+    }
+}
@@ -3,17 +3,22 @@ package com.fooddelivery.server;
 import com.fooddelivery.model.Product;
 import com.fooddelivery.model.Store;
 import com.fooddelivery.util.JsonUtil; // For responses
+import com.fooddelivery.util.StoreJsonParser;
+import com.fooddelivery.communication.payloads.SalesDataEntry;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-// import java.util.List; // Not explicitly needed here if Store handles its product list internally
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Worker {
 
@@ -21,63 +26,243 @@ public class Worker {
     private ServerSocket serverSocket;
     private boolean isRunning;
     private final Map<String, Store> localStores;
+    private final Map<String, Store> allStoresView;
+    private final StoreSpatialIndex spatialIndex = new StoreSpatialIndex(); // Kept in step with localStores by addStore
+    private final StoreAttributeIndex attributeIndex = new StoreAttributeIndex(); // Updated whenever category, price category or stars change
+    private final SalesAggregates salesAggregates = new SalesAggregates(); // Fed by each store's SaleListener
+    static final double SEARCH_RADIUS_KM = 5.0; // When the request does not set a radius; also used by the Master's search cache
+    static final double MAX_SEARCH_RADIUS_KM = 50.0; // Largest radius the Master accepts from clients
+    // Striped per-store write locks: mutations of one store only serialize with mutations of stores in the same
+    // stripe. Search, sales reports and map tasks take no lock and read the stores' thread-safe state directly.
+    // ReentrantLocks rather than monitors, so handlers on virtual threads do not pin their carrier thread.
+    private static final int STORE_LOCK_STRIPES = 64;
+    private final ReentrantLock[] storeLocks = new ReentrantLock[STORE_LOCK_STRIPES];
     private ExecutorService masterRequestExecutorService;
+    // Runs the individual requests of multiplexed Master connections, so their answers can complete out of order.
+    // One virtual thread per request when virtual threads are enabled, otherwise a fixed pool.
+    private ExecutorService requestProcessingExecutorService;
+    private final AtomicInteger requestsInFlight = new AtomicInteger(); // Submitted and not finished; the load reported to the Master
+    private WorkerHeartbeatSender heartbeatSender; // Only when started with a master address
+    // Request processing times since the last heartbeat, reported to the Master as the recent average latency.
+    private final LongAdder recentRequestNanos = new LongAdder();
+    private final LongAdder recentRequestCount = new LongAdder();
+    // Stores held here as replicas, mapped to the id of their primary worker. Every other store is a primary
+    // copy: the Master routes its writes here and this worker replicates them (see ReplicationManager).
+    private final Map<String, String> replicaPrimaries = new ConcurrentHashMap<>();
+    private final ReplicationManager replication = new ReplicationManager(this);
+    private final StorePersistence persistence; // Null unless -Dfooddelivery.worker.dataDir is set
 
 
     public Worker(int port) {
         this.port = port;
-        this.localStores = Collections.synchronizedMap(new HashMap<>());
+        this.localStores = new ConcurrentHashMap<>();
+        this.allStoresView = java.util.Collections.unmodifiableMap(localStores);
+        for (int i = 0; i < storeLocks.length; i++) {
+            storeLocks[i] = new ReentrantLock();
+        }
         this.isRunning = false;
-        this.masterRequestExecutorService = Executors.newCachedThreadPool();
+        this.masterRequestExecutorService = ServerExecutors.newBlockingIoExecutor();
+        this.requestProcessingExecutorService = ServerExecutors.newBlockingIoExecutor(Runtime.getRuntime().availableProcessors() * 2);
+        StorePersistence storePersistence = null;
+        try {
+            storePersistence = StorePersistence.open(port);
+        } catch (IOException e) {
+            System.err.println("Worker (" + port + "): Cannot use data directory, stores will not be persisted: " + e.getMessage());
+        }
+        this.persistence = storePersistence;
     }
     
     public int getPort() { return port; }
 
-    public synchronized String addProductToStore(String storeName, Product newProductDetails) {
-        Store store = localStores.get(storeName);
-        if (store == null) {
-            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
+    // Runs one request of a multiplexed Master connection on the request pool. Throws RejectedExecutionException
+    // once the worker is shutting down.
+    void submitRequest(Runnable request) {
+        requestsInFlight.incrementAndGet();
+        try {
+            requestProcessingExecutorService.submit(() -> {
+                try {
+                    request.run();
+                } finally {
+                    requestsInFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            requestsInFlight.decrementAndGet();
+            throw e;
         }
-        Product existingProduct = store.findProduct(newProductDetails.getProductName());
-        if (existingProduct != null) {
-            // Option 1: Update existing product (if allowed by requirements)
-            // existingProduct.setPrice(newProductDetails.getPrice());
-            // existingProduct.setAvailableAmount(newProductDetails.getAvailableAmount());
-            // existingProduct.setProductType(newProductDetails.getProductType());
-            // existingProduct.setAvailableForCustomer(true); // Make sure it's available
-            // store.calculateAndSetPriceCategory();
-            // System.out.println("Worker (" + port + "): Updated product " + newProductDetails.getProductName() + " in store " + storeName);
-            // return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + newProductDetails.getProductName() + " updated.");
-            
-            // Option 2: Return failure if product already exists (as per current logic)
-             return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Product '" + newProductDetails.getProductName() + "' already exists in store " + storeName + ".");
+    }
+
+    public int getStoreCount() { return localStores.size(); }
+
+    // Requests from the Master being processed or waiting for a thread. Counted rather than read from the pool's
+    // queue, which is always empty with virtual threads.
+    public int getQueueDepth() {
+        return requestsInFlight.get();
+    }
+
+    void recordRequestLatency(long nanos) {
+        recentRequestNanos.add(nanos);
+        recentRequestCount.increment();
+    }
+
+    // Average processing time of the requests since the previous call, in milliseconds (0 if there were none).
+    double takeRecentLatencyMillis() {
+        long count = recentRequestCount.sumThenReset();
+        long nanos = recentRequestNanos.sumThenReset();
+        return count == 0 ? 0.0 : nanos / 1_000_000.0 / count;
+    }
+
+    // Registers with the Master and keeps sending heartbeats until the worker stops.
+    public void startHeartbeats(String masterHost, int masterPort) {
+        heartbeatSender = new WorkerHeartbeatSender(this, masterHost, masterPort);
+        heartbeatSender.start();
+    }
+
+    private ReentrantLock lockFor(String storeName) {
+        return storeLocks[Math.floorMod(storeName.hashCode(), STORE_LOCK_STRIPES)];
+    }
+
+    ReplicationManager getReplication() { return replication; }
+
+    boolean isPrimaryCopy(String storeName) {
+        return localStores.containsKey(storeName) && !replicaPrimaries.containsKey(storeName);
+    }
+
+    // Asks the Master to drop its cached searches around a store whose stars, price category or products changed.
+    // Only the primary copy reports, so a change is sent once.
+    private void searchAttributesChanged(Store store) {
+        if (heartbeatSender != null && isPrimaryCopy(store.getStoreName())) {
+            heartbeatSender.queueSearchInvalidation(store.getLatitude(), store.getLongitude());
         }
-        
-        // Create the new product using details from payload.
-        // The Product object passed (newProductDetails) is already configured by MasterRequestHandler
-        store.addProduct(newProductDetails); 
-        store.calculateAndSetPriceCategory(); // Recalculate price category
-        System.out.println("Worker (" + port + "): Added product " + newProductDetails.getProductName() + " to store " + storeName);
-        return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + newProductDetails.getProductName() + " added to store.");
     }
 
-    public synchronized String removeProductFromStore(String storeName, String productName) {
-        Store store = localStores.get(storeName);
-        if (store == null) {
-            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
+    // Whether the store belongs to one of the partitions (primary worker ids) a broadcast read asked this worker
+    // to serve. A null set, or no cluster view yet, means every store.
+    boolean inPartitions(String storeName, java.util.Set<String> servePrimaries) {
+        if (servePrimaries == null) {
+            return true;
         }
-        Product product = store.findProduct(productName);
-        if (product == null) {
-            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Product '" + productName + "' not found in store " + storeName + ".");
+        String primary = replicaPrimaries.get(storeName);
+        if (primary == null) {
+            primary = replication.getSelfId();
         }
+        return primary == null || servePrimaries.contains(primary);
+    }
+
+    // Called after a change to a store: primary copies get a new version, which is logged and streamed to the
+    // replicas. Most changes hold the store's lock; stock changes (updateProductStock, purchaseItems) do not, so
+    // the version is bumped atomically and the state read afterwards, which makes it include this change.
+    private void storeChanged(Store store) {
+        if (replicaPrimaries.containsKey(store.getStoreName())) {
+            return;
+        }
+        long version = store.nextVersion();
+        String state = JsonUtil.createStoreStateJson(store, version);
+        replication.storeChanged(store.getStoreName(), version, state);
+        if (persistence != null) {
+            persistence.put(store.getStoreName(), null, version, state);
+        }
+    }
+
+    // Reloads the stores persisted by a previous run, before the worker accepts requests.
+    private void recoverStores() {
+        if (persistence == null) {
+            return;
+        }
+        try {
+            Map<String, StorePersistence.Record> records = persistence.recover();
+            for (StorePersistence.Record record : records.values()) {
+                try {
+                    Store store = StoreJsonParser.parseStoreJson(record.stateJson);
+                    install(store);
+                    if (!record.primaryId.isEmpty()) {
+                        replicaPrimaries.put(store.getStoreName(), record.primaryId);
+                    }
+                } catch (StoreJsonParser.JsonParseException e) {
+                    System.err.println("Worker (" + port + "): Skipping unreadable persisted store " + record.storeName + ": " + e.getMessage());
+                }
+            }
+            System.out.println("Worker (" + port + "): Recovered " + localStores.size() + " stores (" + replicaPrimaries.size() + " replicas) from " + persistence.getDirectory());
+            persistence.start(this::captureStoreStates);
+        } catch (IOException e) {
+            System.err.println("Worker (" + port + "): Could not recover stores from " + persistence.getDirectory() + ": " + e.getMessage());
+        }
+    }
+
+    // Every store's current state, read under its lock, for a persistence snapshot.
+    private List<StorePersistence.Record> captureStoreStates() {
+        List<StorePersistence.Record> states = new ArrayList<>();
+        for (String storeName : localStores.keySet()) {
+            withStoreLocked(storeName, store -> states.add(new StorePersistence.Record(StorePersistence.RECORD_PUT,
+                storeName, replicaPrimaries.get(storeName), JsonUtil.createStoreStateJson(store))));
+        }
+        return states;
+    }
+
+    public String addProductToStore(String storeName, Product newProductDetails) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            Store store = localStores.get(storeName);
+            if (store == null) {
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
+            }
+            Product existingProduct = store.findProduct(newProductDetails.getProductName());
+            if (existingProduct != null) {
+                // Option 1: Update existing product (if allowed by requirements)
+                // existingProduct.setPrice(newProductDetails.getPrice());
+                // existingProduct.setAvailableAmount(newProductDetails.getAvailableAmount());
+                // existingProduct.setProductType(newProductDetails.getProductType());
+                // existingProduct.setAvailableForCustomer(true); // Make sure it's available
+                // store.calculateAndSetPriceCategory();
+                // System.out.println("Worker (" + port + "): Updated product " + newProductDetails.getProductName() + " in store " + storeName);
+                // return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + newProductDetails.getProductName() + " updated.");
+            
+                // Option 2: Return failure if product already exists (as per current logic)
+                 return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Product '" + newProductDetails.getProductName() + "' already exists in store " + storeName + ".");
+            }
         
-        product.setAvailableForCustomer(false); 
+            // Create the new product using details from payload.
+            // The Product object passed (newProductDetails) is already configured by MasterRequestHandler
+            store.addProduct(newProductDetails); 
+            store.calculateAndSetPriceCategory(); // Recalculate price category
+            attributeIndex.update(store);
+            storeChanged(store);
+            searchAttributesChanged(store);
+            System.out.println("Worker (" + port + "): Added product " + newProductDetails.getProductName() + " to store " + storeName);
+            return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + newProductDetails.getProductName() + " added to store.");
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    public String removeProductFromStore(String storeName, String productName) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            Store store = localStores.get(storeName);
+            if (store == null) {
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
+            }
+            Product product = store.findProduct(productName);
+            if (product == null) {
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Product '" + productName + "' not found in store " + storeName + ".");
+            }
+        
+            product.setAvailableForCustomer(false); 
+            storeChanged(store);
+            searchAttributesChanged(store);
         
-        System.out.println("Worker (" + port + "): Marked product " + productName + " as unavailable in store " + storeName);
-        return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + productName + " marked as unavailable.");
+            System.out.println("Worker (" + port + "): Marked product " + productName + " as unavailable in store " + storeName);
+            return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Product " + productName + " marked as unavailable.");
+        } finally {
+            storeLock.unlock();
+        }
     }
 
-    public synchronized String updateProductStock(String storeName, String productName, int quantityChange) {
+    // Lock-free: the stock is changed with compare-and-set on the product's counter, so restocks and purchases of
+    // the same store do not queue behind each other or behind the store's lock.
+    public String updateProductStock(String storeName, String productName, int quantityChange) {
         Store store = localStores.get(storeName);
         if (store == null) {
             return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
@@ -86,25 +271,69 @@ public class Worker {
         if (product == null) {
             return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Product '" + productName + "' not found for stock update in store " + storeName + ".");
         }
-        
-        int currentStock = product.getAvailableAmount();
-        int newStock = currentStock + quantityChange;
 
-        if (newStock < 0) {
-            // Decision: either reject, or set to 0. Setting to 0 as per previous example.
-            product.setAvailableAmount(0); 
+        int previousStock = product.adjustStock(quantityChange); // Stops at 0 rather than going negative
+        int newStock = Math.max(0, previousStock + quantityChange);
+        storeChanged(store);
+        if (previousStock + quantityChange < 0) {
             System.out.println("Worker (" + port + "): Stock for " + productName + " in store " + storeName + " would go negative. Set to 0. Original change: " + quantityChange);
             return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Stock for " + productName + " updated. New stock: 0 (original change " + quantityChange + " would lead to negative).");
-
-        } else {
-            product.setAvailableAmount(newStock);
-            System.out.println("Worker (" + port + "): Updated stock for " + productName + " in store " + storeName + " by " + quantityChange + ". New stock: " + product.getAvailableAmount());
-            return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Stock for " + productName + " updated. New stock: " + product.getAvailableAmount());
         }
+        System.out.println("Worker (" + port + "): Updated stock for " + productName + " in store " + storeName + " by " + quantityChange + ". New stock: " + newStock);
+        return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Stock for " + productName + " updated. New stock: " + newStock);
     }
     
+    // Buys all items or none (quantities of repeated products add up). Each item is reserved with a
+    // compare-and-set on its product's stock, which can never take more than is left; if one cannot be reserved,
+    // the ones already taken are released and nothing is sold. Once all are reserved the purchase commits by
+    // recording the sales at their current price. No lock is held, so concurrent purchases of one store only
+    // contend on the counters of the products they share.
+    public String purchaseItems(String storeName, List<com.fooddelivery.communication.payloads.OrderItemPayload> items) {
+        Store store = localStores.get(storeName);
+        if (store == null) {
+            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found.");
+        }
+        Map<String, Integer> quantities = new java.util.LinkedHashMap<>();
+        for (com.fooddelivery.communication.payloads.OrderItemPayload item : items) {
+            if (item.getQuantity() <= 0) {
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Invalid quantity " + item.getQuantity() + " for product '" + item.getProductName() + "'.");
+            }
+            quantities.merge(item.getProductName(), item.getQuantity(), Integer::sum);
+        }
+        Map<Product, Integer> reserved = new java.util.LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            Product product = store.findProduct(entry.getKey());
+            String failure = null;
+            if (product == null || !product.isAvailableForCustomer()) {
+                failure = "Product '" + entry.getKey() + "' is not available in store " + storeName + ".";
+            } else if (!product.tryReserve(entry.getValue())) {
+                failure = "Not enough stock for '" + entry.getKey() + "': requested " + entry.getValue() + ", available " + product.getAvailableAmount() + ".";
+            }
+            if (failure != null) {
+                for (Map.Entry<Product, Integer> taken : reserved.entrySet()) {
+                    taken.getKey().release(taken.getValue());
+                }
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", failure);
+            }
+            reserved.put(product, entry.getValue());
+        }
+
+        double total = 0;
+        for (Map.Entry<Product, Integer> entry : reserved.entrySet()) {
+            Product product = entry.getKey();
+            double price = product.getPrice();
+            store.recordSale(product.getProductName(), entry.getValue(), price);
+            total += entry.getValue() * price;
+        }
+        storeChanged(store); // Logged and replicated like every other change
+        System.out.println("Worker (" + port + "): Purchase of " + quantities.size() + " products from store " + storeName + ", total " + total);
+        return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Purchase completed. Total: " + String.format(java.util.Locale.US, "%.2f", total));
+    }
+
     public void startServer() {
         isRunning = true;
+        recoverStores();
+        replication.start();
         try {
             serverSocket = new ServerSocket(port);
             System.out.println("Worker server started on port " + port);
@@ -129,6 +358,13 @@ public class Worker {
     public void stopServer() {
         System.out.println("Worker (" + port + "): Shutting down server...");
         isRunning = false;
+        if (heartbeatSender != null) {
+            heartbeatSender.stop(); // The Master evicts us once the heartbeats stop
+        }
+        replication.stop();
+        if (persistence != null) {
+            persistence.stop();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) serverSocket.close();
         } catch (IOException e) { System.err.println("Worker (" + port + "): Error closing worker server socket: " + e.getMessage()); }
@@ -142,16 +378,155 @@ public class Worker {
             masterRequestExecutorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        requestProcessingExecutorService.shutdown();
         System.out.println("Worker server (" + port + ") shut down.");
     }
 
-    public synchronized void addStore(Store store) { 
-        if (store != null && store.getStoreName() != null) {
-            localStores.put(store.getStoreName(), store);
-            store.calculateAndSetPriceCategory(); 
+    // Adds (or replaces) a store as a primary copy, as requested by the Master.
+    public void addStore(Store store) {
+        if (store == null || store.getStoreName() == null) return;
+        ReentrantLock storeLock = lockFor(store.getStoreName());
+        storeLock.lock();
+        try {
+            Store replaced = install(store);
+            replicaPrimaries.remove(store.getStoreName());
+            // Above any version the replicas may hold of the store it replaces
+            store.setVersion(Math.max(store.getVersion(), replaced != null ? replaced.getVersion() : 0));
+            storeChanged(store);
+            searchAttributesChanged(store);
             System.out.println("Worker (" + port + "): Added store - " + store.getStoreName() + 
                                ", Price Category: " + store.getPriceCategory() + 
                                ", Products: " + (store.getProducts() != null ? store.getProducts().size() : 0));
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Applies a replicated store state from its primary. Ignored if this worker already holds the store at the
+    // same or a newer version: replication messages may arrive repeated or out of order, and a state queued by
+    // the old primary may arrive after the store was moved here (the move gave it a higher version).
+    boolean installReplica(Store store, String primaryId) {
+        ReentrantLock storeLock = lockFor(store.getStoreName());
+        storeLock.lock();
+        try {
+            Store existing = localStores.get(store.getStoreName());
+            if (existing != null && existing.getVersion() >= store.getVersion()) {
+                return false;
+            }
+            install(store);
+            replicaPrimaries.put(store.getStoreName(), primaryId);
+            if (persistence != null) {
+                persistence.put(store.getStoreName(), primaryId, store.getVersion(), JsonUtil.createStoreStateJson(store));
+            }
+            return true;
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Makes a replica copy the primary copy, when the Master fails a dead primary's stores over to this worker.
+    boolean promoteReplica(String storeName) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            Store store = localStores.get(storeName);
+            if (store == null) {
+                return false;
+            }
+            if (replicaPrimaries.remove(storeName) != null) {
+                storeChanged(store);
+                System.out.println("Worker (" + port + "): Promoted replica of store " + storeName + " to primary.");
+            }
+            return true;
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Publishes a store and indexes it; caller holds the store's lock. Returns the store it replaced, if any.
+    private Store install(Store store) {
+        store.calculateAndSetPriceCategory(); // Before publishing, so lock-free readers never see it unset
+        // Aggregates and listener first: purchases are lock-free, and one landing right after the store is
+        // published must already be counted
+        salesAggregates.addStore(store);
+        store.setSaleListener((s, productName, quantity, revenue) -> salesAggregates.recordSale(s, productName, revenue));
+        Store replaced = localStores.put(store.getStoreName(), store);
+        if (replaced != null) {
+            spatialIndex.remove(replaced);
+            replaced.setSaleListener(null); // Only now that the new store is live
+        }
+        spatialIndex.add(store);
+        attributeIndex.update(store);
+        return replaced;
+    }
+
+    // Removes this worker's primary copy of a store and everything indexed about it; used when the Master moves
+    // the store to another worker. A replica copy is left alone (it may already be the new primary's replica).
+    // Returns false if there was no copy at all.
+    public boolean removeStore(String storeName) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            if (replicaPrimaries.containsKey(storeName)) {
+                return true;
+            }
+            return uninstall(storeName);
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Drops the replica copies this worker should no longer hold under the current cluster view.
+    void dropStaleReplicas() {
+        for (Map.Entry<String, String> entry : replicaPrimaries.entrySet()) {
+            String storeName = entry.getKey();
+            if (replication.shouldHoldReplica(storeName, entry.getValue())) {
+                continue;
+            }
+            ReentrantLock storeLock = lockFor(storeName);
+            storeLock.lock();
+            try {
+                String primary = replicaPrimaries.get(storeName);
+                if (primary != null && !replication.shouldHoldReplica(storeName, primary)) {
+                    replicaPrimaries.remove(storeName);
+                    uninstall(storeName);
+                }
+            } finally {
+                storeLock.unlock();
+            }
+        }
+    }
+
+    private boolean uninstall(String storeName) {
+        Store removed = localStores.remove(storeName);
+        if (removed == null) {
+            return false;
+        }
+        removed.setSaleListener(null);
+        spatialIndex.remove(removed);
+        attributeIndex.remove(storeName);
+        salesAggregates.removeStore(storeName);
+        if (persistence != null) {
+            persistence.drop(storeName);
+        }
+        System.out.println("Worker (" + port + "): Dropped store - " + storeName);
+        return true;
+    }
+
+    // Runs an action on a store while holding its write lock, so the store is not modified meanwhile.
+    // Returns false if the store does not exist.
+    public boolean withStoreLocked(String storeName, java.util.function.Consumer<Store> action) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            Store store = localStores.get(storeName);
+            if (store == null) {
+                return false;
+            }
+            action.accept(store);
+            return true;
+        } finally {
+            storeLock.unlock();
         }
     }
 
@@ -159,13 +534,31 @@ public class Worker {
         return localStores.get(storeName); 
     }
 
+    // A read-only view of the live store map rather than a copy: iteration is weakly consistent, like every other
+    // lock-free reader of localStores.
     public Map<String, Store> getAllStores() { 
-        synchronized (localStores) { 
-            return new HashMap<>(localStores); 
-        } 
+        return allStoresView; 
     }
 
-    public synchronized String getSalesByProductForStore(String storeName) {
+    // Names of the stores this worker is primary for.
+    public List<String> getPrimaryStoreNames() {
+        List<String> names = new ArrayList<>();
+        for (String storeName : localStores.keySet()) {
+            if (!replicaPrimaries.containsKey(storeName)) names.add(storeName);
+        }
+        return names;
+    }
+
+    // Names of the replica copies held here for the given primary worker.
+    public List<String> getReplicaStoreNames(String primaryId) {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, String> entry : replicaPrimaries.entrySet()) {
+            if (entry.getValue().equals(primaryId)) names.add(entry.getKey());
+        }
+        return names;
+    }
+
+    public String getSalesByProductForStore(String storeName) {
         Store store = localStores.get(storeName);
         if (store == null) {
             return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found by worker.");
@@ -173,7 +566,7 @@ public class Worker {
 
         List<com.fooddelivery.communication.payloads.SalesDataEntry> entries = new ArrayList<>();
         Map<String, Integer> salesQuantities = store.getSalesByProduct(); // productName -> quantity
-        
+    
         double storeTotalRevenueFromProducts = 0; // Will be based on current prices
 
         if (salesQuantities != null && !salesQuantities.isEmpty()) {
@@ -181,7 +574,7 @@ public class Worker {
                 String productName = entry.getKey();
                 int quantitySold = entry.getValue();
                 Product product = store.findProduct(productName); 
-                
+            
                 double revenueForThisProduct = 0;
                 if (product != null) {
                     // Calculate revenue for this product based on its current price.
@@ -196,7 +589,7 @@ public class Worker {
                 storeTotalRevenueFromProducts += revenueForThisProduct;
             }
         }
-        
+    
         // Using store.getTotalRevenue() which is updated by recordSale with actual price at time of sale.
         // This is more accurate than storeTotalRevenueFromProducts if product prices change.
         return JsonUtil.createSalesResponseJson(
@@ -207,47 +600,55 @@ public class Worker {
         );
     }
 
-    public synchronized String handleWorkerSearchStoresRequest(com.fooddelivery.communication.payloads.SearchStoresRequestPayload requestPayload) {
+    // Returns the matches rather than their JSON, so the request handler can stream them to the Master.
+    // servePrimaries limits the answer to the partitions the Master assigned to this worker (null: all stores).
+    // A ranked search (see SearchRanking) gets only this worker's best `limit` matches after the cursor, sorted.
+    public List<com.fooddelivery.communication.payloads.StoreInfoForClient> handleWorkerSearchStoresRequest(com.fooddelivery.communication.payloads.SearchStoresRequestPayload requestPayload, java.util.Set<String> servePrimaries) {
         List<com.fooddelivery.communication.payloads.StoreInfoForClient> matchingStores = new ArrayList<>();
-        Map<String, Store> currentLocalStores = getAllStores(); // Gets a copy
-
-        com.fooddelivery.model.Coordinates clientCoords = new com.fooddelivery.model.Coordinates(requestPayload.getClientLatitude(), requestPayload.getClientLongitude());
+        SearchRanking.TopK ranked = SearchRanking.isRanked(requestPayload) ? SearchRanking.TopK.forRequest(requestPayload) : null;
+
+        double clientLatitude = requestPayload.getClientLatitude();
+        double clientLongitude = requestPayload.getClientLongitude();
+        // The Master validated the client's radius; its search cache asks for a little more (see SearchResultCache)
+        double radiusKm = requestPayload.getRadiusKm() > 0 ? requestPayload.getRadiusKm() : SEARCH_RADIUS_KM;
+        StoreSpatialIndex.SearchCircle circle = new StoreSpatialIndex.SearchCircle(clientLatitude, clientLongitude, radiusKm);
+
+        // Category, price and star filters are answered by the attribute index as one bitset of store ordinals
+        boolean filtered = (requestPayload.getFoodCategoryFilter() != null && !requestPayload.getFoodCategoryFilter().isEmpty())
+                || (requestPayload.getPriceRangeFilter() != null && !requestPayload.getPriceRangeFilter().isEmpty())
+                || requestPayload.getMinStarsFilter() > 0;
+        StoreAttributeIndex.Matches filterMatches = filtered
+                ? attributeIndex.matching(requestPayload.getFoodCategoryFilter(), requestPayload.getPriceRangeFilter(), requestPayload.getMinStarsFilter())
+                : null;
+
+        // Only stores in the grid cells around the client are considered; no lock needed. If the filters are
+        // more selective than the location, walk the filter matches instead and let the distance check prune.
+        List<Store> candidates = spatialIndex.candidatesWithin(circle);
+        if (filterMatches != null && filterMatches.count() < candidates.size()) {
+            candidates = filterMatches.stores();
+        }
 
-        for (Store store : currentLocalStores.values()) {
+        for (Store store : candidates) {
+            if (!inPartitions(store.getStoreName(), servePrimaries)) {
+                continue; // Another holder of its partition answers for it
+            }
             // Initial assumption: store is available unless specific checks fail
-            
-            // 1. Distance Filter (Max 5km)
-            com.fooddelivery.model.Coordinates storeCoords = new com.fooddelivery.model.Coordinates(store.getLatitude(), store.getLongitude());
-            double distance = storeCoords.distanceTo(clientCoords);
-            if (distance > 5.0) { 
+        
+            // 1. Distance Filter (5km unless the request sets a radius): a bounding check first, then the exact distance
+            if (!circle.mayContain(store)) {
+                continue;
+            }
+            double distance = circle.distanceKm(store);
+            if (distance > radiusKm) { 
                 // System.out.println("Worker ("+getPort()+"): Store " + store.getStoreName() + " filtered out by distance: " + distance + "km");
                 continue; 
             }
 
-            // 2. Food Category Filter
-            if (requestPayload.getFoodCategoryFilter() != null && !requestPayload.getFoodCategoryFilter().isEmpty()) {
-                if (!store.getFoodCategory().equalsIgnoreCase(requestPayload.getFoodCategoryFilter())) {
-                    // System.out.println("Worker ("+getPort()+"): Store " + store.getStoreName() + " filtered out by food category.");
-                    continue;
-                }
-            }
-
-            // 3. Stars Filter
-            if (requestPayload.getMinStarsFilter() > 0) { 
-                if (store.getStars() < requestPayload.getMinStarsFilter()) {
-                    // System.out.println("Worker ("+getPort()+"): Store " + store.getStoreName() + " filtered out by stars.");
-                    continue;
-                }
-            }
-
-            // 4. Price Category Filter
-            if (requestPayload.getPriceRangeFilter() != null && !requestPayload.getPriceRangeFilter().isEmpty()) {
-                if (store.getPriceCategory() == null || !store.getPriceCategory().equals(requestPayload.getPriceRangeFilter())) {
-                    // System.out.println("Worker ("+getPort()+"): Store " + store.getStoreName() + " filtered out by price category.");
-                    continue;
-                }
+            // 2. Food category, stars and price category filters
+            if (filterMatches != null && !filterMatches.contains(store.getStoreName())) {
+                continue;
             }
-            
+        
             // If all filters pass, add to results
             com.fooddelivery.communication.payloads.StoreInfoForClient storeInfo = new com.fooddelivery.communication.payloads.StoreInfoForClient(
                 store.getStoreName(),
@@ -259,88 +660,84 @@ public class Worker {
                 store.getLatitude(),
                 store.getLongitude()
             );
-            matchingStores.add(storeInfo);
+            if (ranked != null) {
+                ranked.offer(storeInfo); // Kept only if among the best so far
+            } else {
+                matchingStores.add(storeInfo);
+            }
+        }
+        if (ranked != null) {
+            matchingStores = ranked.sorted();
         }
         System.out.println("Worker ("+getPort()+"): Found " + matchingStores.size() + " stores matching search criteria. Returning to Master.");
-        return JsonUtil.createSearchStoresResponseJson(matchingStores);
+        return matchingStores;
     }
 
-    public synchronized String handleWorkerRateStoreRequest(String storeName, int stars) {
-        Store store = localStores.get(storeName);
-        if (store == null) {
-            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found by worker for rating.");
-        }
+    public String handleWorkerRateStoreRequest(String storeName, int stars) {
+        ReentrantLock storeLock = lockFor(storeName);
+        storeLock.lock();
+        try {
+            Store store = localStores.get(storeName);
+            if (store == null) {
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Store not found by worker for rating.");
+            }
 
-        if (stars < 1 || stars > 5) {
-            // This validation should ideally also be in RateStoreRequestPayload or ClientJsonParser for early client feedback
-            return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Invalid star rating. Must be between 1 and 5.");
-        }
+            if (stars < 1 || stars > 5) {
+                // This validation should ideally also be in RateStoreRequestPayload or ClientJsonParser for early client feedback
+                return JsonUtil.createStatusResponseJson(storeName, "FAILURE", "Invalid star rating. Must be between 1 and 5.");
+            }
 
-        int currentVotes = store.getNoOfVotes();
-        // Store.stars is int, representing current average.
-        double currentAvgStars = store.getStars(); 
+            int currentVotes = store.getNoOfVotes();
+            // Store.stars is int, representing current average.
+            double currentAvgStars = store.getStars(); 
         
-        // Calculate new average. (currentAvg * currentVotes + newRating) / (newTotalVotes)
-        double newAverageStars = ((currentAvgStars * currentVotes) + stars) / (double)(currentVotes + 1);
+            // Calculate new average. (currentAvg * currentVotes + newRating) / (newTotalVotes)
+            double newAverageStars = ((currentAvgStars * currentVotes) + stars) / (double)(currentVotes + 1);
         
-        store.setStars((int) Math.round(newAverageStars)); // Round to nearest int for storage
-        store.setNoOfVotes(currentVotes + 1);
-
-        System.out.println("Worker (" + getPort() + "): Rated store " + storeName + " with " + stars + 
-                           " stars. New avg: " + store.getStars() + ", Total votes: " + store.getNoOfVotes());
-        return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Store rated successfully. New average: " + store.getStars() + ", Total votes: " + store.getNoOfVotes());
+            store.setStars((int) Math.round(newAverageStars)); // Round to nearest int for storage
+            store.setNoOfVotes(currentVotes + 1);
+            attributeIndex.update(store);
+            storeChanged(store);
+            searchAttributesChanged(store);
+
+            System.out.println("Worker (" + getPort() + "): Rated store " + storeName + " with " + stars + 
+                               " stars. New avg: " + store.getStars() + ", Total votes: " + store.getNoOfVotes());
+            return JsonUtil.createStatusResponseJson(storeName, "SUCCESS", "Store rated successfully. New average: " + store.getStars() + ", Total votes: " + store.getNoOfVotes());
+        } finally {
+            storeLock.unlock();
+        }
     }
 
-    public synchronized List<SalesDataEntry> executeMapSalesByProductCategoryTask(String targetProductType) {
-        List<SalesDataEntry> workerResults = new ArrayList<>();
+    public List<SalesDataEntry> executeMapSalesByProductCategoryTask(String targetProductType, java.util.Set<String> servePrimaries) {
         System.out.println("Worker (" + port + "): Starting MAP_SALES_BY_PRODUCT_CATEGORY_TASK for type: " + targetProductType);
-
-        for (Store store : localStores.values()) {
-            double revenueForStoreForProductType = 0;
-            Map<String, Integer> salesByProdQty = store.getSalesByProduct(); // productName -> quantitySold
-
-            for (Map.Entry<String, Integer> saleEntry : salesByProdQty.entrySet()) {
-                String productName = saleEntry.getKey();
-                int quantitySold = saleEntry.getValue();
-                Product product = store.findProduct(productName);
-
-                if (product != null && product.getProductType().equalsIgnoreCase(targetProductType)) {
-                    // Using current price. For historical accuracy, price at time of sale is needed.
-                    revenueForStoreForProductType += product.getPrice() * quantitySold;
-                }
-            }
-
-            if (revenueForStoreForProductType > 0) {
-                // For this task, itemName in SalesDataEntry will be the storeName
-                // totalQuantity can be a placeholder (e.g., 0 or 1) as we sum revenue.
-                workerResults.add(new SalesDataEntry(store.getStoreName(), 0, revenueForStoreForProductType));
-            }
-        }
+        // For this task, itemName in SalesDataEntry is the storeName and totalQuantity a placeholder (0).
+        List<SalesDataEntry> workerResults = salesAggregates.revenueByStoreForProductType(targetProductType);
+        workerResults.removeIf(entry -> !inPartitions(entry.getItemName(), servePrimaries));
         System.out.println("Worker (" + port + "): Finished MAP_SALES_BY_PRODUCT_CATEGORY_TASK. Emitting " + workerResults.size() + " store entries.");
         return workerResults;
     }
 
-    public synchronized List<SalesDataEntry> executeMapSalesByStoreTypeTask(String targetFoodCategory) {
-        List<SalesDataEntry> workerResults = new ArrayList<>();
+    public List<SalesDataEntry> executeMapSalesByStoreTypeTask(String targetFoodCategory, java.util.Set<String> servePrimaries) {
         System.out.println("Worker (" + port + "): Starting MAP_SALES_BY_STORE_TYPE_TASK for FoodCategory: " + targetFoodCategory);
-
-        for (Store store : localStores.values()) {
-            if (store.getFoodCategory().equalsIgnoreCase(targetFoodCategory)) {
-                // For this task, itemName in SalesDataEntry will be the storeName.
-                // totalQuantity can be a placeholder. totalRevenue is the store's overall total revenue.
-                workerResults.add(new SalesDataEntry(store.getStoreName(), 0, store.getTotalRevenue()));
-            }
-        }
+        // For this task, itemName in SalesDataEntry is the storeName and totalRevenue the store's overall total revenue.
+        List<SalesDataEntry> workerResults = salesAggregates.revenueByStoreForFoodCategory(targetFoodCategory);
+        workerResults.removeIf(entry -> !inPartitions(entry.getItemName(), servePrimaries));
         System.out.println("Worker (" + port + "): Finished MAP_SALES_BY_STORE_TYPE_TASK. Emitting " + workerResults.size() + " store entries for food category '" + targetFoodCategory + "'.");
         return workerResults;
     }
 
     public static void main(String[] args) {
-        if (args.length < 1) { System.err.println("Usage: java com.fooddelivery.server.Worker <port>"); System.exit(1); }
+        if (args.length < 1) { System.err.println("Usage: java com.fooddelivery.server.Worker <port> [masterHost:masterPort]"); System.exit(1); }
         try {
             int workerPort = Integer.parseInt(args[0]);
             Worker worker = new Worker(workerPort);
             Runtime.getRuntime().addShutdownHook(new Thread(worker::stopServer));
+            if (args.length > 1) {
+                // Optional: join the Master's cluster by registering and sending heartbeats
+                String[] master = args[1].split(":");
+                if (master.length != 2) { System.err.println("Master address must be host:port: " + args[1]); System.exit(1); }
+                worker.startHeartbeats(master[0], Integer.parseInt(master[1]));
+            }
             worker.startServer();
         } catch (NumberFormatException e) { System.err.println("Invalid port number: " + args[0]); System.exit(1); }
     }
@@ -0,0 +1,167 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.BinaryCodec;
+import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.communication.WorkerProtocol;
+import com.fooddelivery.util.JsonReader;
+import com.fooddelivery.util.StoreJsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A long-lived, multiplexed Master -> Worker connection. Every request and response is tagged with a
+// correlation ID (see WorkerProtocol), so many requests can be in flight at once and the worker may
+// answer them in any order. A dedicated reader thread matches incoming responses to waiting callers.
+class WorkerConnection {
+    private static final AtomicLong requestIdSequence = new AtomicLong();
+
+    private final String workerId;
+    private final Socket socket;
+    private final PrintWriter out;
+    private final BufferedReader in;
+    private final Map<Long, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock(); // Keeps the two lines of a request together
+    private volatile long lastUsedMillis;
+    private volatile boolean broken;
+    private volatile int binaryCodecVersion; // 0 until negotiated: JSON payloads only
+
+    WorkerConnection(String workerId, String host, int port, int connectTimeoutMillis) throws IOException {
+        this.workerId = workerId;
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.lastUsedMillis = System.currentTimeMillis();
+
+        ServerExecutors.startDaemon("worker-conn-reader-" + workerId, this::readResponses);
+    }
+
+    // Sends one request and waits up to timeoutMillis for its response line (without the correlation prefix).
+    // Returns null if the worker closed the connection before answering. A timeout only abandons this request;
+    // the connection stays usable for other requests and the late response is discarded when it arrives.
+    String call(String firstLineToWorker, String payload, int timeoutMillis) throws IOException {
+        long requestId = requestIdSequence.incrementAndGet();
+        CompletableFuture<String> responseFuture = new CompletableFuture<>();
+        pendingRequests.put(requestId, responseFuture);
+        try {
+            writeLock.lock();
+            try {
+                if (broken) {
+                    throw new ConnectionBrokenException("Connection to worker " + workerId + " is closed.");
+                }
+                out.println(WorkerProtocol.withRequestId(requestId, firstLineToWorker));
+                out.println(payload);
+                if (out.checkError()) {
+                    close();
+                    throw new ConnectionBrokenException("Write to worker " + workerId + " failed.");
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            lastUsedMillis = System.currentTimeMillis();
+            return responseFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Worker " + workerId + " did not answer request " + requestId + " within " + timeoutMillis + "ms.");
+        } catch (ExecutionException e) {
+            throw new IOException("Connection to worker " + workerId + " failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for worker " + workerId + ".");
+        } finally {
+            pendingRequests.remove(requestId);
+        }
+    }
+
+    // Offers the binary payload codec to the worker; afterwards getBinaryCodecVersion() tells which encoding it accepts.
+    // Workers that predate the codec answer the unknown request with a FAILURE status and the connection stays on JSON.
+    void negotiateBinaryCodec(int timeoutMillis) throws IOException {
+        String response = call(MessageType.NEGOTIATE_CODEC_REQUEST.name(), "{\"binaryCodecVersion\":" + BinaryCodec.VERSION + "}", timeoutMillis);
+        if (response == null) {
+            return;
+        }
+        try {
+            int offered = 0;
+            JsonReader reader = new JsonReader(response);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("binaryCodecVersion")) {
+                    offered = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            binaryCodecVersion = Math.min(offered, BinaryCodec.VERSION);
+        } catch (StoreJsonParser.JsonParseException e) {
+            System.err.println("Master: Unreadable codec negotiation response from worker " + workerId + ", using JSON: " + e.getMessage());
+        }
+    }
+
+    private void readResponses() {
+        try {
+            String responseLine;
+            while ((responseLine = in.readLine()) != null) {
+                long responseId = WorkerProtocol.parseRequestId(responseLine);
+                CompletableFuture<String> responseFuture = pendingRequests.remove(responseId);
+                if (responseFuture != null) {
+                    responseFuture.complete(WorkerProtocol.stripRequestId(responseLine));
+                } else {
+                    System.err.println("Master: Discarding response " + responseId + " from worker " + workerId + " (caller gave up or unknown ID).");
+                }
+                lastUsedMillis = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            if (!broken) {
+                System.err.println("Master: Connection to worker " + workerId + " lost: " + e.getMessage());
+            }
+        } finally {
+            close();
+            // Whoever is still waiting gets "no response" rather than waiting for its timeout.
+            for (CompletableFuture<String> responseFuture : pendingRequests.values()) {
+                responseFuture.complete(null);
+            }
+        }
+    }
+
+    String getWorkerId() { return workerId; }
+    long getLastUsedMillis() { return lastUsedMillis; }
+    int getBinaryCodecVersion() { return binaryCodecVersion; }
+    int getInFlightCount() { return pendingRequests.size(); }
+    boolean isUsable() { return !broken && !socket.isClosed(); }
+
+    void close() {
+        broken = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful to do, the connection is being discarded anyway.
+        }
+    }
+
+    // Thrown when the request could not be written at all, so it is safe to retry it on another connection.
+    static class ConnectionBrokenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ConnectionBrokenException(String message) { super(message); }
+    }
+}
@@ -0,0 +1,168 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Persistent, multiplexed connections to one Worker. Connections are shared: each one carries many
+// requests in flight at once, and a new connection is only opened when every existing one already
+// has MAX_IN_FLIGHT_PER_CONNECTION outstanding requests. So the Master does not pay a TCP handshake
+// (and leave a TIME_WAIT socket behind) for every store mutation, and a slow request does not hold a
+// whole connection. Idle connections are pinged periodically (see healthCheckIdleConnections), which
+// keeps them open on the worker side and weeds out connections to a worker that went away.
+class WorkerConnectionPool {
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int HEALTH_CHECK_TIMEOUT_MS = 2000;
+    private static final int MAX_IN_FLIGHT_PER_CONNECTION = 64;
+
+    private final String workerId;
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final List<WorkerConnection> connections = new CopyOnWriteArrayList<>();
+    private final ReentrantLock openLock = new ReentrantLock();
+    private final Semaphore inFlightPermits; // Caps concurrent requests to this worker across all connections
+
+    WorkerConnectionPool(String workerId, String host, int port, int maxConnections) {
+        this.workerId = workerId;
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.inFlightPermits = new Semaphore(maxConnections * MAX_IN_FLIGHT_PER_CONNECTION, true);
+    }
+
+    // Produces the payload line for a connection, given the binary codec version that connection negotiated (0 = JSON only).
+    interface PayloadEncoder {
+        String encode(int binaryCodecVersion);
+    }
+
+    // Sends a request over a pooled connection and returns the worker's response line (null if the worker closed the connection).
+    // If the request could not even be written (dead pooled connection) it is retried once on another connection.
+    String call(String firstLineToWorker, String payload, int timeoutMillis) throws IOException {
+        return call(firstLineToWorker, codecVersion -> payload, timeoutMillis);
+    }
+
+    // As above, with the payload encoded for whichever connection ends up carrying the request.
+    String call(String firstLineToWorker, PayloadEncoder payloadEncoder, int timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        acquirePermit(timeoutMillis);
+        try {
+            WorkerConnection connection = selectConnection(deadline);
+            try {
+                return connection.call(firstLineToWorker, payloadEncoder.encode(connection.getBinaryCodecVersion()), remaining(deadline));
+            } catch (WorkerConnection.ConnectionBrokenException e) {
+                System.err.println("Master: Pooled connection to worker " + workerId + " failed (" + e.getMessage() + "), retrying on a new connection.");
+                connection.close();
+                connections.remove(connection);
+                WorkerConnection retryConnection = selectConnection(deadline); // Same cap as any other request
+                return retryConnection.call(firstLineToWorker, payloadEncoder.encode(retryConnection.getBinaryCodecVersion()), remaining(deadline));
+            }
+        } finally {
+            inFlightPermits.release();
+        }
+    }
+
+    // Pings every connection that has carried no traffic for at least idleMillis; dead connections are closed and dropped.
+    void healthCheckIdleConnections(long idleMillis) {
+        long now = System.currentTimeMillis();
+        for (WorkerConnection connection : connections) {
+            if (!connection.isUsable()) {
+                connections.remove(connection);
+                continue;
+            }
+            if (connection.getInFlightCount() > 0 || now - connection.getLastUsedMillis() < idleMillis) {
+                continue;
+            }
+            try {
+                if (connection.call(MessageType.HEALTH_CHECK_REQUEST.name(), "{}", HEALTH_CHECK_TIMEOUT_MS) == null) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Master: Health check failed on connection to worker " + workerId + ": " + e.getMessage());
+                connection.close();
+            }
+            if (!connection.isUsable()) {
+                connections.remove(connection);
+            }
+        }
+    }
+
+    void close() {
+        for (WorkerConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    int getConnectionCount() { return connections.size(); }
+
+    // Requests currently waiting for this worker's answers, over all connections.
+    int getInFlightCount() {
+        int inFlight = 0;
+        for (WorkerConnection connection : connections) {
+            inFlight += connection.getInFlightCount();
+        }
+        return inFlight;
+    }
+
+    // Picks the least loaded usable connection, opening another one while all are busy and the cap allows it.
+    private WorkerConnection selectConnection(long deadline) throws IOException {
+        WorkerConnection best = null;
+        for (WorkerConnection connection : connections) {
+            if (!connection.isUsable()) {
+                connections.remove(connection);
+            } else if (best == null || connection.getInFlightCount() < best.getInFlightCount()) {
+                best = connection;
+            }
+        }
+        if (best != null && best.getInFlightCount() < MAX_IN_FLIGHT_PER_CONNECTION) {
+            return best;
+        }
+        openLock.lock(); // Not synchronized: connecting blocks, and that must not pin a virtual thread's carrier
+        try {
+            if (connections.size() < maxConnections || best == null) {
+                return openConnection(deadline);
+            }
+        } finally {
+            openLock.unlock();
+        }
+        return best; // All connections busy and at the cap; the in-flight permit still bounds the total.
+    }
+
+    private WorkerConnection openConnection(long deadline) throws IOException {
+        WorkerConnection connection = new WorkerConnection(workerId, host, port, Math.min(CONNECT_TIMEOUT_MS, remaining(deadline)));
+        try {
+            connection.negotiateBinaryCodec(Math.min(CONNECT_TIMEOUT_MS, remaining(deadline)));
+        } catch (WorkerConnection.ConnectionBrokenException e) {
+            connection.close();
+            throw e;
+        } catch (IOException e) {
+            // No answer in time: keep the connection but stay on JSON, which every worker understands.
+            System.err.println("Master: Codec negotiation with worker " + workerId + " failed, using JSON: " + e.getMessage());
+        }
+        connections.add(connection);
+        return connection;
+    }
+
+    private void acquirePermit(int timeoutMillis) throws IOException {
+        try {
+            if (!inFlightPermits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for capacity on connections to worker " + workerId + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to worker " + workerId + ".");
+        }
+    }
+
+    private static int remaining(long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) throw new IOException("Request deadline exceeded.");
+        return (int) remaining;
+    }
+}
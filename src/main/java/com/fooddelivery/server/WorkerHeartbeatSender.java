@@ -0,0 +1,132 @@
+package com.fooddelivery.server;
+
+import com.fooddelivery.communication.MessageType;
+import com.fooddelivery.util.JsonUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Registers a Worker with its Master, then reports liveness and load every HEARTBEAT_INTERVAL_MS. Each beat is
+// one short request on the Master's client port, like any client request. If the Master answers a heartbeat
+// with FAILURE (it evicted this worker, or it restarted and forgot it) the next beat registers again.
+//
+// The same connection carries search cache invalidations: locations of stores whose stars, price category or
+// products changed are collected and sent every INVALIDATION_FLUSH_MS, so the Master drops its cached searches
+// around them (see SearchResultCache).
+//
+// The worker is announced as <host>:<port>, where host is -Dfooddelivery.worker.host if set, otherwise the
+// local address of the connection to the Master. Registrations, heartbeats and invalidations carry
+// -Dfooddelivery.cluster.secret when it is set, as the Master requires (see ClusterAuth).
+class WorkerHeartbeatSender {
+    static final long HEARTBEAT_INTERVAL_MS = Long.getLong("fooddelivery.worker.heartbeatIntervalMs", 2000);
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int HEARTBEAT_TIMEOUT_MS = 5000;
+    private static final int REGISTRATION_TIMEOUT_MS = 120000; // The Master moves stores to us before it answers
+    private static final long INVALIDATION_FLUSH_MS = 50;
+
+    private final Worker worker;
+    private final String masterHost;
+    private final int masterPort;
+    private final String advertisedHost = System.getProperty("fooddelivery.worker.host");
+    private final String clusterSecret = System.getProperty(ClusterAuth.SECRET_PROPERTY); // The Master refuses our requests without it
+    private ScheduledExecutorService scheduler;
+    private volatile boolean registered;
+    private boolean lastBeatFailed; // Only touched by the scheduler thread; avoids logging every failed beat
+    private final ConcurrentLinkedQueue<double[]> pendingInvalidations = new ConcurrentLinkedQueue<>();
+
+    WorkerHeartbeatSender(Worker worker, String masterHost, int masterPort) {
+        this.worker = worker;
+        this.masterHost = masterHost;
+        this.masterPort = masterPort;
+    }
+
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "worker-heartbeat-" + worker.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::beat, 0, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::flushInvalidations, INVALIDATION_FLUSH_MS, INVALIDATION_FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // A store at this location changed how it matches searches.
+    void queueSearchInvalidation(double latitude, double longitude) {
+        pendingInvalidations.add(new double[] { latitude, longitude });
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void beat() {
+        MessageType type = registered ? MessageType.WORKER_HEARTBEAT_REQUEST : MessageType.WORKER_REGISTER_REQUEST;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(masterHost, masterPort), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(registered ? HEARTBEAT_TIMEOUT_MS : REGISTRATION_TIMEOUT_MS);
+            String host = advertisedHost != null ? advertisedHost : socket.getLocalAddress().getHostAddress();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            out.println(type.name() + ":" + host + ":" + worker.getPort());
+            out.println(JsonUtil.createWorkerHeartbeatJson(worker.getStoreCount(), worker.getQueueDepth(), worker.takeRecentLatencyMillis(),
+                worker.getReplication().getBacklog(), clusterSecret));
+            String response = in.readLine();
+            boolean accepted = "SUCCESS".equals(JsonUtil.extractStatus(response));
+
+            if (type == MessageType.WORKER_REGISTER_REQUEST) {
+                if (accepted) {
+                    registered = true;
+                    System.out.println("Worker (" + worker.getPort() + "): Registered with Master " + masterHost + ":" + masterPort + " as " + host + ":" + worker.getPort());
+                } else {
+                    System.err.println("Worker (" + worker.getPort() + "): Master refused registration: " + response);
+                }
+            } else if (!accepted) {
+                registered = false;
+                System.err.println("Worker (" + worker.getPort() + "): Master no longer knows this worker (" + response + "), registering again.");
+            }
+            lastBeatFailed = false;
+        } catch (IOException e) {
+            if (!lastBeatFailed) {
+                System.err.println("Worker (" + worker.getPort() + "): Cannot reach Master " + masterHost + ":" + masterPort + ": " + e.getMessage());
+            }
+            lastBeatFailed = true;
+        }
+    }
+
+    private void flushInvalidations() {
+        if (pendingInvalidations.isEmpty() || !registered) {
+            return; // Until registration the Master routes no searches here, so it cannot have cached our stores
+        }
+        List<double[]> batch = new ArrayList<>();
+        for (double[] location; (location = pendingInvalidations.poll()) != null; ) {
+            batch.add(location);
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(masterHost, masterPort), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(HEARTBEAT_TIMEOUT_MS);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(MessageType.SEARCH_CACHE_INVALIDATE_REQUEST.name());
+            out.println(JsonUtil.createSearchCacheInvalidationJson(batch, clusterSecret));
+            in.readLine();
+        } catch (IOException e) {
+            // Lost with the Master; its cached searches expire on their own
+            System.err.println("Worker (" + worker.getPort() + "): Could not send " + batch.size() + " search cache invalidations: " + e.getMessage());
+        }
+    }
+}
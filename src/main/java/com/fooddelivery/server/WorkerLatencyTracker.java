@@ -0,0 +1,101 @@
+package com.fooddelivery.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Recent call latencies per worker and read class, as log-scaled histograms, for the Master's adaptive timeouts
+// and hedged reads. A read class is the kind of request (the message type): a worker's searches and its sales
+// map tasks take very different times, and one must not set the other's timeouts.
+//
+// Buckets are quarter-octaves (each about 19% wider than the last) from MIN_BUCKET_MS up, so a percentile is
+// exact to within one bucket whether a worker answers in 0.3 ms or 3 s, and recording is one atomic add.
+//
+// Only the last one to two windows count: every WINDOW_MS the current histogram becomes the previous one and a
+// new one starts, so a worker that recovers from a slow spell gets its short timeouts back within seconds.
+// Windows rotate as samples arrive; after a quiet spell, histograms older than that are ignored when read.
+final class WorkerLatencyTracker {
+    private static final double MIN_BUCKET_MS = 0.125;
+    private static final int SUB_BUCKETS_PER_OCTAVE = 4;
+    private static final int BUCKETS = 96; // Up to 0.125 ms * 2^24, far beyond any timeout
+    private static final long WINDOW_MS = 10000;
+    private static final long MIN_SAMPLES = 20; // Fewer than this and percentiles are not trusted
+
+    private static final class Histogram {
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    }
+
+    private static final class Windows {
+        volatile Histogram current = new Histogram();
+        volatile Histogram previous = new Histogram();
+        final AtomicLong startedMillis = new AtomicLong(System.currentTimeMillis());
+    }
+
+    private static final Histogram EMPTY = new Histogram();
+
+    private final Map<String, Map<String, Windows>> byWorker = new ConcurrentHashMap<>(); // Worker id -> read class -> windows
+
+    void record(String workerId, String readClass, long elapsedNanos) {
+        Windows windows = byWorker.computeIfAbsent(workerId, id -> new ConcurrentHashMap<>())
+            .computeIfAbsent(readClass, c -> new Windows());
+        long now = System.currentTimeMillis();
+        long started = windows.startedMillis.get();
+        if (now - started >= WINDOW_MS && windows.startedMillis.compareAndSet(started, now)) {
+            windows.previous = windows.current; // Samples racing with the switch land in either one; both count
+            windows.current = new Histogram();
+        }
+        windows.current.counts.incrementAndGet(bucketOf(elapsedNanos / 1_000_000.0));
+    }
+
+    // The quantile (0 to 1) of the worker's recent latencies for the read class in milliseconds, rounded up to its
+    // bucket's upper bound, or -1 while there are too few samples to say.
+    double percentileMs(String workerId, String readClass, double quantile) {
+        Map<String, Windows> byReadClass = byWorker.get(workerId);
+        Windows windows = byReadClass == null ? null : byReadClass.get(readClass);
+        if (windows == null) {
+            return -1;
+        }
+        long age = System.currentTimeMillis() - windows.startedMillis.get();
+        if (age >= 2 * WINDOW_MS) {
+            return -1; // No samples for a whole window: everything held is stale
+        }
+        Histogram current = windows.current;
+        Histogram previous = age < WINDOW_MS ? windows.previous : EMPTY; // The previous one ended over a window ago
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = current.counts.get(i) + previous.counts.get(i);
+            total += counts[i];
+        }
+        if (total < MIN_SAMPLES) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundMs(i);
+            }
+        }
+        return upperBoundMs(BUCKETS - 1);
+    }
+
+    // Drops the worker's latencies for every read class.
+    void forget(String workerId) {
+        byWorker.remove(workerId);
+    }
+
+    private static int bucketOf(double millis) {
+        if (millis <= MIN_BUCKET_MS) {
+            return 0;
+        }
+        int bucket = (int) Math.ceil(SUB_BUCKETS_PER_OCTAVE * (Math.log(millis / MIN_BUCKET_MS) / Math.log(2)));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static double upperBoundMs(int bucket) {
+        return MIN_BUCKET_MS * Math.pow(2, (double) bucket / SUB_BUCKETS_PER_OCTAVE);
+    }
+}
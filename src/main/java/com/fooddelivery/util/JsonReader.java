@@ -0,0 +1,325 @@
+package com.fooddelivery.util;
+
+import com.fooddelivery.util.StoreJsonParser.JsonParseException;
+
+// Single-pass pull tokenizer for the JSON documents exchanged by Master, Workers and clients, so the project
+// keeps its "no external libraries" constraint without regex scanning. The parsers walk a document once,
+// asking for names and values in order and skipping what they do not need:
+//
+//   reader.beginObject();
+//   while (reader.hasNext()) {
+//       switch (reader.nextName()) {
+//           case "stars": stars = reader.nextInt(); break;
+//           default: reader.skipValue();
+//       }
+//   }
+//   reader.endObject();
+//
+// Strings without escapes are returned as substrings of the input; numbers are parsed in place.
+// Numeric getters accept quoted numbers and nextString() accepts numbers and booleans, as the
+// hand-built JSON in this project is not always consistent about quoting.
+public class JsonReader {
+
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    // What the tokenizer expects next in the innermost open container.
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4; // Name read, ':' and value expected
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final String json;
+    private int pos;
+    private int[] scopes = new int[16];
+    private int depth = 1;
+    private Token peeked; // Next token if already determined; pos is then at its first character
+
+    public JsonReader(String json) {
+        this.json = json;
+        this.scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws JsonParseException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = scopes[depth - 1];
+        switch (scope) {
+            case EMPTY_ARRAY:
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') return peeked = Token.END_ARRAY;
+                break;
+            case NONEMPTY_ARRAY: {
+                char c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+                pos++;
+                break;
+            }
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT: {
+                char c = nextNonWhitespace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("Expected a name");
+                scopes[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                pos++;
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                nextNonWhitespace(); // Fails on an empty document
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default: // NONEMPTY_DOCUMENT: anything after the top-level value is ignored
+                return peeked = Token.END_DOCUMENT;
+        }
+
+        char c = nextNonWhitespace();
+        switch (c) {
+            case '{': return peeked = Token.BEGIN_OBJECT;
+            case '[': return peeked = Token.BEGIN_ARRAY;
+            case '"': return peeked = Token.STRING;
+            case 't':
+            case 'f': return peeked = Token.BOOLEAN;
+            case 'n': return peeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return peeked = Token.NUMBER;
+                throw syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    public void beginObject() throws JsonParseException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws JsonParseException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    public void beginArray() throws JsonParseException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws JsonParseException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    // True while the current object or array has more elements.
+    public boolean hasNext() throws JsonParseException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws JsonParseException {
+        expect(Token.NAME);
+        peeked = null;
+        return readQuoted();
+    }
+
+    // The string value; numbers and booleans are returned as their literal text, null as null.
+    public String nextString() throws JsonParseException {
+        Token token = peek();
+        peeked = null;
+        switch (token) {
+            case STRING: return readQuoted();
+            case NUMBER:
+            case BOOLEAN: return readLiteral();
+            case NULL: readLiteral(); return null;
+            default:
+                peeked = token;
+                throw syntaxError("Expected a string but was " + token);
+        }
+    }
+
+    public double nextDouble() throws JsonParseException {
+        String text = nextNumberText();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Invalid number '" + text + "' at position " + pos, e);
+        }
+    }
+
+    public long nextLong() throws JsonParseException {
+        String text = nextNumberText();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(text); // e.g. 4.0 or 1e3
+            } catch (NumberFormatException e2) {
+                throw new JsonParseException("Invalid number '" + text + "' at position " + pos, e2);
+            }
+        }
+    }
+
+    public int nextInt() throws JsonParseException {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new JsonParseException("Number " + value + " out of int range at position " + pos);
+        }
+        return (int) value;
+    }
+
+    public boolean nextBoolean() throws JsonParseException {
+        Token token = peek();
+        if (token != Token.BOOLEAN && token != Token.STRING) {
+            throw syntaxError("Expected a boolean but was " + token);
+        }
+        String text = nextString();
+        if ("true".equals(text)) return true;
+        if ("false".equals(text)) return false;
+        throw new JsonParseException("Invalid boolean '" + text + "' at position " + pos);
+    }
+
+    public void nextNull() throws JsonParseException {
+        expect(Token.NULL);
+        peeked = null;
+        readLiteral();
+    }
+
+    // Skips the next value, including everything nested inside it.
+    public void skipValue() throws JsonParseException {
+        int skipDepth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT: beginObject(); skipDepth++; break;
+                case BEGIN_ARRAY: beginArray(); skipDepth++; break;
+                case END_OBJECT: endObject(); skipDepth--; break;
+                case END_ARRAY: endArray(); skipDepth--; break;
+                case NAME: nextName(); break;
+                case END_DOCUMENT: throw syntaxError("Unexpected end of document");
+                default: nextString(); break;
+            }
+        } while (skipDepth > 0);
+    }
+
+    private String nextNumberText() throws JsonParseException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        return nextString().trim();
+    }
+
+    private void expect(Token expected) throws JsonParseException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] grown = new int[scopes.length * 2];
+            System.arraycopy(scopes, 0, grown, 0, scopes.length);
+            scopes = grown;
+        }
+        scopes[depth++] = scope;
+    }
+
+    // Reads the string starting at the opening quote at pos, leaving pos after the closing quote.
+    private String readQuoted() throws JsonParseException {
+        int start = pos + 1;
+        int end = start;
+        while (end < json.length()) {
+            char c = json.charAt(end);
+            if (c == '"') {
+                pos = end + 1;
+                return json.substring(start, end);
+            }
+            if (c == '\\') {
+                return readEscaped(start, end);
+            }
+            end++;
+        }
+        throw new JsonParseException("Unterminated string starting at position " + pos);
+    }
+
+    private String readEscaped(int start, int firstEscape) throws JsonParseException {
+        StringBuilder sb = new StringBuilder(firstEscape - start + 16);
+        sb.append(json, start, firstEscape);
+        int i = firstEscape;
+        while (i < json.length()) {
+            char c = json.charAt(i++);
+            if (c == '"') {
+                pos = i;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= json.length()) break;
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 > json.length()) throw new JsonParseException("Truncated unicode escape at position " + i);
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new JsonParseException("Invalid unicode escape at position " + i, e);
+                    }
+                    i += 4;
+                    break;
+                default: sb.append(escaped); // \" \\ \/
+            }
+        }
+        throw new JsonParseException("Unterminated string starting at position " + (start - 1));
+    }
+
+    // Reads an unquoted number or literal (true/false/null) up to the next delimiter.
+    private String readLiteral() {
+        int start = pos;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) break;
+            pos++;
+        }
+        return json.substring(start, pos);
+    }
+
+    private char nextNonWhitespace() throws JsonParseException {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+        if (scopes[depth - 1] == NONEMPTY_DOCUMENT) {
+            return '\0'; // Only reached from peek() after the top-level value
+        }
+        throw new JsonParseException("Unexpected end of JSON at position " + pos);
+    }
+
+    private JsonParseException syntaxError(String message) {
+        return new JsonParseException(message + " at position " + pos + ".");
+    }
+}
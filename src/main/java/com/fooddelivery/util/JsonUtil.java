@@ -1,19 +1,27 @@
 package com.fooddelivery.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
 
 public class JsonUtil {
 
-    // Extracts StoreName from a JSON string. Very basic, assumes specific format.
+    // Extracts the top-level StoreName from a store JSON string; null if missing or the JSON is malformed.
     public static String extractStoreName(String jsonPayload) {
         if (jsonPayload == null) return null;
-        // Regex to find "StoreName" : "value"
-        // This is fragile and only works for simple, predictable JSON structures.
-        Pattern pattern = Pattern.compile("\"StoreName\"\\s*:\\s*\"([^\"]+)\"");
-        Matcher matcher = pattern.matcher(jsonPayload);
-        if (matcher.find()) {
-            return matcher.group(1);
+        try {
+            JsonReader reader = new JsonReader(jsonPayload);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("StoreName") && reader.peek() == JsonReader.Token.STRING) {
+                    String storeName = reader.nextString();
+                    return storeName.isEmpty() ? null : storeName;
+                }
+                reader.skipValue();
+            }
+        } catch (StoreJsonParser.JsonParseException e) {
+            // Fall through, treated like a missing StoreName
         }
         return null; // Or throw an exception if StoreName is mandatory
     }
@@ -33,7 +41,13 @@ public class JsonUtil {
         return sb.toString();
     }
     
-    private static String escapeJsonString(String value) {
+    // Worker's answer to NEGOTIATE_CODEC_REQUEST: a SUCCESS status plus the binary codec version it will use.
+    public static String createCodecNegotiationResponseJson(int binaryCodecVersion, String message) {
+        String status = createStatusResponseJson(null, "SUCCESS", message);
+        return status.substring(0, status.length() - 1) + ",\"binaryCodecVersion\":" + binaryCodecVersion + "}";
+    }
+
+    public static String escapeJsonString(String value) {
         if (value == null) return "";
         // Basic escaping for quotes and backslashes. Not comprehensive.
         return value.replace("\\", "\\\\").replace("\"", "\\\"");
@@ -71,23 +85,28 @@ public class JsonUtil {
     }
 
     public static String createSalesResponseJson(String queryType, String queryContext, List<com.fooddelivery.communication.payloads.SalesDataEntry> entries, double grandTotal) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append("\"queryType\":\"").append(escapeJsonString(queryType)).append("\",");
-        sb.append("\"queryContext\":\"").append(escapeJsonString(queryContext)).append("\",");
-        sb.append("\"grandTotalRevenue\":").append(grandTotal).append(",");
-        sb.append("\"entries\":[");
-        for (int i = 0; i < entries.size(); i++) {
-            // SalesDataEntry.toString() is designed to produce a JSON object string.
-            // This assumes SalesDataEntry.toString() correctly escapes its internal values.
-            sb.append(entries.get(i).toString());
-            if (i < entries.size() - 1) {
-                sb.append(",");
+        StringWriter sw = new StringWriter();
+        writeSalesResponse(new PrintWriter(sw), queryType, queryContext, entries, grandTotal);
+        return sw.toString();
+    }
+
+    // Streams the sales response JSON into out (no line terminator), without building it as a String.
+    public static void writeSalesResponse(PrintWriter out, String queryType, String queryContext, List<com.fooddelivery.communication.payloads.SalesDataEntry> entries, double grandTotal) {
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            writer.name("queryType").value(nullToEmpty(queryType));
+            writer.name("queryContext").value(nullToEmpty(queryContext));
+            writer.name("grandTotalRevenue").value(grandTotal);
+            writer.name("entries").beginArray();
+            for (com.fooddelivery.communication.payloads.SalesDataEntry entry : entries) {
+                writeSalesDataEntry(writer, entry);
             }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            // PrintWriter does not throw; write errors are reported through out.checkError()
         }
-        sb.append("]");
-        sb.append("}");
-        return sb.toString();
     }
 
     public static String createSalesRequestJson(String storeName, String foodCategory, String productType) {
@@ -114,10 +133,22 @@ public class JsonUtil {
     }
 
     public static String createSearchStoresRequestJson(double lat, double lon, String foodCategory, int minStars, String priceRange) {
+        return createSearchStoresRequestJson(lat, lon, foodCategory, minStars, priceRange, 0);
+    }
+
+    public static String createSearchStoresRequestJson(double lat, double lon, String foodCategory, int minStars, String priceRange, double radiusKm) {
+        return createSearchStoresRequestJson(new com.fooddelivery.communication.payloads.SearchStoresRequestPayload(lat, lon, foodCategory, minStars, priceRange, radiusKm));
+    }
+
+    public static String createSearchStoresRequestJson(com.fooddelivery.communication.payloads.SearchStoresRequestPayload request) {
+        String foodCategory = request.getFoodCategoryFilter();
+        int minStars = request.getMinStarsFilter();
+        String priceRange = request.getPriceRangeFilter();
+        double radiusKm = request.getRadiusKm();
         StringBuilder sb = new StringBuilder();
         sb.append("{");
-        sb.append("\"clientLatitude\":").append(lat).append(",");
-        sb.append("\"clientLongitude\":").append(lon);
+        sb.append("\"clientLatitude\":").append(request.getClientLatitude()).append(",");
+        sb.append("\"clientLongitude\":").append(request.getClientLongitude());
         if (foodCategory != null && !foodCategory.isEmpty()) {
             sb.append(",\"foodCategoryFilter\":\"").append(escapeJsonString(foodCategory)).append("\"");
         }
@@ -127,35 +158,72 @@ public class JsonUtil {
         if (priceRange != null && !priceRange.isEmpty()) {
             sb.append(",\"priceRangeFilter\":\"").append(escapeJsonString(priceRange)).append("\"");
         }
+        if (radiusKm > 0) { // 0 means the workers' default
+            sb.append(",\"radiusKm\":").append(radiusKm);
+        }
+        if (request.getSortBy() != null) {
+            sb.append(",\"sortBy\":\"").append(escapeJsonString(request.getSortBy())).append("\"");
+        }
+        if (request.getLimit() != 0) {
+            sb.append(",\"limit\":").append(request.getLimit());
+        }
+        if (request.getCursor() != null) {
+            sb.append(",\"cursor\":\"").append(escapeJsonString(request.getCursor())).append("\"");
+        }
         sb.append("}");
         return sb.toString();
     }
 
     // For SearchStoresResponsePayload (used by Worker and Master)
     public static String createSearchStoresResponseJson(List<com.fooddelivery.communication.payloads.StoreInfoForClient> results) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"results\":[");
-        if (results != null) {
-            for (int i = 0; i < results.size(); i++) {
-                com.fooddelivery.communication.payloads.StoreInfoForClient store = results.get(i);
-                // Manually construct JSON for each StoreInfoForClient
-                sb.append("{");
-                sb.append("\"storeName\":\"").append(escapeJsonString(store.getStoreName())).append("\",");
-                sb.append("\"foodCategory\":\"").append(escapeJsonString(store.getFoodCategory())).append("\",");
-                sb.append("\"stars\":").append(store.getStars()).append(",");
-                sb.append("\"priceCategory\":\"").append(escapeJsonString(store.getPriceCategory())).append("\",");
-                sb.append("\"distanceKm\":").append(String.format("%.2f", store.getDistanceKm())).append(","); // Format distance
-                sb.append("\"storeLogoPath\":\"").append(escapeJsonString(store.getStoreLogoPath())).append("\",");
-                sb.append("\"latitude\":").append(store.getLatitude()).append(",");
-                sb.append("\"longitude\":").append(store.getLongitude());
-                sb.append("}");
-                if (i < results.size() - 1) {
-                    sb.append(",");
+        StringWriter sw = new StringWriter();
+        writeSearchStoresResponse(new PrintWriter(sw), results);
+        return sw.toString();
+    }
+
+    // Streams the search response JSON into out (no line terminator), one store at a time.
+    public static void writeSearchStoresResponse(PrintWriter out, List<com.fooddelivery.communication.payloads.StoreInfoForClient> results) {
+        writeSearchStoresResponse(out, results, null);
+    }
+
+    // nextCursor, if not null, follows the results of a ranked search's page.
+    public static void writeSearchStoresResponse(PrintWriter out, List<com.fooddelivery.communication.payloads.StoreInfoForClient> results, String nextCursor) {
+        writeSearchStoresResponse(out, results, nextCursor, true);
+    }
+
+    // A worker's answer to the Master, with exact distances: the Master ranks, merges and builds cursors from
+    // them, and must see the same values the worker ranked by. Only the response to the client is rounded.
+    public static void writeWorkerSearchStoresResponse(PrintWriter out, List<com.fooddelivery.communication.payloads.StoreInfoForClient> results) {
+        writeSearchStoresResponse(out, results, null, false);
+    }
+
+    private static void writeSearchStoresResponse(PrintWriter out, List<com.fooddelivery.communication.payloads.StoreInfoForClient> results, String nextCursor,
+                                                  boolean roundDistances) {
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject().name("results").beginArray();
+            if (results != null) {
+                for (com.fooddelivery.communication.payloads.StoreInfoForClient store : results) {
+                    writer.beginObject();
+                    writer.name("storeName").value(nullToEmpty(store.getStoreName()));
+                    writer.name("foodCategory").value(nullToEmpty(store.getFoodCategory()));
+                    writer.name("stars").value(store.getStars());
+                    writer.name("priceCategory").value(nullToEmpty(store.getPriceCategory()));
+                    writer.name("distanceKm").value(roundDistances ? Math.round(store.getDistanceKm() * 100) / 100.0 : store.getDistanceKm()); // Two decimals for clients
+                    writer.name("storeLogoPath").value(nullToEmpty(store.getStoreLogoPath()));
+                    writer.name("latitude").value(store.getLatitude());
+                    writer.name("longitude").value(store.getLongitude());
+                    writer.endObject();
                 }
             }
+            writer.endArray();
+            if (nextCursor != null) {
+                writer.name("nextCursor").value(nextCursor);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            // PrintWriter does not throw; write errors are reported through out.checkError()
         }
-        sb.append("]}");
-        return sb.toString();
     }
 
     public static String createRateStoreRequestJson(String storeName, int stars) {
@@ -180,18 +248,199 @@ public class JsonUtil {
 
     // To create JSON for MapTaskResponsePayload (sent by Worker)
     public static String createMapTaskResponseJson(List<com.fooddelivery.communication.payloads.SalesDataEntry> results) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"mappedResults\":[");
-        if (results != null) {
-            for (int i = 0; i < results.size(); i++) {
-                // Assuming SalesDataEntry.toString() produces a valid JSON object string
-                sb.append(results.get(i).toString()); 
-                if (i < results.size() - 1) {
-                    sb.append(",");
+        StringWriter sw = new StringWriter();
+        writeMapTaskResponse(new PrintWriter(sw), results);
+        return sw.toString();
+    }
+
+    // Streams the map task response JSON into out (no line terminator).
+    public static void writeMapTaskResponse(PrintWriter out, List<com.fooddelivery.communication.payloads.SalesDataEntry> results) {
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject().name("mappedResults").beginArray();
+            if (results != null) {
+                for (com.fooddelivery.communication.payloads.SalesDataEntry entry : results) {
+                    writeSalesDataEntry(writer, entry);
                 }
             }
+            writer.endArray().endObject();
+        } catch (IOException e) {
+            // PrintWriter does not throw; write errors are reported through out.checkError()
         }
-        sb.append("]}");
-        return sb.toString();
+    }
+
+    // A store's full state in the onboarding format (StoreJsonParser.parseStoreJson reads it back), plus each
+    // product's availability and the store's sales. Used to move a store from one worker to another.
+    public static String createStoreStateJson(com.fooddelivery.model.Store store) {
+        return createStoreStateJson(store, store.getVersion());
+    }
+
+    // The version is read before the rest of the state: stock changes take no lock, but each one is made before it
+    // bumps the version, so a state labelled version v always includes every change up to v.
+    public static String createStoreStateJson(com.fooddelivery.model.Store store, long version) {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginObject();
+            writer.name("StoreName").value(store.getStoreName());
+            writer.name("Latitude").value(store.getLatitude());
+            writer.name("Longitude").value(store.getLongitude());
+            writer.name("FoodCategory").value(nullToEmpty(store.getFoodCategory()));
+            writer.name("Stars").value(store.getStars());
+            writer.name("NoOfVotes").value(store.getNoOfVotes());
+            writer.name("StoreLogo").value(nullToEmpty(store.getStoreLogoPath()));
+            writer.name("Products").beginArray();
+            for (com.fooddelivery.model.Product product : store.getProducts()) {
+                writer.beginObject();
+                writer.name("ProductName").value(product.getProductName());
+                writer.name("ProductType").value(nullToEmpty(product.getProductType()));
+                writer.name("Available Amount").value(product.getAvailableAmount());
+                writer.name("Price").value(product.getPrice());
+                writer.name("Available").value(product.isAvailableForCustomer());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.name("Sales").beginObject();
+            for (java.util.Map.Entry<String, Integer> sale : store.getSalesByProduct().entrySet()) {
+                writer.name(sale.getKey()).value(sale.getValue());
+            }
+            writer.endObject();
+            writer.name("TotalRevenue").value(store.getTotalRevenue());
+            writer.name("Version").value(version);
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // LIST_STORES_REQUEST payload asking for the replica copies a worker holds for the given primary.
+    public static String createReplicaListRequestJson(String primaryId) {
+        StringWriter sw = new StringWriter();
+        try {
+            new JsonWriter(sw).beginObject().name("primary").value(primaryId).endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // The Master's view of the cluster, sent to each worker (selfId tells it under which id the Master knows it).
+    public static String createClusterViewJson(long epoch, int replicationFactor, String selfId, List<String> workerIds) {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginObject();
+            writer.name("epoch").value(epoch);
+            writer.name("replicationFactor").value(replicationFactor);
+            writer.name("self").value(selfId);
+            writer.name("workers").beginArray();
+            for (String workerId : workerIds) {
+                writer.value(workerId);
+            }
+            writer.endArray().endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // Payload of a request that changes the cluster's membership: {"clusterSecret":".."}, or {} without a secret.
+    public static String createClusterRequestJson(String clusterSecret) {
+        if (clusterSecret == null || clusterSecret.isEmpty()) {
+            return "{}";
+        }
+        StringWriter sw = new StringWriter();
+        try {
+            new JsonWriter(sw).beginObject().name("clusterSecret").value(clusterSecret).endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // Load report sent with worker registration and heartbeats, with the cluster secret if one is configured.
+    public static String createWorkerHeartbeatJson(int storeCount, int queueDepth, double recentLatencyMs, int replicationBacklog, String clusterSecret) {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginObject().name("storeCount").value(storeCount).name("queueDepth").value(queueDepth)
+                .name("recentLatencyMs").value(Math.round(recentLatencyMs * 100) / 100.0)
+                .name("replicationBacklog").value(replicationBacklog);
+            if (clusterSecret != null && !clusterSecret.isEmpty()) {
+                writer.name("clusterSecret").value(clusterSecret);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // {"locations":[{"latitude":..,"longitude":..}]}, the stores a worker asks the Master to drop cached searches around,
+    // with the cluster secret if one is configured.
+    public static String createSearchCacheInvalidationJson(java.util.Collection<double[]> locations, String clusterSecret) {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginObject().name("locations").beginArray();
+            for (double[] location : locations) {
+                writer.beginObject().name("latitude").value(location[0]).name("longitude").value(location[1]).endObject();
+            }
+            writer.endArray();
+            if (clusterSecret != null && !clusterSecret.isEmpty()) {
+                writer.name("clusterSecret").value(clusterSecret);
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // {"storeNames":["A","B"]}, a worker's answer to LIST_STORES_REQUEST.
+    public static String createStoreNamesResponseJson(java.util.Collection<String> storeNames) {
+        StringWriter sw = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginObject().name("storeNames").beginArray();
+            for (String storeName : storeNames) {
+                writer.value(storeName);
+            }
+            writer.endArray().endObject();
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return sw.toString();
+    }
+
+    // The "status" field of a status response (SUCCESS/FAILURE); null if missing or the JSON is malformed.
+    public static String extractStatus(String json) {
+        if (json == null) return null;
+        try {
+            JsonReader reader = new JsonReader(json);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("status")) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+        } catch (StoreJsonParser.JsonParseException e) {
+            // Fall through, treated like a missing status
+        }
+        return null;
+    }
+
+    private static void writeSalesDataEntry(JsonWriter writer, com.fooddelivery.communication.payloads.SalesDataEntry entry) throws IOException {
+        writer.beginObject();
+        writer.name("itemName").value(nullToEmpty(entry.getItemName()));
+        writer.name("totalQuantity").value(entry.getTotalQuantity());
+        writer.name("totalRevenue").value(Math.round(entry.getTotalRevenue() * 100) / 100.0); // Two decimals, as SalesDataEntry.toString()
+        writer.endObject();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value; // The builders always wrote missing strings as ""
     }
 }
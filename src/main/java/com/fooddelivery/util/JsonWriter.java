@@ -0,0 +1,154 @@
+package com.fooddelivery.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Streaming counterpart of JsonReader: encodes JSON token by token straight into a Writer (normally the
+// socket's buffered PrintWriter), so large responses are never materialized as a String first. Commas
+// and escaping are handled here; callers only state the structure:
+//
+//   writer.beginObject().name("results").beginArray();
+//   for (...) { writer.beginObject().name("storeName").value(name).endObject(); }
+//   writer.endArray().endObject();
+//
+// The writer is neither flushed nor closed; that stays with the owner of the underlying stream.
+public class JsonWriter {
+    private final Writer out;
+    // For each open container, whether it already holds an element (so the next one needs a comma).
+    private boolean[] hasElements = new boolean[16];
+    private int depth;
+    private boolean afterName; // A name was written; its value follows without a comma
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        beforeValue();
+        writeQuoted(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    // Writes the string, or null for a null value.
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    // NaN and infinities have no JSON form and are written as null.
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                out.write(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == hasElements.length) {
+            boolean[] grown = new boolean[hasElements.length * 2];
+            System.arraycopy(hasElements, 0, grown, 0, hasElements.length);
+            hasElements = grown;
+        }
+        hasElements[depth++] = false;
+    }
+
+    // Writes runs of plain characters in one call and escapes quotes, backslashes and control characters.
+    private void writeQuoted(String value) throws IOException {
+        out.write('"');
+        int runStart = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) { // Line separators break line-based readers
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            if (i > runStart) {
+                out.write(value, runStart, i - runStart);
+            }
+            out.write(escape);
+            runStart = i + 1;
+        }
+        if (length > runStart) {
+            out.write(value, runStart, length - runStart);
+        }
+        out.write('"');
+    }
+}
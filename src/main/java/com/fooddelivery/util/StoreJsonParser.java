@@ -4,13 +4,13 @@ import com.fooddelivery.model.Product;
 import com.fooddelivery.model.Store;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
-// WARNING: This is a very rudimentary and fragile manual JSON parser.
-// It's provided to meet the "no external libraries" constraint but is not robust
-// for complex or malformed JSON. A proper JSON library is always recommended.
+// Parses store onboarding JSON (and the product management payloads) with the single-pass JsonReader,
+// keeping the "no external libraries" constraint. Unknown keys are skipped. A store exported by a worker
+// (JsonUtil.writeStoreState) is onboarding JSON plus its sales, so it parses here as well.
 public class StoreJsonParser {
 
     public static Store parseStoreJson(String json) throws JsonParseException {
@@ -18,116 +18,104 @@ public class StoreJsonParser {
             throw new JsonParseException("JSON string is null or empty.");
         }
 
-        // Simplify by removing whitespace between tokens, but not within string values
-        // This is still very error prone.
-        // json = json.replaceAll("\s+(?=(?:[^"]*"[^"]*")*[^"]*$)", "");
-
-
-        String storeName = extractStringValue(json, "StoreName");
-        double latitude = extractDoubleValue(json, "Latitude");
-        double longitude = extractDoubleValue(json, "Longitude");
-        String foodCategory = extractStringValue(json, "FoodCategory");
-        int stars = extractIntValue(json, "Stars");
-        int noOfVotes = extractIntValue(json, "NoOfVotes");
-        String storeLogo = extractStringValue(json, "StoreLogo");
-        
-        List<Product> products = parseProductsArray(json);
+        String storeName = null;
+        double latitude = 0.0;
+        double longitude = 0.0;
+        String foodCategory = null;
+        int stars = 0;
+        int noOfVotes = 0;
+        String storeLogo = ""; // Optional field
+        List<Product> products = null;
+        Map<String, Integer> sales = null; // Only in exported store state
+        double totalRevenue = 0.0;
+        long version = 0; // Only in exported store state
+
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "StoreName": storeName = reader.nextString(); break;
+                case "Latitude": latitude = reader.nextDouble(); break;
+                case "Longitude": longitude = reader.nextDouble(); break;
+                case "FoodCategory": foodCategory = reader.nextString(); break;
+                case "Stars": stars = reader.nextInt(); break;
+                case "NoOfVotes": noOfVotes = reader.nextInt(); break;
+                case "StoreLogo": storeLogo = reader.nextString(); break;
+                case "Products": products = parseProductsArray(reader); break;
+                case "Sales": sales = parseSalesObject(reader); break;
+                case "TotalRevenue": totalRevenue = reader.nextDouble(); break;
+                case "Version": version = reader.nextLong(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
 
         if (storeName == null) {
             throw new JsonParseException("StoreName is missing in JSON.");
         }
+        if (products == null) {
+            // Products array might be missing, which can be valid
+            System.out.println("StoreJsonParser: 'Products' array not found in JSON. Assuming no products.");
+            products = new ArrayList<>();
+        }
 
         Store store = new Store(storeName, latitude, longitude, foodCategory, stars, noOfVotes, storeLogo, products);
+        if (sales != null) {
+            store.restoreSales(sales, totalRevenue);
+        }
+        store.setVersion(version);
         // Price category will be calculated by store.calculateAndSetPriceCategory() later
         return store;
     }
 
-    private static List<Product> parseProductsArray(String json) throws JsonParseException {
+    private static List<Product> parseProductsArray(JsonReader reader) throws JsonParseException {
         List<Product> products = new ArrayList<>();
-        Pattern productsPattern = Pattern.compile("\"Products\"\\s*:\\s*\\[([^\\]]*)\\]");
-        Matcher productsMatcher = productsPattern.matcher(json);
-
-        if (productsMatcher.find()) {
-            String productsJsonArray = productsMatcher.group(1).trim();
-            if (productsJsonArray.isEmpty()) {
-                return products; // Empty products list
-            }
-            // Split individual product objects. This regex assumes objects are separated by commas
-            // and correctly handles nested structures *only if they are simple*.
-            String[] productJsonObjects = productsJsonArray.split("\\}\\s*,\\s*\\{"); 
-            
-            for (int i = 0; i < productJsonObjects.length; i++) {
-                String productJson = productJsonObjects[i];
-                if (i > 0) productJson = "{" + productJson; // Add back leading {
-                if (i < productJsonObjects.length - 1) productJson = productJson + "}"; // Add back trailing }
-                if (productJsonObjects.length == 1 && !productJson.startsWith("{") && !productJson.endsWith("}")) { // Single object case, ensure curly braces
-                    productJson = "{" + productJson + "}";
-                } else if (productJsonObjects.length > 1) { // Ensure braces for multiple objects if split removed them
-                    if (!productJson.startsWith("{")) productJson = "{" + productJson;
-                    if (!productJson.endsWith("}")) productJson = productJson + "}";
-                }
-
-
-                String productName = extractStringValue(productJson, "ProductName");
-                String productType = extractStringValue(productJson, "ProductType");
-                // Handle "Available Amount" with space
-                int availableAmount = extractIntValue(productJson, "Available Amount");
-                // The check below is redundant if extractIntValue handles the spaced key correctly.
-                // if (availableAmount == 0 && productJson.contains("\"Available Amount\"")) { 
-                //      availableAmount = extractIntValue(productJson, "Available Amount");
-                // }
-                double price = extractDoubleValue(productJson, "Price");
-
-                if (productName == null) {
-                    throw new JsonParseException("ProductName is missing in a product JSON object: " + productJson);
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return products;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String productName = null;
+            String productType = ""; // Optional field
+            int availableAmount = 0;
+            double price = 0.0;
+            boolean available = true; // Only in exported store state
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "ProductName": productName = reader.nextString(); break;
+                    case "ProductType": productType = reader.nextString(); break;
+                    case "Available Amount": availableAmount = reader.nextInt(); break; // Key contains a space
+                    case "Price": price = reader.nextDouble(); break;
+                    case "Available": available = reader.nextBoolean(); break;
+                    default: reader.skipValue();
                 }
-                products.add(new Product(productName, productType, availableAmount, price));
             }
-        } else {
-            // Products array might be missing or empty, which can be valid
-            System.out.println("StoreJsonParser: 'Products' array not found or empty in JSON. Assuming no products.");
-        }
-        return products;
-    }
-
-    private static String extractStringValue(String json, String key) throws JsonParseException {
-        Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*\"([^\"]*)\"");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            return matcher.group(1);
-        }
-        // Allow some fields to be optional or handle them as needed
-        if (key.equals("StoreLogo") || key.equals("ProductType")) return ""; // Example: optional field
-        // System.err.println("Warning: Key '" + key + "' not found or not a string in JSON snippet: " + json);
-        return null; 
-    }
+            reader.endObject();
 
-    private static double extractDoubleValue(String json, String key) throws JsonParseException {
-        Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*([0-9]*\\.?[0-9]+)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            try {
-                return Double.parseDouble(matcher.group(1));
-            } catch (NumberFormatException e) {
-                throw new JsonParseException("Invalid double value for key '" + key + "': " + matcher.group(1), e);
+            if (productName == null) {
+                throw new JsonParseException("ProductName is missing in a product JSON object.");
             }
+            Product product = new Product(productName, productType, availableAmount, price);
+            product.setAvailableForCustomer(available);
+            products.add(product);
         }
-        // System.err.println("Warning: Key '" + key + "' not found or not a double in JSON snippet: " + json);
-        return 0.0; // Default or throw error
+        reader.endArray();
+        return products;
     }
 
-    private static int extractIntValue(String json, String key) throws JsonParseException {
-         Pattern pattern = Pattern.compile("\"" + Pattern.quote(key) + "\"\\s*:\\s*([0-9]+)");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            try {
-                return Integer.parseInt(matcher.group(1));
-            } catch (NumberFormatException e) {
-                throw new JsonParseException("Invalid int value for key '" + key + "': " + matcher.group(1), e);
-            }
+    // {"productName": quantitySold, ...}
+    private static Map<String, Integer> parseSalesObject(JsonReader reader) throws JsonParseException {
+        Map<String, Integer> sales = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String productName = reader.nextName();
+            sales.put(productName, reader.nextInt());
         }
-        // System.err.println("Warning: Key '" + key + "' not found or not an int in JSON snippet: " + json);
-        return 0; // Default or throw error. For NoOfVotes/Stars, 0 might be acceptable default. For Available Amount, might need specific handling.
+        reader.endObject();
+        return sales;
     }
 
     public static class JsonParseException extends Exception {
@@ -142,10 +130,22 @@ public class StoreJsonParser {
     // New methods for parsing product management payloads
     public static com.fooddelivery.communication.payloads.AddProductRequestPayload parseAddProductRequestPayload(String json) throws JsonParseException {
         if (json == null || json.trim().isEmpty()) throw new JsonParseException("AddProductRequestPayload JSON is null or empty.");
-        String productName = extractStringValue(json, "productName");
-        String productType = extractStringValue(json, "productType"); // Can be null if not found by extractStringValue
-        double price = extractDoubleValue(json, "price");
-        int initialAvailableAmount = extractIntValue(json, "initialAvailableAmount");
+        String productName = null;
+        String productType = null;
+        double price = 0.0;
+        int initialAvailableAmount = 0;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "productName": productName = reader.nextString(); break;
+                case "productType": productType = reader.nextString(); break;
+                case "price": price = reader.nextDouble(); break;
+                case "initialAvailableAmount": initialAvailableAmount = reader.nextInt(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
 
         if (productName == null) throw new JsonParseException("productName missing in AddProductRequestPayload.");
         // storeName will be passed separately to worker methods.
@@ -154,16 +154,71 @@ public class StoreJsonParser {
 
     public static com.fooddelivery.communication.payloads.RemoveProductRequestPayload parseRemoveProductRequestPayload(String json) throws JsonParseException {
         if (json == null || json.trim().isEmpty()) throw new JsonParseException("RemoveProductRequestPayload JSON is null or empty.");
-        String productName = extractStringValue(json, "productName");
+        String productName = null;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("productName")) productName = reader.nextString();
+            else reader.skipValue();
+        }
+        reader.endObject();
         if (productName == null) throw new JsonParseException("productName missing in RemoveProductRequestPayload.");
         return new com.fooddelivery.communication.payloads.RemoveProductRequestPayload(null, productName);
     }
 
     public static com.fooddelivery.communication.payloads.UpdateStockRequestPayload parseUpdateStockRequestPayload(String json) throws JsonParseException {
         if (json == null || json.trim().isEmpty()) throw new JsonParseException("UpdateStockRequestPayload JSON is null or empty.");
-        String productName = extractStringValue(json, "productName");
-        int quantityChange = extractIntValue(json, "quantityChange");
+        String productName = null;
+        int quantityChange = 0;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "productName": productName = reader.nextString(); break;
+                case "quantityChange": quantityChange = reader.nextInt(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
         if (productName == null) throw new JsonParseException("productName missing in UpdateStockRequestPayload.");
         return new com.fooddelivery.communication.payloads.UpdateStockRequestPayload(null, productName, quantityChange);
     }
+
+    // {"storeName":"...","items":[{"productName":"...","quantity":2}, ...]}; storeName is optional (routing key).
+    public static com.fooddelivery.communication.payloads.PurchaseRequestPayload parsePurchaseRequestPayload(String json) throws JsonParseException {
+        if (json == null || json.trim().isEmpty()) throw new JsonParseException("PurchaseRequestPayload JSON is null or empty.");
+        String storeName = null;
+        List<com.fooddelivery.communication.payloads.OrderItemPayload> items = null;
+        JsonReader reader = new JsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "storeName": storeName = reader.nextString(); break;
+                case "items":
+                    items = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String productName = null;
+                        int quantity = 0;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "productName": productName = reader.nextString(); break;
+                                case "quantity": quantity = reader.nextInt(); break;
+                                default: reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        if (productName == null) throw new JsonParseException("productName missing in purchase item.");
+                        items.add(new com.fooddelivery.communication.payloads.OrderItemPayload(productName, quantity));
+                    }
+                    reader.endArray();
+                    break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (items == null || items.isEmpty()) throw new JsonParseException("items missing or empty in PurchaseRequestPayload.");
+        return new com.fooddelivery.communication.payloads.PurchaseRequestPayload(storeName, items);
+    }
 }